@@ -0,0 +1,407 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import com.jhlabs.math.FFT;
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.SubtaskProgressTracker;
+
+import java.awt.image.Kernel;
+
+import static com.jhlabs.image.ConvolveFilter.CLAMP_EDGES;
+import static com.jhlabs.image.ConvolveFilter.WRAP_EDGES;
+
+/**
+ * Convolves images with arbitrary kernels, choosing the execution
+ * method from the size and separability of the kernel: small kernels
+ * are applied directly, large separable kernels as a row and a column
+ * pass, and other large kernels with FFT-based block convolution.
+ *
+ * As in {@link ConvolveFilter}, the kernel is not flipped,
+ * and its origin is given by {@link Kernel#getXOrigin()} and
+ * {@link Kernel#getYOrigin()}.
+ */
+public class Convolution {
+    // the direct method is used up to this number of kernel values
+    static final int DIRECT_MAX_SIZE = 7 * 7;
+
+    // the separable method is used up to this kernel width + height
+    static final int SEPARABLE_MAX_LENGTH = 256;
+
+    private static final int MIN_TILE_SIZE = 128;
+
+    public enum Method {DIRECT, SEPARABLE, FFT}
+
+    private Convolution() {
+        // do not instantiate
+    }
+
+    /**
+     * Returns the fastest method for the given kernel
+     */
+    public static Method chooseMethod(Kernel kernel) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        if (cols * rows <= DIRECT_MAX_SIZE) {
+            return Method.DIRECT;
+        }
+        if (cols + rows <= SEPARABLE_MAX_LENGTH && separate(kernel) != null) {
+            return Method.SEPARABLE;
+        }
+        return Method.FFT;
+    }
+
+    /**
+     * Convolves the given pixels with the given kernel. One unit
+     * of progress is reported for each row of the image.
+     */
+    public static void convolve(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height,
+                                boolean alpha, int edgeAction, ProgressTracker pt) {
+        float[][] channels = convolveChannels(kernel, inPixels, width, height, edgeAction, pt);
+        float[] a = channels[0];
+        float[] r = channels[1];
+        float[] g = channels[2];
+        float[] b = channels[3];
+        for (int i = 0; i < outPixels.length; i++) {
+            int ia = alpha ? PixelUtils.clamp((int) (a[i] + 0.5f)) : 0xff;
+            int ir = PixelUtils.clamp((int) (r[i] + 0.5f));
+            int ig = PixelUtils.clamp((int) (g[i] + 0.5f));
+            int ib = PixelUtils.clamp((int) (b[i] + 0.5f));
+            outPixels[i] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+        }
+    }
+
+    /**
+     * Convolves the alpha, red, green and blue channels of the given
+     * pixels separately, and returns the unrounded and unclamped results
+     * in this order. The pixels outside the image are determined by the
+     * edge action. One unit of progress is reported for each row of the image.
+     */
+    public static float[][] convolveChannels(Kernel kernel, int[] inPixels, int width, int height,
+                                             int edgeAction, ProgressTracker pt) {
+        return switch (chooseMethod(kernel)) {
+            case DIRECT -> convolveDirect(kernel, inPixels, width, height, edgeAction, pt);
+            case SEPARABLE -> convolveSeparable(kernel, inPixels, width, height, edgeAction, pt);
+            case FFT -> convolveFFT(kernel, inPixels, width, height, edgeAction, pt);
+        };
+    }
+
+    /**
+     * Returns the column vector and the row vector whose
+     * product is the given kernel, or null if there are none.
+     */
+    static float[][] separate(Kernel kernel) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        float[] matrix = kernel.getKernelData(null);
+
+        int pivot = 0;
+        for (int i = 1; i < matrix.length; i++) {
+            if (Math.abs(matrix[i]) > Math.abs(matrix[pivot])) {
+                pivot = i;
+            }
+        }
+        float pivotValue = matrix[pivot];
+        if (pivotValue == 0) {
+            return null;
+        }
+        int pivotRow = pivot / cols;
+        int pivotCol = pivot % cols;
+
+        float[] colVector = new float[rows];
+        float[] rowVector = new float[cols];
+        for (int y = 0; y < rows; y++) {
+            colVector[y] = matrix[y * cols + pivotCol];
+        }
+        for (int x = 0; x < cols; x++) {
+            rowVector[x] = matrix[pivotRow * cols + x] / pivotValue;
+        }
+
+        float tolerance = 1.0e-6f * Math.abs(pivotValue);
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                if (Math.abs(matrix[y * cols + x] - colVector[y] * rowVector[x]) > tolerance) {
+                    return null;
+                }
+            }
+        }
+        return new float[][]{colVector, rowVector};
+    }
+
+    private static float[][] convolveDirect(Kernel kernel, int[] inPixels, int width, int height,
+                                            int edgeAction, ProgressTracker pt) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        int xOrigin = kernel.getXOrigin();
+        int yOrigin = kernel.getYOrigin();
+        float[] matrix = kernel.getKernelData(null);
+        float[][] out = new float[4][width * height];
+
+        ThreadPool.parallelFor(height, y -> {
+            for (int x = 0; x < width; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int row = 0; row < rows; row++) {
+                    int iy = mapEdge(y + row - yOrigin, height, edgeAction);
+                    if (iy < 0) {
+                        continue;
+                    }
+                    for (int col = 0; col < cols; col++) {
+                        float f = matrix[row * cols + col];
+                        int ix = mapEdge(x + col - xOrigin, width, edgeAction);
+                        if (f == 0 || ix < 0) {
+                            continue;
+                        }
+                        int rgb = inPixels[iy * width + ix];
+                        a += f * ((rgb >> 24) & 0xff);
+                        r += f * ((rgb >> 16) & 0xff);
+                        g += f * ((rgb >> 8) & 0xff);
+                        b += f * (rgb & 0xff);
+                    }
+                }
+                int index = y * width + x;
+                out[0][index] = a;
+                out[1][index] = r;
+                out[2][index] = g;
+                out[3][index] = b;
+            }
+        }, pt);
+
+        return out;
+    }
+
+    private static float[][] convolveSeparable(Kernel kernel, int[] inPixels, int width, int height,
+                                               int edgeAction, ProgressTracker pt) {
+        float[][] vectors = separate(kernel);
+        float[] colVector = vectors[0];
+        float[] rowVector = vectors[1];
+        int xOrigin = kernel.getXOrigin();
+        int yOrigin = kernel.getYOrigin();
+
+        // both passes report one unit per row
+        var passTracker = new SubtaskProgressTracker(0.5, pt);
+
+        // the row pass, with float results to avoid clamping negative values
+        float[][] rowPass = new float[4][width * height];
+        ThreadPool.parallelFor(height, y -> {
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int col = 0; col < rowVector.length; col++) {
+                    float f = rowVector[col];
+                    int ix = mapEdge(x + col - xOrigin, width, edgeAction);
+                    if (f == 0 || ix < 0) {
+                        continue;
+                    }
+                    int rgb = inPixels[rowOffset + ix];
+                    a += f * ((rgb >> 24) & 0xff);
+                    r += f * ((rgb >> 16) & 0xff);
+                    g += f * ((rgb >> 8) & 0xff);
+                    b += f * (rgb & 0xff);
+                }
+                rowPass[0][rowOffset + x] = a;
+                rowPass[1][rowOffset + x] = r;
+                rowPass[2][rowOffset + x] = g;
+                rowPass[3][rowOffset + x] = b;
+            }
+        }, passTracker);
+
+        // the column pass
+        float[][] out = new float[4][width * height];
+        ThreadPool.parallelFor(height, y -> {
+            for (int row = 0; row < colVector.length; row++) {
+                float f = colVector[row];
+                int iy = mapEdge(y + row - yOrigin, height, edgeAction);
+                if (f == 0 || iy < 0) {
+                    continue;
+                }
+                for (int c = 0; c < 4; c++) {
+                    float[] src = rowPass[c];
+                    float[] dst = out[c];
+                    for (int x = 0, in = iy * width, o = y * width; x < width; x++) {
+                        dst[o++] += f * src[in++];
+                    }
+                }
+            }
+        }, passTracker);
+
+        return out;
+    }
+
+    /**
+     * Block convolution with FFTs (overlap-save): the image is split into
+     * overlapping tiles, each tile is convolved as a cyclic convolution,
+     * and only the part unaffected by the wrapping is kept. The outputs of
+     * the tiles don't overlap, so they can be processed in parallel
+     * without synchronization.
+     */
+    private static float[][] convolveFFT(Kernel kernel, int[] inPixels, int width, int height,
+                                         int edgeAction, ProgressTracker pt) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+
+        int tileSize = Math.max(MIN_TILE_SIZE, nextPowerOfTwo(4 * Math.max(cols, rows)));
+        int tileWidth = Math.min(tileSize, nextPowerOfTwo(width + cols - 1));
+        int tileHeight = Math.min(tileSize, nextPowerOfTwo(height + rows - 1));
+        int stepX = tileWidth - cols + 1;
+        int stepY = tileHeight - rows + 1;
+        int numTileCols = (width + stepX - 1) / stepX;
+        int numTileRows = (height + stepY - 1) / stepY;
+        int numTiles = numTileCols * numTileRows;
+
+        float[][] kernelSpectrum = transformKernel(kernel, tileWidth, tileHeight);
+        float[][] out = new float[4][width * height];
+
+        var tileTracker = new SubtaskProgressTracker(height / (double) numTiles, pt);
+        ThreadPool.parallelForStrips(numTiles, (startTile, endTile) -> {
+            var tile = new FFTTile(tileWidth, tileHeight);
+            for (int i = startTile; i < endTile; i++) {
+                int outX = (i % numTileCols) * stepX;
+                int outY = (i / numTileCols) * stepY;
+                tile.load(inPixels, width, height, outX - kernel.getXOrigin(),
+                    outY - kernel.getYOrigin(), edgeAction);
+                tile.convolve(kernelSpectrum);
+                tile.store(out, width, outX, outY,
+                    Math.min(stepX, width - outX), Math.min(stepY, height - outY));
+            }
+        }, tileTracker);
+
+        return out;
+    }
+
+    /**
+     * Returns the spectrum of the kernel, placed so that the cyclic
+     * convolution calculates the (unflipped) correlation used here
+     */
+    private static float[][] transformKernel(Kernel kernel, int tileWidth, int tileHeight) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        float[] matrix = kernel.getKernelData(null);
+
+        float[] placed = new float[tileWidth * tileHeight];
+        for (int y = 0; y < rows; y++) {
+            int py = (tileHeight - y) % tileHeight;
+            for (int x = 0; x < cols; x++) {
+                int px = (tileWidth - x) % tileWidth;
+                placed[py * tileWidth + px] = matrix[y * cols + x];
+            }
+        }
+
+        float[][] spectrum = new float[2][tileWidth * tileHeight];
+        var fft = new FFT(log2(Math.max(tileWidth, tileHeight)));
+        fft.transformReal2D(placed, spectrum[0], spectrum[1], tileWidth, tileHeight);
+        return spectrum;
+    }
+
+    /**
+     * A tile with its own FFT and buffers. Two real channels
+     * are transformed together as the real and imaginary parts.
+     */
+    private static class FFTTile {
+        private final int w;
+        private final int h;
+        private final FFT fft;
+        private final float[][] ar;
+        private final float[][] gb;
+
+        FFTTile(int w, int h) {
+            this.w = w;
+            this.h = h;
+            fft = new FFT(log2(Math.max(w, h)));
+            ar = new float[2][w * h];
+            gb = new float[2][w * h];
+        }
+
+        void load(int[] inPixels, int width, int height, int startX, int startY, int edgeAction) {
+            int i = 0;
+            for (int y = 0; y < h; y++) {
+                int iy = mapEdge(startY + y, height, edgeAction);
+                for (int x = 0; x < w; x++, i++) {
+                    int ix = mapEdge(startX + x, width, edgeAction);
+                    int rgb = (iy < 0 || ix < 0) ? 0 : inPixels[iy * width + ix];
+                    ar[0][i] = (rgb >> 24) & 0xff;
+                    ar[1][i] = (rgb >> 16) & 0xff;
+                    gb[0][i] = (rgb >> 8) & 0xff;
+                    gb[1][i] = rgb & 0xff;
+                }
+            }
+        }
+
+        void convolve(float[][] kernelSpectrum) {
+            fft.transform2D(ar[0], ar[1], w, h, true);
+            fft.transform2D(gb[0], gb[1], w, h, true);
+
+            float[] kRe = kernelSpectrum[0];
+            float[] kIm = kernelSpectrum[1];
+            for (int i = 0; i < w * h; i++) {
+                float re = ar[0][i];
+                float im = ar[1][i];
+                ar[0][i] = re * kRe[i] - im * kIm[i];
+                ar[1][i] = re * kIm[i] + im * kRe[i];
+
+                re = gb[0][i];
+                im = gb[1][i];
+                gb[0][i] = re * kRe[i] - im * kIm[i];
+                gb[1][i] = re * kIm[i] + im * kRe[i];
+            }
+
+            fft.transform2D(ar[0], ar[1], w, h, false);
+            fft.transform2D(gb[0], gb[1], w, h, false);
+        }
+
+        void store(float[][] out, int width, int outX, int outY, int outWidth, int outHeight) {
+            for (int y = 0; y < outHeight; y++) {
+                int tileIndex = y * w;
+                int outIndex = (outY + y) * width + outX;
+                System.arraycopy(ar[0], tileIndex, out[0], outIndex, outWidth);
+                System.arraycopy(ar[1], tileIndex, out[1], outIndex, outWidth);
+                System.arraycopy(gb[0], tileIndex, out[2], outIndex, outWidth);
+                System.arraycopy(gb[1], tileIndex, out[3], outIndex, outWidth);
+            }
+        }
+    }
+
+    /**
+     * Maps a coordinate outside the image according to the
+     * edge action. Returns -1 if the pixel should be treated as zero.
+     */
+    private static int mapEdge(int coord, int size, int edgeAction) {
+        if (coord >= 0 && coord < size) {
+            return coord;
+        }
+        if (edgeAction == CLAMP_EDGES) {
+            return coord < 0 ? 0 : size - 1;
+        }
+        if (edgeAction == WRAP_EDGES) {
+            return ImageMath.mod(coord, size);
+        }
+        return -1;
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int powerOfTwo = 1;
+        while (powerOfTwo < n) {
+            powerOfTwo *= 2;
+        }
+        return powerOfTwo;
+    }
+
+    private static int log2(int powerOfTwo) {
+        return Integer.numberOfTrailingZeros(powerOfTwo);
+    }
+}
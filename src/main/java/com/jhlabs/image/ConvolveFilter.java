@@ -261,16 +261,11 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
      */
     public void convolve(Kernel kernel, int[] inputPixels, int[] outputPixels, int width, int height, boolean alpha, int edgeAction) {
-    	IConvolve convolveProcess;
-        if (kernel.getHeight() == 1) {
-            convolveProcess = new convolveH();
-        } else if (kernel.getWidth() == 1) {
-            convolveProcess = new convolveV();
-        } else {
-            convolveProcess = new convolveHV();
-        }
-        convolveProcess.convolveProcessing(kernel, inputPixels, outputPixels, width, height, alpha, edgeAction);
-
+        // all kernel sizes go through the same service, so that
+        // the edges are handled the same way for every method
+        pt = createProgressTracker(height);
+        Convolution.convolve(kernel, inputPixels, outputPixels, width, height, alpha, edgeAction, pt);
+        finishProgressTracker();
     }
 
     /**
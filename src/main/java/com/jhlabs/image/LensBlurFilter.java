@@ -18,8 +18,12 @@ package com.jhlabs.image;
 
 import com.jhlabs.math.FFT;
 import net.jafama.FastMath;
+import pixelitor.ThreadPool;
 
 import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
@@ -33,6 +37,18 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
     private static final float angle = 0;
     private int sides = 5;
 
+    private static final int MAX_CACHED_KERNELS = 8;
+
+    // the transformed kernels of the recently used settings,
+    // so that they are not recalculated while adjusting the bloom
+    private static final Map<KernelKey, float[][]> kernelCache =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<KernelKey, float[][]> eldest) {
+                return size() > MAX_CACHED_KERNELS;
+            }
+        };
+
     public LensBlurFilter(String filterName) {
         super(filterName);
     }
@@ -122,44 +138,72 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
     public BufferedImage filter(BufferedImage src, BufferedImage dst) {
         int width = src.getWidth();
         int height = src.getHeight();
-        int rows = 1, cols = 1;
-        int log2rows = 0, log2cols = 0;
         int iradius = (int) Math.ceil(radius);
-//        int tileWidth = 128;
-//        int tileHeight = tileWidth;
 
-//        int adjustedWidth = (int)(width + iradius*2);
-//        int adjustedHeight = (int)(height + iradius*2);
-
-        int tileWidth = iradius < 32 ? Math.min(128, width + 2 * iradius) : Math.min(256, width + 2 * iradius);
-        int tileHeight = iradius < 32 ? Math.min(128, height + 2 * iradius) : Math.min(256, height + 2 * iradius);
+        // the tiles must be larger than the overlap on both sides,
+        // and relatively larger for large radii to reduce the overlap
+        int maxTileSize = Math.max(128, Integer.highestOneBit(iradius) * 8);
+        int w = nextPowerOfTwo(Math.min(maxTileSize, width + 2 * iradius));
+        int h = nextPowerOfTwo(Math.min(maxTileSize, height + 2 * iradius));
 
         if (dst == null) {
             dst = new BufferedImage(width, height, TYPE_INT_ARGB);
         }
 
-        while (rows < tileHeight) {
-            rows *= 2;
-            log2rows++;
-        }
-        while (cols < tileWidth) {
-            cols *= 2;
-            log2cols++;
-        }
-        int w = cols;
-        int h = rows;
+        float[][] mask = getTransformedKernel(w, h);
+
+        int stepX = w - 2 * iradius;
+        int stepY = h - 2 * iradius;
+        int numTileCols = (width + stepX - 1) / stepX;
+        int numTileRows = (height + stepY - 1) / stepY;
+        int numTiles = numTileCols * numTileRows;
+        pt = createProgressTracker(numTiles);
+
+        BufferedImage out = dst;
+        ThreadPool.parallelForStrips(numTiles, (startTile, endTile) -> {
+            var worker = new TileWorker(src, out, w, h, iradius, mask);
+            for (int tile = startTile; tile < endTile; tile++) {
+                int tileX = -iradius + (tile % numTileCols) * stepX;
+                int tileY = -iradius + (tile / numTileCols) * stepY;
+                worker.process(tileX, tileY);
+            }
+        }, pt);
+        finishProgressTracker();
 
-        tileWidth = w;
-        tileHeight = h;//FIXME-tileWidth, w, and cols are always all the same
+        return dst;
+    }
 
-        FFT fft = new FFT(Math.max(log2rows, log2cols));
+    private static int nextPowerOfTwo(int n) {
+        int powerOfTwo = 1;
+        while (powerOfTwo < n) {
+            powerOfTwo *= 2;
+        }
+        return powerOfTwo;
+    }
 
-        int[] rgb = new int[w * h];
-        float[][] mask = new float[2][w * h];
-        float[][] gb = new float[2][w * h];
-        float[][] ar = new float[2][w * h];
+    /**
+     * Returns the Fourier transform of the kernel for the
+     * given tile size, which is calculated only if the
+     * same settings were not used recently.
+     */
+    private float[][] getTransformedKernel(int w, int h) {
+        var key = new KernelKey(radius, sides, angle, w, h);
+        synchronized (kernelCache) {
+            float[][] mask = kernelCache.get(key);
+            if (mask != null) {
+                return mask;
+            }
+        }
 
-        // Create the kernel
+        float[][] mask = createTransformedKernel(w, h);
+        synchronized (kernelCache) {
+            kernelCache.put(key, mask);
+        }
+        return mask;
+    }
+
+    private float[][] createTransformedKernel(int w, int h) {
+        float[] kernel = new float[w * h];
         double polyAngle = Math.PI / sides;
         double polyScale = 1.0f / FastMath.cos(polyAngle);
         double r2 = radius * radius;
@@ -185,194 +229,238 @@ public class LensBlurFilter extends AbstractBufferedImageOp {
                 }
                 total += (float) f;
 
-                mask[0][i] = (float) f;
-                mask[1][i] = 0;
+                kernel[i] = (float) f;
                 i++;
             }
         }
 
         // Normalize the kernel
-        i = 0;
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                mask[0][i] /= total;
-                i++;
-            }
+        for (i = 0; i < kernel.length; i++) {
+            kernel[i] /= total;
         }
 
-        fft.transform2D(mask[0], mask[1], w, h, true);
+        float[][] mask = new float[2][w * h];
+        var fft = new FFT(Math.max(log2(w), log2(h)));
+        fft.transformReal2D(kernel, mask[0], mask[1], w, h);
+        return mask;
+    }
+
+    private static int log2(int powerOfTwo) {
+        return Integer.numberOfTrailingZeros(powerOfTwo);
+    }
 
-        int workUnits = 0;
-        // count the work units the same was as the code does...
-        for (int tileY = -iradius; tileY < height; tileY += tileHeight - 2 * iradius) {
-            workUnits++;
+    /**
+     * Blurs tiles with its own FFT and buffers,
+     * so that tiles can be processed in parallel.
+     */
+    private class TileWorker {
+        private final BufferedImage src;
+        private final BufferedImage dst;
+        private final int width;
+        private final int height;
+        private final int w;
+        private final int h;
+        private final int iradius;
+        private final float[][] mask;
+
+        private final FFT fft;
+        private final int[] rgb;
+        private final float[][] gb;
+        private final float[][] ar;
+
+        TileWorker(BufferedImage src, BufferedImage dst, int w, int h, int iradius, float[][] mask) {
+            this.src = src;
+            this.dst = dst;
+            this.w = w;
+            this.h = h;
+            this.iradius = iradius;
+            this.mask = mask;
+            width = src.getWidth();
+            height = src.getHeight();
+
+            fft = new FFT(Math.max(log2(w), log2(h)));
+            rgb = new int[w * h];
+            gb = new float[2][w * h];
+            ar = new float[2][w * h];
         }
-        pt = createProgressTracker(workUnits);
-
-        for (int tileY = -iradius; tileY < height; tileY += tileHeight - 2 * iradius) {
-            for (int tileX = -iradius; tileX < width; tileX += tileWidth - 2 * iradius) {
-//                System.out.println("Tile: "+tileX+" "+tileY+" "+tileWidth+" "+tileHeight);
-
-                // Clip the tile to the image bounds
-                int tx = tileX, ty = tileY, tw = tileWidth, th = tileHeight;
-                int fx = 0, fy = 0;
-                if (tx < 0) {
-                    tw += tx;
-                    fx -= tx;
-                    tx = 0;
-                }
-                if (ty < 0) {
-                    th += ty;
-                    fy -= ty;
-                    ty = 0;
-                }
-                if (tx + tw > width) {
-                    tw = width - tx;
-                }
-                if (ty + th > height) {
-                    th = height - ty;
+
+        void process(int tileX, int tileY) {
+            int cols = w;
+            int rows = h;
+
+            // Clip the tile to the image bounds
+            int tx = tileX, ty = tileY, tw = w, th = h;
+            int fx = 0, fy = 0;
+            if (tx < 0) {
+                tw += tx;
+                fx -= tx;
+                tx = 0;
+            }
+            if (ty < 0) {
+                th += ty;
+                fy -= ty;
+                ty = 0;
+            }
+            if (tx + tw > width) {
+                tw = width - tx;
+            }
+            if (ty + th > height) {
+                th = height - ty;
+            }
+            src.getRGB(tx, ty, tw, th, rgb, fy * w + fx, w);
+
+            // Create a float array from the pixels. Any pixels off the edge of the source image get duplicated from the edge.
+            int i = 0;
+            for (int y = 0; y < h; y++) {
+                int imageY = y + tileY;
+                int j;
+                if (imageY < 0) {
+                    j = fy;
+                } else if (imageY >= height) {
+                    j = fy + th - 1;
+                } else {
+                    j = y;
                 }
-                src.getRGB(tx, ty, tw, th, rgb, fy * w + fx, w);
-                // getRGB(src, tx, ty, tw, th, rgb);
-
-                // Create a float array from the pixels. Any pixels off the edge of the source image get duplicated from the edge.
-                i = 0;
-                for (int y = 0; y < h; y++) {
-                    int imageY = y + tileY;
-                    int j;
-                    if (imageY < 0) {
-                        j = fy;
-                    } else if (imageY > height) {
-                        j = fy + th - 1;
+                j *= w;
+                for (int x = 0; x < w; x++) {
+                    int imageX = x + tileX;
+                    int k;
+                    if (imageX < 0) {
+                        k = fx;
+                    } else if (imageX >= width) {
+                        k = fx + tw - 1;
                     } else {
-                        j = y;
+                        k = x;
                     }
-                    j *= w;
-                    for (int x = 0; x < w; x++) {
-                        int imageX = x + tileX;
-                        int k;
-                        if (imageX < 0) {
-                            k = fx;
-                        } else if (imageX > width) {
-                            k = fx + tw - 1;
-                        } else {
-                            k = x;
-                        }
-                        k += j;
-
-                        ar[0][i] = ((rgb[k] >> 24) & 0xff);
-                        float r = ((rgb[k] >> 16) & 0xff);
-                        float g = ((rgb[k] >> 8) & 0xff);
-                        float b = (rgb[k] & 0xff);
-
-                        // Bloom...
-                        if (r > bloomThreshold) {
-                            r *= bloom;
-                        }
-//							r = bloomThreshold + (r-bloomThreshold) * bloom;
-                        if (g > bloomThreshold) {
-                            g *= bloom;
-                        }
-//							g = bloomThreshold + (g-bloomThreshold) * bloom;
-                        if (b > bloomThreshold) {
-                            b *= bloom;
-                        }
-//							b = bloomThreshold + (b-bloomThreshold) * bloom;
-
-                        ar[1][i] = r;
-                        gb[0][i] = g;
-                        gb[1][i] = b;
-
-                        i++;
-                        k++;
-                    }
-                }
+                    k += j;
 
-                // Transform into frequency space
-                fft.transform2D(ar[0], ar[1], cols, rows, true);
-                fft.transform2D(gb[0], gb[1], cols, rows, true);
-
-                // Multiply the transformed pixels by the transformed kernel
-                i = 0;
-                for (int y = 0; y < h; y++) {
-                    for (int x = 0; x < w; x++) {
-                        float re = ar[0][i];
-                        float im = ar[1][i];
-                        float rem = mask[0][i];
-                        float imm = mask[1][i];
-                        ar[0][i] = re * rem - im * imm;
-                        ar[1][i] = re * imm + im * rem;
-
-                        re = gb[0][i];
-                        im = gb[1][i];
-                        gb[0][i] = re * rem - im * imm;
-                        gb[1][i] = re * imm + im * rem;
-                        i++;
-                    }
-                }
+                    ar[0][i] = ((rgb[k] >> 24) & 0xff);
+                    float r = ((rgb[k] >> 16) & 0xff);
+                    float g = ((rgb[k] >> 8) & 0xff);
+                    float b = (rgb[k] & 0xff);
 
-                // Transform back
-                fft.transform2D(ar[0], ar[1], cols, rows, false);
-                fft.transform2D(gb[0], gb[1], cols, rows, false);
-
-                // Convert back to RGB pixels, with quadrant remapping
-                int row_flip = w >> 1;
-                int col_flip = h >> 1;
-                int index = 0;
-
-                int workaroundMax = w * h - 1;
-
-                //FIXME-don't bother converting pixels off image edges
-                for (int y = 0; y < w; y++) {
-                    int ym = y ^ row_flip;
-                    int yi = ym * cols;
-                    for (int x = 0; x < w; x++) {
-                        int xm = yi + (x ^ col_flip);
-
-                        // Laszlo: not sure what is happening here, but for certain small images
-                        // with unusual image proportions (for example for any 100*20 input image)
-                        // we get an ArrayIndexOutOfBoundsException
-                        // This break does not result in a good-looking image, but at least
-                        // it avoids the exceptions during the automatic tests
-                        if (xm > workaroundMax) {
-                            break;
-                        }
-
-                        int a = (int) ar[0][xm];
-                        int r = (int) ar[1][xm];
-                        int g = (int) gb[0][xm];
-                        int b = (int) gb[1][xm];
-
-                        // Clamp high pixels due to blooming
-                        r = ImageMath.CheckOverLoad8bits(r);
-                        g = ImageMath.CheckOverLoad8bits(g);
-                        b = ImageMath.CheckOverLoad8bits(b);
-                        
-                        int argb = (a << 24) | (r << 16) | (g << 8) | b;
-                        rgb[index++] = argb;
+                    // Bloom...
+                    if (r > bloomThreshold) {
+                        r *= bloom;
                     }
-                }
+                    if (g > bloomThreshold) {
+                        g *= bloom;
+                    }
+                    if (b > bloomThreshold) {
+                        b *= bloom;
+                    }
+
+                    ar[1][i] = r;
+                    gb[0][i] = g;
+                    gb[1][i] = b;
 
-                // Clip to the output image
-                tx = tileX + iradius;
-                ty = tileY + iradius;
-                tw = tileWidth - 2 * iradius;
-                th = tileHeight - 2 * iradius;
-                if (tx + tw > width) {
-                    tw = width - tx;
+                    i++;
                 }
-                if (ty + th > height) {
-                    th = height - ty;
+            }
+
+            // Transform into frequency space. Two real channels are
+            // transformed together as the real and imaginary parts.
+            fft.transform2D(ar[0], ar[1], cols, rows, true);
+            fft.transform2D(gb[0], gb[1], cols, rows, true);
+
+            // Multiply the transformed pixels by the transformed kernel
+            for (i = 0; i < w * h; i++) {
+                float re = ar[0][i];
+                float im = ar[1][i];
+                float rem = mask[0][i];
+                float imm = mask[1][i];
+                ar[0][i] = re * rem - im * imm;
+                ar[1][i] = re * imm + im * rem;
+
+                re = gb[0][i];
+                im = gb[1][i];
+                gb[0][i] = re * rem - im * imm;
+                gb[1][i] = re * imm + im * rem;
+            }
+
+            // Transform back
+            fft.transform2D(ar[0], ar[1], cols, rows, false);
+            fft.transform2D(gb[0], gb[1], cols, rows, false);
+
+            // Clip to the output image
+            tx = tileX + iradius;
+            ty = tileY + iradius;
+            tw = w - 2 * iradius;
+            th = h - 2 * iradius;
+            if (tx + tw > width) {
+                tw = width - tx;
+            }
+            if (ty + th > height) {
+                th = height - ty;
+            }
+
+            // Convert back to RGB pixels, with quadrant remapping,
+            // only for the pixels that are written to the output
+            int rowFlip = h >> 1;
+            int colFlip = w >> 1;
+            for (int y = iradius; y < iradius + th; y++) {
+                int yi = (y ^ rowFlip) * cols;
+                int index = y * w + iradius;
+                for (int x = iradius; x < iradius + tw; x++) {
+                    int xm = yi + (x ^ colFlip);
+
+                    int a = (int) ar[0][xm];
+                    int r = (int) ar[1][xm];
+                    int g = (int) gb[0][xm];
+                    int b = (int) gb[1][xm];
+
+                    // Clamp high pixels due to blooming
+                    r = ImageMath.CheckOverLoad8bits(r);
+                    g = ImageMath.CheckOverLoad8bits(g);
+                    b = ImageMath.CheckOverLoad8bits(b);
+
+                    rgb[index++] = (a << 24) | (r << 16) | (g << 8) | b;
                 }
+            }
 
+            // the tiles write to disjoint areas, but the
+            // image might not support concurrent writes
+            synchronized (dst) {
                 dst.setRGB(tx, ty, tw, th, rgb, iradius * w + iradius, w);
-                // setRGB(dst, tx, ty, tw, th, rgb);
             }
-            pt.unitDone();
         }
-        finishProgressTracker();
+    }
 
-        return dst;
+    /**
+     * The settings that determine the transformed kernel
+     */
+    private static class KernelKey {
+        private final float radius;
+        private final int sides;
+        private final float angle;
+        private final int w;
+        private final int h;
+
+        KernelKey(float radius, int sides, float angle, int w, int h) {
+            this.radius = radius;
+            this.sides = sides;
+            this.angle = angle;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof KernelKey)) {
+                return false;
+            }
+            KernelKey key = (KernelKey) o;
+            return key.radius == radius && key.sides == sides
+                && key.angle == angle && key.w == w && key.h == h;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(radius, sides, angle, w, h);
+        }
     }
 
     @Override
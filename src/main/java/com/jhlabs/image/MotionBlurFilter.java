@@ -19,15 +19,20 @@ package com.jhlabs.image;
 import net.jafama.DoubleWrapper;
 import net.jafama.FastMath;
 import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.VisibleForTesting;
 
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
+import java.awt.image.Kernel;
 
 /**
  * A filter which produces motion blur the slow, but higher-quality way.
  */
 public class MotionBlurFilter extends AbstractBufferedImageOp implements MotionBlur {
+    // below this, averaging the samples is faster than the convolution
+    private static final int MIN_CONVOLUTION_SAMPLES = 32;
+
     private float angle = 0.0f;
 //    private final float falloff = 1.0f;
     private float distance = 1.0f;
@@ -39,6 +44,9 @@ public class MotionBlurFilter extends AbstractBufferedImageOp implements MotionB
     private float centreY = 0.5f;
     private float centreX = 0.5f;
 
+    // the tests can turn it off, to compare with the per-pixel results
+    private boolean convolutionEnabled = true;
+
     /**
      * Construct a MotionBlurFilter.
      */
@@ -274,13 +282,23 @@ public class MotionBlurFilter extends AbstractBufferedImageOp implements MotionB
             ImageMath.premultiply(inPixels, 0, inPixels.length);
         }
 
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calcLine(width, height, inPixels, outPixels, cx, cy, translateX, translateY, repetitions, finalY);
-            futures[y] = ThreadPool.submit(lineTask);
+        // a blur in a single direction samples every pixel
+        // with the same offsets, and it is a convolution,
+        // which is faster for long distances
+        int[][] offsets = null;
+        Kernel kernel = null;
+        if (zoom == 0 && rotation == 0) {
+            offsets = calcTranslationOffsets(cx, cy, translateX, translateY, repetitions);
+            if (convolutionEnabled && repetitions >= MIN_CONVOLUTION_SAMPLES) {
+                kernel = createTranslationKernel(offsets, repetitions);
+            }
+        }
+        int[][] finalOffsets = offsets;
+        if (kernel != null && Convolution.chooseMethod(kernel) != Convolution.Method.DIRECT) {
+            convolveLine(kernel, offsets, width, height, inPixels, outPixels, cx, cy, translateX, translateY, repetitions);
+        } else {
+            ThreadPool.parallelFor(height, y -> calcLine(width, height, inPixels, outPixels, cx, cy, translateX, translateY, repetitions, finalOffsets, y), pt);
         }
-        ThreadPool.waitFor(futures, pt);
         if (premultiplyAlpha) {
             ImageMath.unpremultiply(outPixels, 0, inPixels.length);
         }
@@ -292,68 +310,146 @@ public class MotionBlurFilter extends AbstractBufferedImageOp implements MotionB
         return dst;
     }
 
-    private void calcLine(int width, int height, int[] inPixels, int[] outPixels, int cx, int cy, float translateX, float translateY, int repetitions, int y) {
+    /**
+     * Returns the sample offsets used for all pixels if there is no zoom
+     * and rotation. They are exact for every pixel, unlike a float
+     * transform of each pixel, which can round the samples of the
+     * distant pixels differently.
+     */
+    private static int[][] calcTranslationOffsets(int cx, int cy, float translateX, float translateY, int repetitions) {
+        int[] dx = new int[repetitions];
+        int[] dy = new int[repetitions];
+        for (int i = 1; i < repetitions; i++) {
+            float f = (float) i / repetitions;
+            dx[i] = (int) Math.floor((double) (cx + f * translateX) - cx);
+            dy[i] = (int) Math.floor((double) (cy + f * translateY) - cy);
+        }
+        return new int[][]{dx, dy};
+    }
+
+    private static Kernel createTranslationKernel(int[][] offsets, int repetitions) {
+        int maxDx = 0;
+        int maxDy = 0;
+        for (int i = 0; i < repetitions; i++) {
+            maxDx = Math.max(maxDx, Math.abs(offsets[0][i]));
+            maxDy = Math.max(maxDy, Math.abs(offsets[1][i]));
+        }
+
+        // the kernel is centered on the origin, and each sample adds 1
+        int cols = 2 * maxDx + 1;
+        int rows = 2 * maxDy + 1;
+        float[] matrix = new float[cols * rows];
+        for (int i = 0; i < repetitions; i++) {
+            matrix[(offsets[1][i] + maxDy) * cols + offsets[0][i] + maxDx] += 1;
+        }
+        return new Kernel(cols, rows, matrix);
+    }
+
+    /**
+     * Calculates the same averages as calcLine with a convolution, for the
+     * pixels whose samples are all inside the image. The samples are
+     * along a line, so this is the case if the last sample is inside.
+     * The pixels near the edges are calculated by calcPixel, because
+     * they are averaged from fewer samples or wrapped around.
+     */
+    private void convolveLine(Kernel kernel, int[][] offsets, int width, int height, int[] inPixels, int[] outPixels,
+                              int cx, int cy, float translateX, float translateY, int repetitions) {
+        float[][] sums = Convolution.convolveChannels(kernel, inPixels, width, height, ConvolveFilter.ZERO_EDGES, pt);
+        int lastDx = offsets[0][repetitions - 1];
+        int lastDy = offsets[1][repetitions - 1];
+
+        ThreadPool.parallelFor(height, y -> {
+            FastTransform t = new FastTransform();
+            Point2D.Float p = new Point2D.Float();
+            boolean rowInside = y + lastDy >= 0 && y + lastDy < height;
+            for (int x = 0, index = y * width; x < width; x++, index++) {
+                if (rowInside && x + lastDx >= 0 && x + lastDx < width) {
+                    int a = PixelUtils.clamp((int) (sums[0][index] + 0.5f) / repetitions);
+                    int r = PixelUtils.clamp((int) (sums[1][index] + 0.5f) / repetitions);
+                    int g = PixelUtils.clamp((int) (sums[2][index] + 0.5f) / repetitions);
+                    int b = PixelUtils.clamp((int) (sums[3][index] + 0.5f) / repetitions);
+                    outPixels[index] = (a << 24) | (r << 16) | (g << 8) | b;
+                } else {
+                    outPixels[index] = calcPixel(x, y, index, width, height, inPixels, cx, cy, translateX, translateY, repetitions, offsets, t, p);
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    private void calcLine(int width, int height, int[] inPixels, int[] outPixels, int cx, int cy, float translateX, float translateY, int repetitions, int[][] offsets, int y) {
         int index = y * width;
         FastTransform t = new FastTransform();
         Point2D.Float p = new Point2D.Float();
 
         for (int x = 0; x < width; x++) {
-            int a = 0, r = 0, g = 0, b = 0;
-            int count = 0;
-            for (int i = 0; i < repetitions; i++) {
-                int newX = x, newY = y;
-
-                if (i != 0) {
-                    float f = (float) i / repetitions;
-                    p.x = x;
-                    p.y = y;
-                    t.setToIdentity();
-                    t.translateAfterIdentity(cx + f * translateX, cy + f * translateY);
-                    float s = 1 - zoom * f;
-                    t.scaleAfterTranslate(s, s);
-                    if (rotation != 0) {
-                        t.rotate(-rotation * f);
-                    }
-                    t.translateAfterRotate(-cx, -cy);
-                    t.transform(p, p);
-                    newX = (int) p.x;
-                    newY = (int) p.y;
-                }
-                if (newX < 0 || newX >= width) {
-                    if (wrapEdges) {
-                        newX = ImageMath.mod(newX, width);
-                    } else {
-                        break;
-                    }
+            outPixels[index] = calcPixel(x, y, index, width, height, inPixels, cx, cy, translateX, translateY, repetitions, offsets, t, p);
+            index++;
+        }
+    }
+
+    private int calcPixel(int x, int y, int index, int width, int height, int[] inPixels, int cx, int cy, float translateX, float translateY, int repetitions, int[][] offsets, FastTransform t, Point2D.Float p) {
+        int a = 0, r = 0, g = 0, b = 0;
+        int count = 0;
+        for (int i = 0; i < repetitions; i++) {
+            int newX = x, newY = y;
+
+            if (i != 0 && offsets != null) {
+                newX = x + offsets[0][i];
+                newY = y + offsets[1][i];
+            } else if (i != 0) {
+                float f = (float) i / repetitions;
+                p.x = x;
+                p.y = y;
+                t.setToIdentity();
+                t.translateAfterIdentity(cx + f * translateX, cy + f * translateY);
+                float s = 1 - zoom * f;
+                t.scaleAfterTranslate(s, s);
+                if (rotation != 0) {
+                    t.rotate(-rotation * f);
                 }
-                if (newY < 0 || newY >= height) {
-                    if (wrapEdges) {
-                        newY = ImageMath.mod(newY, height);
-                    } else {
-                        break;
-                    }
+                t.translateAfterRotate(-cx, -cy);
+                t.transform(p, p);
+                newX = (int) p.x;
+                newY = (int) p.y;
+            }
+            if (newX < 0 || newX >= width) {
+                if (wrapEdges) {
+                    newX = ImageMath.mod(newX, width);
+                } else {
+                    break;
                 }
-
-                count++;
-                int rgb = inPixels[newY * width + newX];
-                a += (rgb >> 24) & 0xff;
-                r += (rgb >> 16) & 0xff;
-                g += (rgb >> 8) & 0xff;
-                b += rgb & 0xff;
             }
-            if (count == 0) {
-                outPixels[index] = inPixels[index];
-            } else {
-                a = PixelUtils.clamp(a / count);
-                r = PixelUtils.clamp(r / count);
-                g = PixelUtils.clamp(g / count);
-                b = PixelUtils.clamp(b / count);
-                outPixels[index] = (a << 24) | (r << 16) | (g << 8) | b;
+            if (newY < 0 || newY >= height) {
+                if (wrapEdges) {
+                    newY = ImageMath.mod(newY, height);
+                } else {
+                    break;
+                }
             }
-            index++;
+
+            count++;
+            int rgb = inPixels[newY * width + newX];
+            a += (rgb >> 24) & 0xff;
+            r += (rgb >> 16) & 0xff;
+            g += (rgb >> 8) & 0xff;
+            b += rgb & 0xff;
+        }
+        if (count == 0) {
+            return inPixels[index];
+        } else {
+            a = PixelUtils.clamp(a / count);
+            r = PixelUtils.clamp(r / count);
+            g = PixelUtils.clamp(g / count);
+            b = PixelUtils.clamp(b / count);
+            return (a << 24) | (r << 16) | (g << 8) | b;
         }
     }
 
+    @VisibleForTesting
+    void setConvolutionEnabled(boolean convolutionEnabled) {
+        this.convolutionEnabled = convolutionEnabled;
+    }
+
     @Override
     public String toString() {
         return "Blur/Motion Blur...";
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+/**
+ * A Gaussian blur whose cost doesn't depend on the radius. It uses
+ * the third-order recursive filter of Young and van Vliet ("Recursive
+ * implementation of the Gaussian filter", 1995), run forwards and
+ * backwards, with the clamped edge initialization of Triggs and Sdika
+ * ("Boundary conditions for Young-van Vliet recursive filtering", 2006).
+ *
+ * It approximates the truncated kernel of {@link GaussianFilter}: for
+ * radii between {@link GaussianFilter#RECURSIVE_MIN_RADIUS} and 250 the
+ * results differ by at most 6 levels per (premultiplied) channel near
+ * sharp edges, and the mean difference is below 1 level.
+ */
+public final class RecursiveGaussian {
+    // the kernel of GaussianFilter is truncated at 3 sigma, which makes it
+    // narrower: this is the ratio of its standard deviation and sigma
+    private static final double TRUNCATED_SIGMA_RATIO = 0.9866;
+
+    private final double b; // the gain of the input
+    private final double a1; // the feedback coefficients
+    private final double a2;
+    private final double a3;
+
+    // the Triggs-Sdika matrix for the initial state of the backward pass
+    private final double[] m = new double[9];
+
+    private RecursiveGaussian(double sigma) {
+        double q;
+        if (sigma >= 2.5) {
+            q = 0.98711 * sigma - 0.96330;
+        } else {
+            q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        }
+        double q2 = q * q;
+        double q3 = q2 * q;
+        double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        a1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+        a2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+        a3 = 0.422205 * q3 / b0;
+        b = 1 - (a1 + a2 + a3);
+
+        // the matrix is scaled with b, because the forward and
+        // backward passes are normalized to a unity gain
+        double s = b / ((1 + a1 - a2 + a3) * (1 - a1 - a2 - a3) * (1 + a2 + (a1 - a3) * a3));
+        m[0] = s * (-a3 * a1 + 1 - a3 * a3 - a2);
+        m[1] = s * (a3 + a1) * (a2 + a3 * a1);
+        m[2] = s * a3 * (a1 + a3 * a2);
+        m[3] = s * (a1 + a3 * a2);
+        m[4] = -s * (a2 - 1) * (a2 + a3 * a1);
+        m[5] = -s * (a3 * a1 + a3 * a3 + a2 - 1) * a3;
+        m[6] = s * (a3 * a1 + a2 + a1 * a1 - a2 * a2);
+        m[7] = s * (a1 * a2 + a3 * a2 * a2 - a1 * a3 * a3 - a3 * a3 * a3 - a3 * a2 + a3);
+        m[8] = s * a3 * (a1 + a3 * a2);
+    }
+
+    /**
+     * Blurs and transposes a block of ARGB pixels, like
+     * {@link GaussianFilter#convolveAndTranspose}, with the edges clamped.
+     *
+     * @param radius the radius of the equivalent truncated Gaussian kernel
+     */
+    public static void blurAndTranspose(float radius, int[] inPixels, int[] outPixels,
+                                        int width, int height, boolean alpha,
+                                        boolean premultiply, boolean unpremultiply,
+                                        ProgressTracker pt) {
+        var filter = new RecursiveGaussian(TRUNCATED_SIGMA_RATIO * radius / 3.0);
+        ThreadPool.parallelFor(height, y -> filter.blurAndTransposeLine(
+            inPixels, outPixels, width, height, alpha, premultiply, unpremultiply, y), pt);
+    }
+
+    private void blurAndTransposeLine(int[] inPixels, int[] outPixels,
+                                      int width, int height, boolean alpha,
+                                      boolean premultiply, boolean unpremultiply, int y) {
+        // the a, r, g, b values of the line, filtered in place
+        double[] line = new double[4 * width];
+        int ioffset = y * width;
+        for (int x = 0; x < width; x++) {
+            int rgb = inPixels[ioffset + x];
+            int pa = (rgb >> 24) & 0xff;
+            int pr = (rgb >> 16) & 0xff;
+            int pg = (rgb >> 8) & 0xff;
+            int pb = rgb & 0xff;
+            if (premultiply) {
+                float a255 = pa * (1.0f / 255.0f);
+                pr = (int) (pr * a255);
+                pg = (int) (pg * a255);
+                pb = (int) (pb * a255);
+            }
+            int i = 4 * x;
+            line[i] = pa;
+            line[i + 1] = pr;
+            line[i + 2] = pg;
+            line[i + 3] = pb;
+        }
+
+        for (int channel = 0; channel < 4; channel++) {
+            filterChannel(line, width, channel);
+        }
+
+        int index = y;
+        for (int x = 0; x < width; x++) {
+            int i = 4 * x;
+            double a = line[i];
+            double r = line[i + 1];
+            double g = line[i + 2];
+            double b = line[i + 3];
+            if (unpremultiply && a != 0 && a != 255) {
+                double f = 255.0 / a;
+                r *= f;
+                g *= f;
+                b *= f;
+            }
+            int ia = alpha ? PixelUtils.clamp((int) (a + 0.5)) : 0xff;
+            int ir = PixelUtils.clamp((int) (r + 0.5));
+            int ig = PixelUtils.clamp((int) (g + 0.5));
+            int ib = PixelUtils.clamp((int) (b + 0.5));
+            outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+            index += height;
+        }
+    }
+
+    /**
+     * Runs the forward and the backward pass on one
+     * channel of the interleaved line, in place.
+     */
+    private void filterChannel(double[] line, int n, int channel) {
+        int first = channel;
+        int last = 4 * (n - 1) + channel;
+        double lastInput = line[last]; // overwritten by the forward pass
+
+        // forward pass, the values before the line are equal to the first value
+        double w1 = line[first];
+        double w2 = w1;
+        double w3 = w1;
+        for (int i = first; i <= last; i += 4) {
+            double w = b * line[i] + a1 * w1 + a2 * w2 + a3 * w3;
+            w3 = w2;
+            w2 = w1;
+            w1 = w;
+            line[i] = w;
+        }
+
+        // The backward pass starts with the values it would have if the
+        // last input value continued indefinitely. The forward values are
+        // at last, last-4 and last-8 (clamped for lines shorter than 3).
+        double u0 = line[last] - lastInput;
+        double u1 = line[Math.max(first, last - 4)] - lastInput;
+        double u2 = line[Math.max(first, last - 8)] - lastInput;
+        double y1 = m[0] * u0 + m[1] * u1 + m[2] * u2 + lastInput;
+        double y2 = m[3] * u0 + m[4] * u1 + m[5] * u2 + lastInput;
+        double y3 = m[6] * u0 + m[7] * u1 + m[8] * u2 + lastInput;
+        line[last] = y1;
+        for (int i = last - 4; i >= first; i -= 4) {
+            double v = b * line[i] + a1 * y1 + a2 * y2 + a3 * y3;
+            y3 = y2;
+            y2 = y1;
+            y1 = v;
+            line[i] = v;
+        }
+    }
+}
@@ -16,12 +16,22 @@ limitations under the License.
 
 package com.jhlabs.math;
 
+import java.util.Arrays;
+
+/**
+ * A radix-2 FFT. An instance reuses its temporary buffers,
+ * so it must not be shared between threads.
+ */
 public class FFT {
     // Weighting factors
     protected final float[] w1;
     protected final float[] w2;
     protected final float[] w3;
 
+    // the buffers for a row or column
+    private final float[] rtemp;
+    private final float[] itemp;
+
     public FFT(int logN) {
         // Prepare the weighting factors
         w1 = new float[logN];
@@ -35,6 +45,8 @@ public class FFT {
             w2[k] = -2.0f * w1[k] * w1[k];
             w3[k] = (float) Math.sin(angle);
         }
+        rtemp = new float[1 << logN];
+        itemp = new float[1 << logN];
     }
 
     private static void scramble(int n, float[] real, float[] imag) {
@@ -105,9 +117,6 @@ public class FFT {
     public void transform2D(float[] real, float[] imag, int cols, int rows, boolean forward) {
         int log2cols = log2(cols);
         int log2rows = log2(rows);
-        int n = Math.max(rows, cols);
-        float[] rtemp = new float[n];
-        float[] itemp = new float[n];
 
         // FFT the rows
         for (int y = 0; y < rows; y++) {
@@ -137,6 +146,71 @@ public class FFT {
         }
     }
 
+    /**
+     * Calculates the same forward transform as {@link #transform2D}
+     * for real input data (with all imaginary parts zero), in about
+     * half the time: two rows are transformed at once as the real and
+     * imaginary parts of a complex row, and only half of the columns
+     * are transformed, the rest follows from the symmetry of the result.
+     */
+    public void transformReal2D(float[] input, float[] real, float[] imag, int cols, int rows) {
+        int log2cols = log2(cols);
+        int log2rows = log2(rows);
+
+        // FFT the rows in pairs
+        for (int y = 0; y < rows; y += 2) {
+            int offset = y * cols;
+            System.arraycopy(input, offset, rtemp, 0, cols);
+            if (y + 1 < rows) {
+                System.arraycopy(input, offset + cols, itemp, 0, cols);
+            } else {
+                Arrays.fill(itemp, 0, cols, 0.0f);
+            }
+            transform1D(rtemp, itemp, log2cols, cols, true);
+
+            // separate the transforms of the two rows
+            for (int k = 0; k < cols; k++) {
+                int m = (cols - k) & (cols - 1);
+                real[offset + k] = 0.5f * (rtemp[k] + rtemp[m]);
+                imag[offset + k] = 0.5f * (itemp[k] - itemp[m]);
+                if (y + 1 < rows) {
+                    real[offset + cols + k] = 0.5f * (itemp[k] + itemp[m]);
+                    imag[offset + cols + k] = 0.5f * (rtemp[m] - rtemp[k]);
+                }
+            }
+        }
+
+        // FFT the first half of the columns
+        int halfCols = cols / 2;
+        for (int x = 0; x <= halfCols; x++) {
+            int index = x;
+            for (int y = 0; y < rows; y++) {
+                rtemp[y] = real[index];
+                itemp[y] = imag[index];
+                index += cols;
+            }
+            transform1D(rtemp, itemp, log2rows, rows, true);
+            index = x;
+            for (int y = 0; y < rows; y++) {
+                real[index] = rtemp[y];
+                imag[index] = itemp[y];
+                index += cols;
+            }
+        }
+
+        // the other columns are the complex conjugates
+        // of the first ones, mirrored in both directions
+        for (int y = 0; y < rows; y++) {
+            int offset = y * cols;
+            int mirrorOffset = ((rows - y) & (rows - 1)) * cols;
+            for (int x = halfCols + 1; x < cols; x++) {
+                int mirrorIndex = mirrorOffset + cols - x;
+                real[offset + x] = real[mirrorIndex];
+                imag[offset + x] = -imag[mirrorIndex];
+            }
+        }
+    }
+
     private static int log2(int n) {
         int m = 1;
         int log2n = 0;
@@ -6,11 +6,22 @@
 
 package pd;
 
+import pixelitor.utils.Messages;
+
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Class AnimatedGifEncoder - Encodes a GIF file consisting of one or more
@@ -26,6 +37,13 @@ import java.io.*;
  *     e.finish();
  * </pre>
  *
+ * The color quantization, pixel mapping and LZW compression of the frames
+ * can run in parallel (see {@link #setParallel(Executor, int)}),
+ * and a single global palette can be used for all frames
+ * (see {@link #setGlobalPalette(List)}). With frame differencing
+ * (see {@link #setFrameDifferencing(boolean)}) only the changed
+ * area of each frame is written.
+ *
  * No copyright asserted on the source code of this class. May be used for any
  * purpose, however, refer to the Unisys LZW patent for restrictions on use of
  * the associated LZWEncoder class. Please forward any corrections to
@@ -43,8 +61,6 @@ public class AnimatedGifEncoder {
 
     private Color transparent = null; // transparent color if given
 
-    private int transIndex; // transparent index in color table
-
     private int repeat = -1; // no repeat
 
     private int delay = 0; // frame delay (hundredths)
@@ -53,19 +69,9 @@ public class AnimatedGifEncoder {
 
     private OutputStream out;
 
-    private BufferedImage image; // current frame
-
-    private byte[] pixels; // BGR byte array from frame
-
-    private byte[] indexedPixels; // converted frame indexed to palette
+    private static final int COLOR_DEPTH = 8; // number of bit planes
 
-    private int colorDepth; // number of bit planes
-
-    private byte[] colorTab; // RGB palette
-
-    private final boolean[] usedEntry = new boolean[256]; // active palette entries
-
-    private int palSize = 7; // color table size (bits-1)
+    private static final int PAL_SIZE = 7; // color table size (bits-1)
 
     private int dispose = -1; // disposal code (-1 = use default)
 
@@ -78,6 +84,20 @@ public class AnimatedGifEncoder {
     private int sample = 10; // default sample interval for quantizer
     private File file;
 
+    private byte[] globalColorTab; // RGB palette shared by all frames, if not null
+
+    private NeuQuant globalQuant; // the quantizer of the global palette
+
+    private Executor executor; // if not null, the frames are encoded in parallel
+
+    private int maxPendingFrames;
+
+    private final Deque<Future<EncodedFrame>> pendingFrames = new ArrayDeque<>();
+
+    private boolean frameDiff; // if true, only the changed areas are written
+
+    private BufferedImage prevImage; // the previous frame if frame differencing is used
+
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
      * (applies to last frame added).
@@ -107,7 +127,6 @@ public class AnimatedGifEncoder {
      * added.
      *
      * @param iter int number of iterations.
-     * @return
      */
     public void setRepeat(int iter) {
         if (iter >= 0) {
@@ -128,6 +147,65 @@ public class AnimatedGifEncoder {
         transparent = c;
     }
 
+    /**
+     * Encodes the frames on the given executor: the palette of each frame is
+     * built and the pixels are mapped and compressed in parallel, while the
+     * already encoded frames are written in order. At most maxPendingFrames
+     * frames are kept in memory. The images given to
+     * <code>addFrame</code> must not be modified after the call.
+     * Must be invoked before the first image is added.
+     *
+     * @param executor         the executor running the encoding tasks
+     * @param maxPendingFrames the number of frames that can be encoded in parallel
+     */
+    public void setParallel(Executor executor, int maxPendingFrames) {
+        this.executor = executor;
+        this.maxPendingFrames = Math.max(1, maxPendingFrames);
+    }
+
+    /**
+     * If set to true, each frame is compared with the previous one, and
+     * only the bounding rectangle of the changed pixels is written, with
+     * the unchanged pixels inside it made transparent. The frames are
+     * not disposed, so the previous frame remains visible in the
+     * unchanged areas. Frame differencing isn't used for frames
+     * that have a transparent color or a custom disposal code.
+     * The images given to <code>addFrame</code> must not be modified
+     * after the call. Must be invoked before the first image is added.
+     *
+     * @param frameDiff true if only the changed areas should be written
+     */
+    public void setFrameDifferencing(boolean frameDiff) {
+        this.frameDiff = frameDiff;
+    }
+
+    /**
+     * Builds one palette from the given sample frames, which will be used
+     * for all frames instead of training a separate palette for each frame.
+     * This is much faster, but the colors are worse if the frames are very
+     * different. Must be invoked before the first image is added.
+     *
+     * @param sampleFrames the frames used for training the palette
+     */
+    public void setGlobalPalette(List<BufferedImage> sampleFrames) {
+        if (sampleFrames.isEmpty()) {
+            return;
+        }
+        int w = sampleFrames.get(0).getWidth();
+        int h = sampleFrames.get(0).getHeight();
+        int frameLen = 3 * w * h;
+
+        // the quantizer samples the pixels anyway, therefore the
+        // training image can be a concatenation of the sample frames
+        byte[] allPixels = new byte[frameLen * sampleFrames.size()];
+        for (int i = 0; i < sampleFrames.size(); i++) {
+            byte[] framePixels = getImagePixels(sampleFrames.get(i), w, h);
+            System.arraycopy(framePixels, 0, allPixels, i * frameLen, frameLen);
+        }
+        globalQuant = new NeuQuant(allPixels, allPixels.length, sample);
+        globalColorTab = toRGB(globalQuant.process());
+    }
+
     /**
      * Adds next GIF frame. The frame is not written immediately, but is actually
      * deferred until the next frame is received so that timing data can be
@@ -142,30 +220,49 @@ public class AnimatedGifEncoder {
         if ((im == null) || !started) {
             return false;
         }
+        if (!sizeSet) {
+            // use first frame's size
+            setSize(im.getWidth(), im.getHeight());
+        }
+
+        // the settings are captured now, because they can change
+        // before the frame is encoded on another thread
+        int frameWidth = width;
+        int frameHeight = height;
+        int frameDelay = delay;
+        int frameDispose = dispose;
+        Color frameTransparent = transparent;
+
+        // a frame can be compared with the previous one only if
+        // both of them are opaque and are left in place when disposed
+        BufferedImage diffBase = null;
+        if (frameDiff) {
+            boolean keptInPlace = frameTransparent == null && frameDispose <= 1;
+            if (keptInPlace) {
+                diffBase = prevImage;
+                if (frameDispose < 0) {
+                    frameDispose = 1; // do not dispose
+                }
+            }
+            prevImage = keptInPlace ? im : null;
+        }
+        BufferedImage frameDiffBase = diffBase;
+        int frameDisposeCode = frameDispose;
+
         boolean ok = true;
         try {
-            if (!sizeSet) {
-                // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
-            }
-            image = im;
-            getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
-            if (firstFrame) {
-                writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
-                if (repeat >= 0) {
-                    // use NS app extension to indicate reps
-                    writeNetscapeExt();
+            if (executor == null) {
+                writeFrame(encodeFrame(im, frameDiffBase, frameWidth, frameHeight,
+                    frameDelay, frameDisposeCode, frameTransparent));
+            } else {
+                var task = new FutureTask<>(() -> encodeFrame(im, frameDiffBase,
+                    frameWidth, frameHeight, frameDelay, frameDisposeCode, frameTransparent));
+                executor.execute(task);
+                pendingFrames.addLast(task);
+                while (pendingFrames.size() > maxPendingFrames) {
+                    writeFrame(waitFor(pendingFrames.removeFirst()));
                 }
             }
-            writeGraphicCtrlExt(); // write graphic control extension
-            writeImageDesc(); // image descriptor
-            if (!firstFrame) {
-                writePalette(); // local color table
-            }
-            writePixels(); // encode and write pixel data
-            firstFrame = false;
         } catch (IOException e) {
             ok = false;
         }
@@ -175,7 +272,9 @@ public class AnimatedGifEncoder {
 
     /**
      * Flushes any pending data and closes output file. If writing to an
-     * OutputStream, the stream is not closed.
+     * OutputStream, the stream is not closed. In parallel mode this waits
+     * until the pending frames are encoded, so it shouldn't be called
+     * on the event dispatch thread.
      */
     public void finish() {
         if (!started) {
@@ -183,6 +282,9 @@ public class AnimatedGifEncoder {
         }
         started = false;
         try {
+            while (!pendingFrames.isEmpty()) {
+                writeFrame(waitFor(pendingFrames.removeFirst()));
+            }
             out.write(0x3b); // gif trailer
             out.flush();
             if (closeStream) {
@@ -193,22 +295,24 @@ public class AnimatedGifEncoder {
         }
 
         // reset for subsequent use
-        transIndex = 0;
         out = null;
-        image = null;
-        pixels = null;
-        indexedPixels = null;
-        colorTab = null;
+        prevImage = null;
         closeStream = false;
         firstFrame = true;
     }
 
     public void cancel() {
+        for (Future<EncodedFrame> frame : pendingFrames) {
+            frame.cancel(true);
+        }
+        pendingFrames.clear();
+
         boolean ok = true;
         try {
             finish();
         } catch (RuntimeException e) {
-            e.printStackTrace();
+            // called outside the EDT
+            Messages.showExceptionOnEDT(e);
             ok = false;
         }
         if (ok) {
@@ -236,7 +340,6 @@ public class AnimatedGifEncoder {
      * greater than 20 do not yield significant improvements in speed.
      *
      * @param quality int greater than 0.
-     * @return
      */
     public void setQuality(int quality) {
         if (quality < 1) {
@@ -309,45 +412,288 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Analyzes image colors and creates color map.
+     * A frame with its color table and compressed pixel data,
+     * ready to be written
      */
-    private void analyzePixels() {
-        int len = pixels.length;
-        int nPix = len / 3;
-        indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
-        // initialize quantizer
-        colorTab = nq.process(); // create reduced palette
-        // convert map from BGR to RGB
-        for (int i = 0; i < colorTab.length; i += 3) {
-            byte temp = colorTab[i];
-            colorTab[i] = colorTab[i + 2];
-            colorTab[i + 2] = temp;
-            usedEntry[i / 3] = false;
+    private static class EncodedFrame {
+        byte[] colorTab; // RGB palette, null if the global palette is used
+        byte[] lzwData; // the compressed pixels
+        int x; // the position and size of the written area
+        int y;
+        int width;
+        int height;
+        int delay;
+        int dispose;
+        boolean hasTransparency;
+        int transIndex;
+    }
+
+    /**
+     * Builds the color table, maps the pixels and compresses them.
+     * If the previous frame is given, only the changed area is encoded.
+     * Doesn't use the mutable state of the encoder,
+     * so it can run for several frames in parallel.
+     */
+    private EncodedFrame encodeFrame(BufferedImage image, BufferedImage prevImage,
+                                     int w, int h, int frameDelay, int frameDispose,
+                                     Color frameTransparent) throws IOException {
+        byte[] pixels = getImagePixels(image, w, h);
+        byte[] prevPixels = null;
+
+        var frame = new EncodedFrame();
+        frame.delay = frameDelay;
+        frame.dispose = frameDispose;
+        frame.width = w;
+        frame.height = h;
+
+        Rectangle changed = null;
+        if (prevImage != null) {
+            prevPixels = getImagePixels(prevImage, w, h);
+            changed = findChangedArea(pixels, prevPixels, w, h);
+            if (changed == null) {
+                return encodeUnchangedFrame(frame);
+            }
+        }
+
+        NeuQuant nq;
+        byte[] colorTab;
+        if (globalQuant != null) {
+            nq = globalQuant;
+            colorTab = globalColorTab;
+        } else {
+            // the local palette is trained on the whole frame even if
+            // only the changed area is written, because a small area
+            // doesn't give the quantizer enough samples
+            nq = new NeuQuant(pixels, pixels.length, sample);
+            // initialize quantizer
+            colorTab = toRGB(nq.process()); // create reduced palette
+            frame.colorTab = colorTab;
         }
+
+        if (changed != null) {
+            if (changed.width != w || changed.height != h) {
+                pixels = crop(pixels, w, changed);
+                prevPixels = crop(prevPixels, w, changed);
+            }
+            frame.x = changed.x;
+            frame.y = changed.y;
+            frame.width = changed.width;
+            frame.height = changed.height;
+        }
+
+        int nPix = pixels.length / 3;
+        byte[] indexedPixels = new byte[nPix];
+        boolean[] usedEntry = new boolean[256]; // active palette entries
+
         // map image pixels to new palette
+        boolean[] unchanged = null;
         int k = 0;
         for (int i = 0; i < nPix; i++) {
+            if (prevPixels != null && pixels[k] == prevPixels[k]
+                && pixels[k + 1] == prevPixels[k + 1]
+                && pixels[k + 2] == prevPixels[k + 2]) {
+                // mapped later, when the transparent index is known
+                if (unchanged == null) {
+                    unchanged = new boolean[nPix];
+                }
+                unchanged[i] = true;
+                k += 3;
+                continue;
+            }
             int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
             usedEntry[index] = true;
             indexedPixels[i] = (byte) index;
         }
-        pixels = null;
-        colorDepth = 8;
-        palSize = 7;
+        if (unchanged != null) {
+            fillUnchanged(frame, pixels, indexedPixels, unchanged, usedEntry, nq);
+        }
+
         // get closest match to transparent color if specified
-        if (transparent != null) {
-            transIndex = findClosest(transparent);
+        if (frameTransparent != null) {
+            frame.hasTransparency = true;
+            frame.transIndex = findClosest(frameTransparent, colorTab, usedEntry);
         }
+
+        var lzwOut = new ByteArrayOutputStream(nPix / 2);
+        LZWEncoder encoder = new LZWEncoder(frame.width, frame.height, indexedPixels, COLOR_DEPTH);
+        encoder.encode(lzwOut);
+        frame.lzwData = lzwOut.toByteArray();
+
+        return frame;
     }
 
     /**
-     * Returns index of palette color closest to c
+     * Makes the unchanged pixels transparent by using a palette entry
+     * that no changed pixel needs. If all entries are used, the
+     * unchanged pixels are mapped to the palette like the others.
+     */
+    private static void fillUnchanged(EncodedFrame frame, byte[] pixels,
+                                      byte[] indexedPixels, boolean[] unchanged,
+                                      boolean[] usedEntry, NeuQuant nq) {
+        int freeIndex = -1;
+        for (int i = 0; i < usedEntry.length; i++) {
+            if (!usedEntry[i]) {
+                freeIndex = i;
+                break;
+            }
+        }
+        if (freeIndex != -1) {
+            frame.hasTransparency = true;
+            frame.transIndex = freeIndex;
+        }
+
+        for (int i = 0; i < unchanged.length; i++) {
+            if (unchanged[i]) {
+                if (freeIndex != -1) {
+                    indexedPixels[i] = (byte) freeIndex;
+                } else {
+                    int k = 3 * i;
+                    indexedPixels[i] = (byte) nq.map(pixels[k] & 0xff,
+                        pixels[k + 1] & 0xff, pixels[k + 2] & 0xff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a frame identical to the previous one as a
+     * single transparent pixel, which only adds a delay
+     */
+    private static EncodedFrame encodeUnchangedFrame(EncodedFrame frame) throws IOException {
+        frame.width = 1;
+        frame.height = 1;
+        frame.hasTransparency = true;
+        frame.transIndex = 0;
+
+        var lzwOut = new ByteArrayOutputStream();
+        LZWEncoder encoder = new LZWEncoder(1, 1, new byte[1], COLOR_DEPTH);
+        encoder.encode(lzwOut);
+        frame.lzwData = lzwOut.toByteArray();
+
+        return frame;
+    }
+
+    /**
+     * Returns the bounding rectangle of the pixels that differ
+     * in the given BGR arrays, or null if they are identical
+     */
+    private static Rectangle findChangedArea(byte[] pixels, byte[] prevPixels, int w, int h) {
+        int top = 0;
+        while (top < h && rowEquals(pixels, prevPixels, w, top)) {
+            top++;
+        }
+        if (top == h) {
+            return null;
+        }
+        int bottom = h - 1;
+        while (rowEquals(pixels, prevPixels, w, bottom)) {
+            bottom--;
+        }
+
+        int left = w;
+        int right = -1;
+        for (int y = top; y <= bottom; y++) {
+            int rowStart = 3 * y * w;
+            int rowEnd = rowStart + 3 * w;
+            int mismatch = Arrays.mismatch(pixels, rowStart, rowEnd,
+                prevPixels, rowStart, rowEnd);
+            if (mismatch == -1) {
+                continue;
+            }
+            left = Math.min(left, mismatch / 3);
+
+            int x = w - 1;
+            while (x > right && pixelEquals(pixels, prevPixels, rowStart + 3 * x)) {
+                x--;
+            }
+            right = Math.max(right, x);
+        }
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    private static boolean rowEquals(byte[] pixels, byte[] prevPixels, int w, int y) {
+        int rowStart = 3 * y * w;
+        int rowEnd = rowStart + 3 * w;
+        return Arrays.equals(pixels, rowStart, rowEnd, prevPixels, rowStart, rowEnd);
+    }
+
+    private static boolean pixelEquals(byte[] pixels, byte[] prevPixels, int k) {
+        return pixels[k] == prevPixels[k]
+            && pixels[k + 1] == prevPixels[k + 1]
+            && pixels[k + 2] == prevPixels[k + 2];
+    }
+
+    /**
+     * Copies the given area of a BGR pixel array
      */
-    private int findClosest(Color c) {
-        if (colorTab == null) {
-            return -1;
+    private static byte[] crop(byte[] pixels, int w, Rectangle area) {
+        int areaRowLen = 3 * area.width;
+        byte[] cropped = new byte[areaRowLen * area.height];
+        for (int row = 0; row < area.height; row++) {
+            int srcPos = 3 * ((area.y + row) * w + area.x);
+            System.arraycopy(pixels, srcPos, cropped, row * areaRowLen, areaRowLen);
         }
+        return cropped;
+    }
+
+    private EncodedFrame waitFor(Future<EncodedFrame> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Writes an encoded frame, must be called in the order of the frames
+     */
+    private void writeFrame(EncodedFrame frame) throws IOException {
+        if (firstFrame) {
+            writeLSD(); // logical screen descriptior
+            // global color table
+            writePalette(globalColorTab != null ? globalColorTab : frame.colorTab);
+            if (repeat >= 0) {
+                // use NS app extension to indicate reps
+                writeNetscapeExt();
+            }
+        }
+        writeGraphicCtrlExt(frame); // write graphic control extension
+        // the first frame uses its palette as the global color table
+        boolean hasLocalPalette = !firstFrame && frame.colorTab != null;
+        writeImageDesc(frame, hasLocalPalette); // image descriptor
+        if (hasLocalPalette) {
+            writePalette(frame.colorTab); // local color table
+        }
+        out.write(frame.lzwData); // encoded pixel data
+        firstFrame = false;
+    }
+
+    /**
+     * Converts a color map from BGR to RGB in place
+     */
+    private static byte[] toRGB(byte[] colorTab) {
+        for (int i = 0; i < colorTab.length; i += 3) {
+            byte temp = colorTab[i];
+            colorTab[i] = colorTab[i + 2];
+            colorTab[i + 2] = temp;
+        }
+        return colorTab;
+    }
+
+    /**
+     * Returns index of palette color closest to c
+     */
+    private static int findClosest(Color c, byte[] colorTab, boolean[] usedEntry) {
         int r = c.getRed();
         int g = c.getGreen();
         int b = c.getBlue();
@@ -370,39 +716,38 @@ public class AnimatedGifEncoder {
     }
 
     /**
-     * Extracts image pixels into byte array "pixels"
+     * Extracts image pixels into a BGR byte array
      */
-    private void getImagePixels() {
-        int w = image.getWidth();
-        int h = image.getHeight();
+    private static byte[] getImagePixels(BufferedImage image, int w, int h) {
         int type = image.getType();
-        if ((w != width) || (h != height) || (type != BufferedImage.TYPE_3BYTE_BGR)) {
+        if ((image.getWidth() != w) || (image.getHeight() != h) || (type != BufferedImage.TYPE_3BYTE_BGR)) {
             // create new image with right size/format
-            BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            BufferedImage temp = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
             Graphics2D g = temp.createGraphics();
             g.drawImage(image, 0, 0, null);
+            g.dispose();
             image = temp;
         }
-        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
     }
 
     /**
      * Writes Graphic Control Extension
      */
-    private void writeGraphicCtrlExt() throws IOException {
+    private void writeGraphicCtrlExt(EncodedFrame frame) throws IOException {
         out.write(0x21); // extension introducer
         out.write(0xf9); // GCE label
         out.write(4); // data block size
         int transp, disp;
-        if (transparent == null) {
+        if (!frame.hasTransparency) {
             transp = 0;
             disp = 0; // dispose = no action
         } else {
             transp = 1;
             disp = 2; // force clear if using transparent color
         }
-        if (dispose >= 0) {
-            disp = dispose & 7; // user override
+        if (frame.dispose >= 0) {
+            disp = frame.dispose & 7; // user override
         }
         disp <<= 2;
 
@@ -412,22 +757,22 @@ public class AnimatedGifEncoder {
                 0 | // 7 user input - 0 = none
                 transp); // 8 transparency flag
 
-        writeShort(delay); // delay x 1/100 sec
-        out.write(transIndex); // transparent color index
+        writeShort(frame.delay); // delay x 1/100 sec
+        out.write(frame.transIndex); // transparent color index
         out.write(0); // block terminator
     }
 
     /**
      * Writes Image Descriptor
      */
-    private void writeImageDesc() throws IOException {
+    private void writeImageDesc(EncodedFrame frame, boolean hasLocalPalette) throws IOException {
         out.write(0x2c); // image separator
-        writeShort(0); // image position x,y = 0,0
-        writeShort(0);
-        writeShort(width); // image size
-        writeShort(height);
+        writeShort(frame.x); // image position
+        writeShort(frame.y);
+        writeShort(frame.width); // image size
+        writeShort(frame.height);
         // packed fields
-        if (firstFrame) {
+        if (!hasLocalPalette) {
             // no LCT - GCT is used for first (or only) frame
             out.write(0);
         } else {
@@ -436,7 +781,7 @@ public class AnimatedGifEncoder {
                     0 | // 2 interlace - 0=no
                     0 | // 3 sorted - 0=no
                     0 | // 4-5 reserved
-                    palSize); // 6-8 size of color table
+                    PAL_SIZE); // 6-8 size of color table
         }
     }
 
@@ -451,7 +796,7 @@ public class AnimatedGifEncoder {
         out.write((0x80 | // 1 : global color table flag = 1 (gct used)
                 0x70 | // 2-4 : color resolution = 7
                 0x00 | // 5 : gct sort flag = 0
-                palSize)); // 6-8 : gct size
+                PAL_SIZE)); // 6-8 : gct size
 
         out.write(0); // background color index
         out.write(0); // pixel aspect ratio - assume 1:1
@@ -474,7 +819,7 @@ public class AnimatedGifEncoder {
     /**
      * Writes color table
      */
-    private void writePalette() throws IOException {
+    private void writePalette(byte[] colorTab) throws IOException {
         out.write(colorTab, 0, colorTab.length);
         int n = (3 * 256) - colorTab.length;
         for (int i = 0; i < n; i++) {
@@ -482,14 +827,6 @@ public class AnimatedGifEncoder {
         }
     }
 
-    /**
-     * Encodes and writes pixel data
-     */
-    private void writePixels() throws IOException {
-        LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-        encoder.encode(out);
-    }
-
     /**
      * Write 16-bit value to output stream, LSB first
      */
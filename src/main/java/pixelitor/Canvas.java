@@ -77,6 +77,15 @@ public class Canvas implements Serializable {
         activeCanvasSizeChanged(this);
     }
 
+    /**
+     * Changes only the image-space size, used for
+     * compositions that are not shown in a view
+     */
+    public void changeImSize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+    }
+
     /**
      * Recalculates the component-space (zoomed) size
      */
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The cached composite image of a {@link Composition}, divided into
+ * fixed-size tiles with per-tile dirty tracking, so that a change
+ * in a small area (for example a brush stroke) recomposites only
+ * the tiles intersecting that area. After a full invalidation, the
+ * tiles can be also composited lazily, when they become visible.
+ */
+class CompositeCache {
+    static final int TILE_SIZE = 256;
+
+    private final Composition comp;
+
+    private BufferedImage image;
+
+    // the tile grid of the current image
+    private int cols;
+    private int rows;
+    private boolean[] dirtyTiles;
+    private int numDirtyTiles;
+
+    CompositeCache(Composition comp) {
+        this.comp = comp;
+    }
+
+    /**
+     * Returns the up-to-date composite image, recompositing
+     * only the dirty tiles if possible.
+     */
+    BufferedImage get() {
+        return get(null);
+    }
+
+    /**
+     * Returns the composite image, where at least the tiles intersecting
+     * the given canvas-space area are up to date (all tiles if the area
+     * is null). The other tiles are composited when they are requested.
+     */
+    BufferedImage get(Rectangle area) {
+        if (image == null || !matchesCanvas()) {
+            if (area == null || !comp.canCompositeRegions()) {
+                recalculateAll();
+                return image;
+            }
+            createEmptyImage();
+        }
+        if (numDirtyTiles > 0) {
+            boolean allRequested = area == null && numDirtyTiles == dirtyTiles.length;
+            if (allRequested || !comp.canCompositeRegions()) {
+                recalculateAll();
+            } else {
+                recalculateDirtyTiles(area);
+            }
+        }
+        return image;
+    }
+
+    private boolean matchesCanvas() {
+        return image.getWidth() == comp.getCanvasWidth()
+            && image.getHeight() == comp.getCanvasHeight();
+    }
+
+    private void recalculateAll() {
+        if (image != null) {
+            image.flush();
+        }
+        image = comp.calculateCompositeImage();
+        initTiles();
+        numDirtyTiles = 0;
+    }
+
+    /**
+     * Creates an image where every tile is dirty,
+     * so that they are composited only when needed.
+     */
+    private void createEmptyImage() {
+        if (image != null) {
+            image.flush();
+        }
+        image = comp.createEmptyCompositeImage();
+        initTiles();
+        Arrays.fill(dirtyTiles, true);
+        numDirtyTiles = dirtyTiles.length;
+    }
+
+    private void initTiles() {
+        cols = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        rows = (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        dirtyTiles = new boolean[cols * rows];
+    }
+
+    private void recalculateDirtyTiles(Rectangle area) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        int startCol = 0;
+        int endCol = cols - 1;
+        int startRow = 0;
+        int endRow = rows - 1;
+        if (area != null) {
+            Rectangle r = area.intersection(new Rectangle(0, 0, width, height));
+            if (r.isEmpty()) {
+                return;
+            }
+            startCol = r.x / TILE_SIZE;
+            endCol = (r.x + r.width - 1) / TILE_SIZE;
+            startRow = r.y / TILE_SIZE;
+            endRow = (r.y + r.height - 1) / TILE_SIZE;
+        }
+
+        for (int row = startRow; row <= endRow; row++) {
+            int col = startCol;
+            while (col <= endCol) {
+                if (!dirtyTiles[row * cols + col]) {
+                    col++;
+                    continue;
+                }
+                // merge the horizontally adjacent dirty tiles into one region
+                int regionStartCol = col;
+                while (col <= endCol && dirtyTiles[row * cols + col]) {
+                    dirtyTiles[row * cols + col] = false;
+                    numDirtyTiles--;
+                    col++;
+                }
+                int x = regionStartCol * TILE_SIZE;
+                int y = row * TILE_SIZE;
+                var region = new Rectangle(x, y,
+                    Math.min(col * TILE_SIZE, width) - x,
+                    Math.min(y + TILE_SIZE, height) - y);
+                comp.compositeRegion(image, region);
+            }
+        }
+    }
+
+    /**
+     * Marks the tiles intersecting the given canvas-space area as dirty.
+     */
+    void invalidate(Rectangle area) {
+        if (image == null || numDirtyTiles == dirtyTiles.length) {
+            return;
+        }
+        Rectangle r = area.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) {
+            return;
+        }
+        int startCol = r.x / TILE_SIZE;
+        int endCol = (r.x + r.width - 1) / TILE_SIZE;
+        int startRow = r.y / TILE_SIZE;
+        int endRow = (r.y + r.height - 1) / TILE_SIZE;
+        for (int row = startRow; row <= endRow; row++) {
+            for (int col = startCol; col <= endCol; col++) {
+                int index = row * cols + col;
+                if (!dirtyTiles[index]) {
+                    dirtyTiles[index] = true;
+                    numDirtyTiles++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the whole composite image as dirty.
+     */
+    void invalidateAll() {
+        if (image != null) {
+            image.flush();
+        }
+        image = null;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * A mipmap pyramid of the composite image of a {@link Composition}:
+ * each level is half the size of the previous one, so that zoomed-out
+ * views don't have to resample the full-size image at every repaint.
+ * The levels are built lazily, and after a partial update of the
+ * composite image only the changed area is downscaled again.
+ */
+class CompositePyramid {
+    private final Composition comp;
+
+    // the full-size composite image that the levels were calculated from
+    private BufferedImage source;
+
+    // levels.get(0) is half the size of the source
+    private final List<BufferedImage> levels = new ArrayList<>();
+
+    // the changed area of the source since the levels were updated
+    private Rectangle dirtyArea;
+
+    CompositePyramid(Composition comp) {
+        this.comp = comp;
+    }
+
+    /**
+     * Returns the smallest image of the pyramid that still has enough
+     * pixels for the given scaling. If this is the full-size composite
+     * image, then only the given area has to be up to date.
+     */
+    BufferedImage get(double scaling, Rectangle area) {
+        int level = levelFor(scaling);
+        if (level == 0) {
+            return comp.getCompositeImage(area);
+        }
+
+        BufferedImage composite = comp.getCompositeImage();
+        if (composite.getType() != TYPE_INT_ARGB_PRE) {
+            // the averaging works only with premultiplied pixels, but
+            // an adjustment layer could produce a different image type
+            return composite;
+        }
+
+        if (composite != source) {
+            // the composite was fully recalculated
+            clearLevels();
+            source = composite;
+        } else if (dirtyArea != null) {
+            updateLevels(dirtyArea);
+        }
+        dirtyArea = null;
+
+        while (levels.size() < level) {
+            BufferedImage prev = levels.isEmpty() ? source : levels.get(levels.size() - 1);
+            BufferedImage next = new BufferedImage(
+                (prev.getWidth() + 1) / 2, (prev.getHeight() + 1) / 2, TYPE_INT_ARGB_PRE);
+            downscale(prev, next, new Rectangle(0, 0, next.getWidth(), next.getHeight()));
+            levels.add(next);
+        }
+        return levels.get(level - 1);
+    }
+
+    private static int levelFor(double scaling) {
+        int level = 0;
+        while (scaling <= 0.5) {
+            scaling *= 2;
+            level++;
+        }
+        return level;
+    }
+
+    private void updateLevels(Rectangle area) {
+        BufferedImage prev = source;
+        Rectangle levelArea = area;
+        for (BufferedImage levelImage : levels) {
+            // the area of the next level that depends on the changed pixels
+            int x1 = levelArea.x / 2;
+            int y1 = levelArea.y / 2;
+            int x2 = (levelArea.x + levelArea.width + 1) / 2;
+            int y2 = (levelArea.y + levelArea.height + 1) / 2;
+            levelArea = new Rectangle(x1, y1, x2 - x1, y2 - y1).intersection(
+                new Rectangle(0, 0, levelImage.getWidth(), levelImage.getHeight()));
+            if (levelArea.isEmpty()) {
+                return;
+            }
+            downscale(prev, levelImage, levelArea);
+            prev = levelImage;
+        }
+    }
+
+    /**
+     * Calculates the given area of the half-sized dest image by averaging
+     * 2x2 pixel blocks of the src image. Averaging the premultiplied
+     * components gives the correct result for transparent pixels.
+     */
+    private static void downscale(BufferedImage src, BufferedImage dest, Rectangle area) {
+        Raster srcRaster = src.getRaster();
+        WritableRaster destRaster = dest.getRaster();
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int srcX = area.x * 2;
+        int srcLineWidth = Math.min(area.width * 2, srcWidth - srcX);
+
+        ThreadPool.parallelForStrips(area.height, (startY, endY) -> {
+            int[] line1 = new int[srcLineWidth];
+            int[] line2 = new int[srcLineWidth];
+            int[] destLine = new int[area.width];
+            for (int i = startY; i < endY; i++) {
+                int y = area.y + i;
+                int srcY1 = 2 * y;
+                int srcY2 = Math.min(srcY1 + 1, srcHeight - 1);
+                srcRaster.getDataElements(srcX, srcY1, srcLineWidth, 1, line1);
+                srcRaster.getDataElements(srcX, srcY2, srcLineWidth, 1, line2);
+
+                for (int x = 0; x < area.width; x++) {
+                    int i1 = 2 * x;
+                    int i2 = Math.min(i1 + 1, srcLineWidth - 1);
+                    destLine[x] = average(line1[i1], line1[i2], line2[i1], line2[i2]);
+                }
+                destRaster.setDataElements(area.x, y, area.width, 1, destLine);
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    private static int average(int p1, int p2, int p3, int p4) {
+        int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+        int r = (((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF)
+            + ((p3 >> 16) & 0xFF) + ((p4 >> 16) & 0xFF) + 2) >> 2;
+        int g = (((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF)
+            + ((p3 >> 8) & 0xFF) + ((p4 >> 8) & 0xFF) + 2) >> 2;
+        int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Marks the given area of the full-size composite image as changed.
+     */
+    void invalidate(Rectangle area) {
+        if (levels.isEmpty()) {
+            return;
+        }
+        if (dirtyArea == null) {
+            dirtyArea = new Rectangle(area);
+        } else {
+            dirtyArea.add(area);
+        }
+    }
+
+    private void clearLevels() {
+        for (BufferedImage level : levels) {
+            level.flush();
+        }
+        levels.clear();
+    }
+}
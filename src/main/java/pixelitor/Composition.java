@@ -27,6 +27,7 @@ import pixelitor.guides.GuidesChangeEdit;
 import pixelitor.history.*;
 import pixelitor.io.FileFormat;
 import pixelitor.io.IOTasks;
+import pixelitor.io.LargeImage;
 import pixelitor.io.SaveSettings;
 import pixelitor.layers.*;
 import pixelitor.menus.file.RecentFilesMenu;
@@ -93,10 +94,19 @@ public class Composition implements Serializable {
     private transient File file;
     private transient boolean dirty = false;
 
-    private transient BufferedImage compositeImage;
+    private transient CompositeCache compositeCache;
+    private transient StackSnapshots stackSnapshots;
+    private transient CompositePyramid compositePyramid;
+
+    // the image edits whose backups can be replaced by deltas
+    // when they are added to the history, see ImageEdit
+    private transient List<ImageEdit> pendingImageEdits;
 
     private transient View view;
 
+    // not null if this is the subsampled overview of a large image
+    private transient LargeImage largeImage;
+
     private transient Selection selection;
 
     // a temporary, new selection which is currently built
@@ -111,6 +121,10 @@ public class Composition implements Serializable {
     private Composition(Canvas canvas) {
         assert canvas != null;
         this.canvas = canvas;
+        compositeCache = new CompositeCache(this);
+        stackSnapshots = new StackSnapshots(this);
+        compositePyramid = new CompositePyramid(this);
+        pendingImageEdits = new ArrayList<>();
     }
 
     /**
@@ -199,7 +213,10 @@ public class Composition implements Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // init transient variables
-        compositeImage = null; // will be set when needed
+        compositeCache = new CompositeCache(this); // will be filled when needed
+        stackSnapshots = new StackSnapshots(this);
+        compositePyramid = new CompositePyramid(this);
+        pendingImageEdits = new ArrayList<>();
         file = null; // will be set later
         dirty = false;
         view = null; // will be set later
@@ -281,6 +298,14 @@ public class Composition implements Serializable {
         return file;
     }
 
+    public LargeImage getLargeImage() {
+        return largeImage;
+    }
+
+    public void setLargeImage(LargeImage largeImage) {
+        this.largeImage = largeImage;
+    }
+
     public void setFile(File file) {
         this.file = file;
         setName(file.getName());
@@ -671,16 +696,39 @@ public class Composition implements Serializable {
 
     public void moveActiveContentRelative(MoveMode mode,
                                           double relImX, double relImY) {
+        Rectangle changedArea = null;
         if (mode.movesTheLayer()) {
             Layer layer = getActiveMaskOrLayer();
+            Rectangle boundsBefore = getMovementAffectedBounds(layer);
             layer.moveWhileDragging(relImX, relImY);
+            Rectangle boundsAfter = getMovementAffectedBounds(layer);
+            if (boundsBefore != null && boundsAfter != null) {
+                changedArea = boundsBefore.union(boundsAfter);
+            }
         }
         if (mode.movesTheSelection()) {
             if (selection != null) {
                 selection.moveWhileDragging(relImX, relImY);
             }
         }
-        imageChanged();
+        if (changedArea != null) {
+            imageChanged(changedArea);
+        } else {
+            imageChanged();
+        }
+    }
+
+    /**
+     * Returns the canvas area that could change visually if the given layer
+     * or mask moves, or null if it can't be determined.
+     */
+    private static Rectangle getMovementAffectedBounds(Layer layer) {
+        // a moving mask can only affect the area of its owner
+        Layer contentOwner = layer instanceof LayerMask ? layer.getOwner() : layer;
+        if (contentOwner instanceof ImageLayer && !contentOwner.isAdjustment()) {
+            return ((ImageLayer) contentOwner).getContentBounds();
+        }
+        return null;
     }
 
     public void endMovement(MoveMode mode) {
@@ -807,36 +855,193 @@ public class Composition implements Serializable {
 
 //        BufferedImage imageSoFar = ImageUtils.createCompatibleImage(getCanvasWidth(), getCanvasHeight());
 
-        var imageSoFar = new BufferedImage(
+        updateStackSnapshots();
+        return compositeLayers(createEmptyCompositeImage(), null);
+    }
+
+    BufferedImage createEmptyCompositeImage() {
+        return new BufferedImage(
             canvas.getWidth(), canvas.getHeight(), TYPE_INT_ARGB_PRE);
-        Graphics2D g = imageSoFar.createGraphics();
+    }
+
+    private void updateStackSnapshots() {
+        int activeIndex = layerList.indexOf(activeLayer);
+        if (activeIndex != -1) {
+            stackSnapshots.update(layerList, activeIndex);
+        }
+    }
 
-        boolean firstVisibleLayer = true;
+    /**
+     * Invalidates the cached images that depend on the pixels of
+     * several layers (the snapshots of the layers below and above the
+     * active layer and the adjustment layer results). Must be called
+     * if the pixels of a layer other than the active one were changed in place.
+     */
+    public void invalidateStackSnapshots() {
+        stackSnapshots.invalidate();
         for (Layer layer : layerList) {
+            layer.pixelsChanged(null);
+            if (layer instanceof AdjustmentLayer) {
+                ((AdjustmentLayer) layer).invalidateCache();
+            }
+        }
+    }
+
+    /**
+     * Registers a new image edit, whose backup can be replaced by a
+     * delta when an edit of this composition is added to the history.
+     */
+    public void addPendingImageEdit(ImageEdit edit) {
+        synchronized (pendingImageEdits) {
+            pendingImageEdits.add(edit);
+        }
+    }
+
+    /**
+     * Returns and forgets the image edits created since the last call.
+     */
+    public List<ImageEdit> takePendingImageEdits() {
+        synchronized (pendingImageEdits) {
+            if (pendingImageEdits.isEmpty()) {
+                return List.of();
+            }
+            List<ImageEdit> edits = new ArrayList<>(pendingImageEdits);
+            pendingImageEdits.clear();
+            return edits;
+        }
+    }
+
+    /**
+     * Composites the layers on the given empty image (or only in the
+     * given region of it, if the region is not null), using the cached
+     * snapshots of the layers below and above the active layer if they exist.
+     */
+    private BufferedImage compositeLayers(BufferedImage imageSoFar, Rectangle region) {
+        int numLayers = layerList.size();
+        int activeIndex = layerList.indexOf(activeLayer);
+        if (activeIndex == -1) { // can happen while loading
+            return applyLayers(imageSoFar, 0, numLayers, region, true);
+        }
+
+        BufferedImage below = stackSnapshots.getBelow();
+        if (below != null) {
+            drawSnapshot(imageSoFar, below, region);
+        } else {
+            imageSoFar = applyLayers(imageSoFar, 0, activeIndex, region, true);
+        }
+
+        boolean activeIsFirstVisible = !hasVisibleLayer(0, activeIndex);
+        imageSoFar = applyLayers(imageSoFar, activeIndex, activeIndex + 1,
+            region, activeIsFirstVisible);
+
+        BufferedImage above = stackSnapshots.getAbove();
+        if (above != null) {
+            drawSnapshot(imageSoFar, above, region);
+        } else {
+            boolean firstVisible = activeIsFirstVisible && !activeLayer.isVisible();
+            imageSoFar = applyLayers(imageSoFar, activeIndex + 1, numLayers,
+                region, firstVisible);
+        }
+        return imageSoFar;
+    }
+
+    /**
+     * Applies the visible layers with indexes in the [from, to) range on
+     * the given image. Returns the resulting image, which is different
+     * from the given one if an adjustment layer created a new image.
+     */
+    BufferedImage applyLayers(BufferedImage imageSoFar, int from, int to,
+                              Rectangle region, boolean firstVisibleLayer) {
+        Graphics2D g = createCompositingGraphics(imageSoFar, region);
+        for (int i = from; i < to; i++) {
+            Layer layer = layerList.get(i);
             if (layer.isVisible()) {
                 BufferedImage result = layer.applyLayer(g, imageSoFar, firstVisibleLayer);
                 if (result != null) { // adjustment layer or watermarking text layer
+                    assert region == null || result == imageSoFar;
                     imageSoFar = result;
-                    if (g != null) {
-                        g.dispose();
-                    }
-                    g = imageSoFar.createGraphics();
+                    g.dispose();
+                    g = createCompositingGraphics(imageSoFar, region);
                 }
                 firstVisibleLayer = false;
             }
         }
-
         g.dispose();
 
         return imageSoFar;
     }
 
+    private static void drawSnapshot(BufferedImage target, BufferedImage snapshot, Rectangle region) {
+        Graphics2D g = createCompositingGraphics(target, region);
+        g.drawImage(snapshot, 0, 0, null);
+        g.dispose();
+    }
+
+    private static Graphics2D createCompositingGraphics(BufferedImage img, Rectangle region) {
+        Graphics2D g = img.createGraphics();
+        if (region != null) {
+            g.setClip(region);
+        }
+        return g;
+    }
+
+    private boolean hasVisibleLayer(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (layerList.get(i).isVisible()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the composite image can be recalculated in separate regions.
+     * This is not possible if an adjustment layer needs the whole image,
+     * unless it is already part of the cached snapshot of the layers below.
+     */
+    boolean canCompositeRegions() {
+        updateStackSnapshots();
+
+        int from = 0;
+        if (stackSnapshots.getBelow() != null) {
+            from = layerList.indexOf(activeLayer);
+        }
+        for (int i = from; i < layerList.size(); i++) {
+            Layer layer = layerList.get(i);
+            if (layer.isVisible() && layer.isAdjustment()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recalculates the given canvas-space region of the given
+     * composite image. Must be called only if
+     * {@link #canCompositeRegions()} returns true.
+     */
+    void compositeRegion(BufferedImage target, Rectangle region) {
+        Graphics2D g = target.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(region);
+        g.dispose();
+
+        BufferedImage result = compositeLayers(target, region);
+        assert result == target;
+    }
+
     public void repaint() {
         view.repaint();
     }
 
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateCompositeCache();
+        double minX = Math.min(start.getImX(), end.getImX()) - thickness;
+        double minY = Math.min(start.getImY(), end.getImY()) - thickness;
+        double maxX = Math.max(start.getImX(), end.getImX()) + thickness;
+        double maxY = Math.max(start.getImY(), end.getImY()) + thickness;
+        invalidateCompositeCache(new Rectangle2D.Double(
+            minX, minY, maxX - minX, maxY - minY).getBounds());
+
         if (view != null) { // during reload image it can be null
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
@@ -844,7 +1049,7 @@ public class Composition implements Serializable {
     }
 
     public void repaintRegion(PRectangle area) {
-        invalidateCompositeCache();
+        invalidateCompositeCache(area.getIm().getBounds());
         if (view != null) { // during reload image it can be null
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -1143,10 +1348,30 @@ public class Composition implements Serializable {
      * Returns the (canvas-sized) composite image.
      */
     public BufferedImage getCompositeImage() {
-        if (compositeImage == null) {
-            compositeImage = calculateCompositeImage();
-        }
-        return compositeImage;
+        return compositeCache.get();
+    }
+
+    /**
+     * Returns the composite image, or a downscaled version of it if
+     * that has enough pixels for painting at the given scaling.
+     * The returned image must be painted with the canvas size.
+     */
+    public BufferedImage getCompositeImage(double scaling) {
+        return compositePyramid.get(scaling, null);
+    }
+
+    /**
+     * Like {@link #getCompositeImage(double)}, but if the full-size image
+     * is returned, then only its part intersecting the given canvas-space
+     * area is guaranteed to be up to date. Useful for painting only
+     * the visible part of a large, zoomed-in image.
+     */
+    public BufferedImage getCompositeImage(double scaling, Rectangle visibleArea) {
+        return compositePyramid.get(scaling, visibleArea);
+    }
+
+    BufferedImage getCompositeImage(Rectangle area) {
+        return compositeCache.get(area);
     }
 
     public void imageChanged() {
@@ -1157,13 +1382,26 @@ public class Composition implements Serializable {
         imageChanged(actions, false);
     }
 
+    /**
+     * Like {@link #imageChanged()}, but the change is known to be restricted
+     * to the given canvas-space area, so only that part of the cached
+     * composite image has to be recalculated.
+     */
+    public void imageChanged(Rectangle changedArea) {
+        invalidateCompositeCache(changedArea);
+        runImageChangeActions(FULL, false);
+    }
+
     /**
      * The contents of this composition have been changed, the cache is invalidated,
      * and additional actions might be necessary
      */
     public void imageChanged(ImageChangeActions actions, boolean sizeChanged) {
         invalidateCompositeCache();
+        runImageChangeActions(actions, sizeChanged);
+    }
 
+    private void runImageChangeActions(ImageChangeActions actions, boolean sizeChanged) {
         if (actions.repaintNeeded()) {
             if (view != null) {
                 view.repaint();
@@ -1177,10 +1415,33 @@ public class Composition implements Serializable {
     }
 
     private void invalidateCompositeCache() {
-        if (compositeImage != null) {
-            compositeImage.flush();
+        compositeCache.invalidateAll();
+        activeLayerPixelsChanged(null);
+    }
+
+    private void invalidateCompositeCache(Rectangle changedArea) {
+        compositeCache.invalidate(changedArea);
+        compositePyramid.invalidate(changedArea);
+        activeLayerPixelsChanged(changedArea);
+    }
+
+    /**
+     * Notifies the active layer and the adjustment layers above it
+     * that their pixels or their input might have changed in the
+     * given area (or everywhere, if the area is null).
+     */
+    private void activeLayerPixelsChanged(Rectangle changedArea) {
+        if (activeLayer != null) {
+            activeLayer.pixelsChanged(changedArea);
+        }
+
+        int activeIndex = layerList.indexOf(activeLayer);
+        for (int i = activeIndex + 1; i < layerList.size(); i++) {
+            Layer layer = layerList.get(i);
+            if (layer instanceof AdjustmentLayer) {
+                ((AdjustmentLayer) layer).inputChanged(changedArea);
+            }
         }
-        compositeImage = null;
     }
 
     public boolean isActive() {
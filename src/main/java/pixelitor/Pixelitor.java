@@ -19,6 +19,7 @@ package pixelitor;
 
 import com.bric.util.JVM;
 import net.jafama.FastMath;
+import pixelitor.automate.CommandLineBatch;
 import pixelitor.colors.FgBgColors;
 import pixelitor.gui.GUIMessageHandler;
 import pixelitor.gui.MouseZoomMethod;
@@ -76,6 +77,12 @@ public class Pixelitor {
 
         Language.load();
 
+        if (CommandLineBatch.isBatchMode(args)) {
+            // batch processing without a GUI, it also works on servers
+            System.setProperty("java.awt.headless", "true");
+            System.exit(CommandLineBatch.run(args));
+        }
+
         System.setProperty("com.apple.mrj.application.apple.menu.about.name", "Pixelitor");
 
         if (JVM.isLinux) {
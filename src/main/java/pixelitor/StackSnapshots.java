@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.Layer;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cached, flattened images of the layers below and above the active
+ * layer of a {@link Composition}, so that when only the active layer
+ * changes (it is painted, moved or filtered), the composite image
+ * can be recalculated with at most three draws.
+ *
+ * The snapshots are validated with a key describing the visual state
+ * of the cached layers, therefore visibility, opacity, blending mode,
+ * mask and layer order changes are detected without explicit calls.
+ * Changes that modify a layer's pixels in place must be reported
+ * with {@link #invalidate()}.
+ */
+class StackSnapshots {
+    // don't cache a single layer, drawing it directly is just as fast
+    private static final int MIN_CACHED_LAYERS = 2;
+
+    private final Composition comp;
+
+    private List<Object> belowKey;
+    private BufferedImage below;
+
+    private List<Object> aboveKey;
+    private BufferedImage above;
+
+    StackSnapshots(Composition comp) {
+        this.comp = comp;
+    }
+
+    /**
+     * Brings the snapshots in sync with the current state of the layers.
+     * A snapshot is created only when the same key is seen the second
+     * time, so that one-off recalculations don't pay for it.
+     */
+    void update(List<Layer> layers, int activeIndex) {
+        int numLayers = layers.size();
+
+        List<Object> newBelowKey = createKey(layers, activeIndex, 0, activeIndex);
+        if (!newBelowKey.equals(belowKey)) {
+            belowKey = newBelowKey;
+            below = flush(below);
+        } else if (below == null && countVisible(layers, 0, activeIndex) >= MIN_CACHED_LAYERS) {
+            below = comp.applyLayers(comp.createEmptyCompositeImage(),
+                0, activeIndex, null, true);
+        }
+
+        List<Object> newAboveKey = createKey(layers, activeIndex, activeIndex + 1, numLayers);
+        if (!newAboveKey.equals(aboveKey)) {
+            aboveKey = newAboveKey;
+            above = flush(above);
+        } else if (above == null
+            && countVisible(layers, activeIndex + 1, numLayers) >= MIN_CACHED_LAYERS
+            && canFlattenAbove(layers, activeIndex)) {
+            // all layers are in normal mode, therefore they can be
+            // blended together before blending them with the rest
+            above = comp.applyLayers(comp.createEmptyCompositeImage(),
+                activeIndex + 1, numLayers, null, false);
+        }
+    }
+
+    /**
+     * Returns the flattened image of the layers below
+     * the active layer, or null if it isn't cached.
+     */
+    BufferedImage getBelow() {
+        return below;
+    }
+
+    /**
+     * Returns the flattened image of the layers above
+     * the active layer, or null if it isn't cached.
+     */
+    BufferedImage getAbove() {
+        return above;
+    }
+
+    void invalidate() {
+        belowKey = null;
+        below = flush(below);
+        aboveKey = null;
+        above = flush(above);
+    }
+
+    private List<Object> createKey(List<Layer> layers, int activeIndex, int from, int to) {
+        List<Object> key = new ArrayList<>();
+        key.add(layers.get(activeIndex));
+        key.add(comp.getCanvasWidth());
+        key.add(comp.getCanvasHeight());
+        for (int i = from; i < to; i++) {
+            layers.get(i).addSnapshotKeyTo(key);
+        }
+        return key;
+    }
+
+    private static int countVisible(List<Layer> layers, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (layers.get(i).isVisible()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean canFlattenAbove(List<Layer> layers, int activeIndex) {
+        for (int i = activeIndex + 1; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            if (layer.isVisible()
+                && (layer.isAdjustment() || layer.getBlendingMode() != BlendingMode.NORMAL)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static BufferedImage flush(BufferedImage img) {
+        if (img != null) {
+            img.flush();
+        }
+        return null;
+    }
+}
@@ -17,16 +17,28 @@
 
 package pixelitor;
 
-import com.jhlabs.image.AbstractBufferedImageOp;
 import pixelitor.utils.ProgressTracker;
 
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
@@ -37,6 +49,20 @@ public class ThreadPool {
     private static final ExecutorService executorService =
             Executors.newFixedThreadPool(NUM_CORES);
 
+    // used for the data-parallel loops of the filters
+    private static final ForkJoinPool forkJoinPool = new ForkJoinPool(NUM_CORES);
+
+    // the number of strips that each core gets on average,
+    // more strips help the work-stealing if the lines
+    // take different amounts of time to calculate
+    private static final int STRIPS_PER_CORE = 4;
+
+    // how often the waiting thread forwards the progress
+    private static final long PROGRESS_POLL_MILLIS = 50;
+
+    // set on the threads that run cancellable work, such as async filter previews
+    private static final ThreadLocal<BooleanSupplier> cancelCheck = new ThreadLocal<>();
+
     private ThreadPool() {
     }
 
@@ -55,62 +81,266 @@ public class ThreadPool {
         return executorService.submit(task);
     }
 
+    /**
+     * Submits a part of a bigger task that already runs in this pool,
+     * for example an IO task. The part runs on the fork-join pool,
+     * so waiting for it can't exhaust the threads of the executor.
+     */
+    public static <T> Future<T> submitSubtask(Callable<T> task) {
+        return forkJoinPool.submit(task);
+    }
+
     /**
      * Waits until all the given futures complete their
      * computation, and updates the given
      * {@link ProgressTracker} in the meantime.
+     * If a task failed, its exception is rethrown (wrapped in an
+     * unchecked exception) after all the tasks are finished, so that
+     * no task writes into the caller's data after this returns.
+     * If the waiting thread is interrupted, it still waits for the
+     * tasks, and then throws a {@link CancellationException}.
      */
-    public static void waitFor(Iterable<Future<?>> futures, ProgressTracker pt) {
+    public static void waitFor(Iterable<? extends Future<?>> futures, ProgressTracker pt) {
         assert pt != null;
 
+        Throwable failure = null;
+        boolean interrupted = false;
         for (var future : futures) {
-            try {
-                future.get();
-
-                // not completely accurate because the submit order is not
-                // necessarily the same as the finish order, but
-                // good enough in practice
-                pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
             }
+
+            // not completely accurate because the submit order is not
+            // necessarily the same as the finish order, but
+            // good enough in practice
+            pt.unitDone();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw asUnchecked(failure);
+        }
+        if (interrupted) {
+            throw new CancellationException("interrupted while waiting for the tasks");
         }
     }
 
     // same as the above, but with array argument
     public static void waitFor(Future<?>[] futures, ProgressTracker pt) {
+        waitFor(Arrays.asList(futures), pt);
+    }
+
+    /**
+     * Calls the given task for every line index in the range
+     * [0, numLines) on multiple CPU cores, and updates the given
+     * {@link ProgressTracker} in the meantime. Returns when all
+     * lines are finished.
+     */
+    public static void parallelFor(int numLines, IntConsumer lineTask, ProgressTracker pt) {
+        parallelForStrips(numLines, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                lineTask.accept(y);
+            }
+        }, pt);
+    }
+
+    /**
+     * Splits the line range [0, numLines) into strips of adjacent lines,
+     * sized according to the number of cores, and processes them
+     * in a work-stealing pool. Unlike the one-future-per-line approach,
+     * the scheduling overhead doesn't grow with the image height,
+     * and the task can allocate its temporary buffers once per strip.
+     * The {@link ProgressTracker} is updated only from the calling thread,
+     * so it doesn't have to be thread-safe.
+     * <p>
+     * If a strip fails, the remaining strips are skipped, and the
+     * exception is rethrown (wrapped in an unchecked exception)
+     * after the running strips are finished. If the calling thread
+     * is interrupted, it also waits for the running strips, and then
+     * throws a {@link CancellationException}.
+     */
+    public static void parallelForStrips(int numLines, StripTask task, ProgressTracker pt) {
+        parallelForStrips(numLines, 1, task, pt);
+    }
+
+    /**
+     * Like {@link #parallelForStrips(int, StripTask, ProgressTracker)},
+     * but the strips are at least minLines tall (except if there are
+     * fewer lines), for tasks with a per-strip setup cost that
+     * would dominate with too thin strips.
+     */
+    public static void parallelForStrips(int numLines, int minLines,
+                                         StripTask task, ProgressTracker pt) {
         assert pt != null;
+        if (numLines <= 0) {
+            return;
+        }
 
-        for (var future : futures) {
+        // a range is halved only if it's taller than this,
+        // therefore 2 * minLines - 1 keeps the halves tall enough
+        int minStripHeight = Math.max(1, Math.max(
+            numLines / (NUM_CORES * STRIPS_PER_CORE), 2 * minLines - 1));
+        var loop = new StripLoop(task, minStripHeight, cancelCheck.get());
+        var action = new StripAction(loop, 0, numLines);
+
+        if (ForkJoinTask.inForkJoinPool()) {
+            // nested call from a pool thread: run it in the current pool
+            // instead of blocking a worker while waiting for the others
+            action.invoke();
+            loop.checkFailure();
+            pt.unitsDone(numLines);
+            return;
+        }
+
+        forkJoinPool.execute(action);
+        int reported = 0;
+        while (true) {
             try {
-                future.get();
-                pt.unitDone();
+                action.get(PROGRESS_POLL_MILLIS, MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                int done = loop.linesDone.get();
+                if (done > reported) {
+                    pt.unitsDone(done - reported);
+                    reported = done;
+                }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                // skip the remaining strips, but wait for the running
+                // ones, because they write into the caller's arrays
+                loop.stopped = true;
+                action.quietlyJoin();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("interrupted while waiting for the strips");
             } catch (ExecutionException e) {
-                e.getCause().printStackTrace();
+                // not expected, because the strips catch their exceptions
+                throw asUnchecked(e.getCause());
             }
         }
+        loop.checkFailure();
+        if (reported < numLines) {
+            pt.unitsDone(numLines - reported);
+        }
     }
 
     /**
-     * Similar to waitFor, but works with futures
-     * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
+     * Runs the given task on the current thread so that the parallel
+     * loops started by it skip their remaining strips as soon as the
+     * given condition becomes true. The result of a cancelled
+     * task is incomplete and should be discarded.
      */
-    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
-        assert pt != null;
-
+    public static <T> T callCancellable(Supplier<T> task, BooleanSupplier isCancelled) {
+        BooleanSupplier prevCheck = cancelCheck.get();
+        cancelCheck.set(isCancelled);
         try {
-            for (int i = 0; i < futures.length; i++) {
-                var lineFuture = futures[i];
-                int[] linePixels = lineFuture.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
+            return task.get();
+        } finally {
+            cancelCheck.set(prevCheck);
+        }
+    }
+
+    // errors such as OutOfMemoryError are rethrown as they are,
+    // because they are handled specially
+    private static RuntimeException asUnchecked(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new CompletionException(t);
+    }
+
+    /**
+     * Processes the lines in the range [startY, endY)
+     */
+    @FunctionalInterface
+    public interface StripTask {
+        void processStrip(int startY, int endY);
+    }
+
+    /**
+     * The state shared by the strips of a parallel loop
+     */
+    private static class StripLoop {
+        private final StripTask task;
+        private final int minStripHeight;
+        private final BooleanSupplier cancelled; // can be null
+        private final AtomicInteger linesDone = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private volatile boolean stopped;
+
+        StripLoop(StripTask task, int minStripHeight, BooleanSupplier cancelled) {
+            this.task = task;
+            this.minStripHeight = minStripHeight;
+            this.cancelled = cancelled;
+        }
 
-                pt.unitDone();
+        boolean shouldSkip() {
+            return stopped || (cancelled != null && cancelled.getAsBoolean());
+        }
+
+        // The exceptions are caught here instead of failing the fork-join
+        // task, because a failed subtask would complete the whole loop
+        // while its sibling strips are still running.
+        void processStrip(int startY, int endY) {
+            try {
+                task.processStrip(startY, endY);
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                stopped = true;
+            }
+        }
+
+        void checkFailure() {
+            Throwable t = failure.get();
+            if (t != null) {
+                throw asUnchecked(t);
+            }
+        }
+    }
+
+    /**
+     * Recursively halves the line range until the strips
+     * are small enough, so that idle workers can steal
+     * the larger pending halves.
+     */
+    private static class StripAction extends RecursiveAction {
+        private final StripLoop loop;
+        private final int startY;
+        private final int endY;
+
+        StripAction(StripLoop loop, int startY, int endY) {
+            this.loop = loop;
+            this.startY = startY;
+            this.endY = endY;
+        }
+
+        @Override
+        protected void compute() {
+            int numLines = endY - startY;
+            if (loop.shouldSkip()) {
+                // the lines are skipped, but still reported as done
+                loop.linesDone.addAndGet(numLines);
+                return;
+            }
+            if (numLines <= loop.minStripHeight) {
+                loop.processStrip(startY, endY);
+                loop.linesDone.addAndGet(numLines);
+                return;
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+            int midY = startY + numLines / 2;
+            invokeAll(
+                    new StripAction(loop, startY, midY),
+                    new StripAction(loop, midY, endY));
         }
     }
 
@@ -18,18 +18,18 @@
 package pixelitor.automate;
 
 import pixelitor.Composition;
-import pixelitor.OpenImages;
-import pixelitor.compactions.CompAction;
+import pixelitor.automate.BatchProcessor.OverwriteAnswer;
 import pixelitor.gui.PixelitorWindow;
-import pixelitor.gui.View;
 import pixelitor.gui.utils.GUIUtils;
-import pixelitor.io.*;
+import pixelitor.io.Dirs;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.io.File;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
@@ -44,17 +44,16 @@ public class Automate {
     private static final String OVERWRITE_NO = "No (Skip)";
     private static final String OVERWRITE_CANCEL = "Cancel Processing";
 
-    private static volatile boolean overwriteAll = false;
-    private static volatile boolean stopProcessing = false;
-
     private Automate() {
     }
 
     /**
-     * Processes each file in the input directory
-     * with the given {@link CompAction}
+     * Processes each file in the input directory with the given step,
+     * without opening the files. If serialStep is true, the step is
+     * not thread-safe and it must not run for several files at once.
      */
-    public static void processFiles(CompAction action,
+    public static void processFiles(UnaryOperator<Composition> step,
+                                    boolean serialStep,
                                     String dialogTitle) {
         assert calledOnEDT() : threadInfo();
 
@@ -67,112 +66,69 @@ public class Automate {
             return;
         }
 
-        stopProcessing = false;
         var pm = GUIUtils.createPercentageProgressMonitor(dialogTitle);
-        var worker = new SwingWorker<Void, Void>() {
+        var processor = new BatchProcessor(step, saveDir, FileFormat.getLastOutput())
+            .serialStep(serialStep)
+            .overwriteHandler(Automate::askOverwrite)
+            .cancelCheck(pm::isCanceled)
+            .progressListener((file, numFinished, numFiles) ->
+                onEDT.execute(() -> updateProgress(pm, numFinished, numFiles)));
+
+        var worker = new SwingWorker<BatchProcessor.Result, Void>() {
             @Override
-            public Void doInBackground() {
-                return processFilesOutsideTheEDT(inputFiles, action, saveDir, pm);
-            } // end of doInBackground
-        };
-        worker.execute();
-    }
-
-    private static Void processFilesOutsideTheEDT(List<File> inputFiles,
-                                                  CompAction action,
-                                                  File saveDir,
-                                                  ProgressMonitor monitor) {
-        assert calledOutsideEDT() : "on EDT";
-
-        overwriteAll = false;
-
-        for (int i = 0, numFiles = inputFiles.size(); i < numFiles; i++) {
-            if (monitor.isCanceled() || stopProcessing) {
-                break;
+            public BatchProcessor.Result doInBackground() {
+                return processor.process(inputFiles);
             }
 
-            File file = inputFiles.get(i);
-            monitor.setProgress((int) ((float) i * 100 / numFiles));
-
-            String msg = "Processing " + (i + 1) + " of " + numFiles;
-            monitor.setNote(msg);
-            System.out.println(msg);
-
-            processFile(file, action, saveDir);
-        }
-        monitor.close();
-        return null;
+            @Override
+            protected void done() {
+                pm.close();
+                try {
+                    showResult(get(), saveDir);
+                } catch (Exception e) {
+                    Messages.showException(e);
+                }
+            }
+        };
+        worker.execute();
     }
 
-    private static void processFile(File file, CompAction action, File saveDir) {
-        assert calledOutsideEDT() : "on EDT";
-        IO.openFileAsync(file)
-            .thenComposeAsync(comp -> process(comp, action), onEDT)
-            .thenComposeAsync(comp -> saveAndClose(comp, saveDir), onEDT)
-            .exceptionally(Messages::showExceptionOnEDT)
-            .join();
+    private static void updateProgress(ProgressMonitor pm, int numFinished, int numFiles) {
+        pm.setProgress((int) ((float) numFinished * 100 / numFiles));
+        pm.setNote(format("Finished %d of %d", numFinished, numFiles));
     }
 
-    private static CompletableFuture<Composition> process(Composition comp,
-                                                          CompAction action) {
-        assert calledOnEDT() : threadInfo();
-        assert comp.getView() != null : "no view for " + comp.getName();
+    private static void showResult(BatchProcessor.Result result, File saveDir) {
+        var failures = result.getFailures();
+        if (failures.isEmpty()) {
+            Messages.showFilesSavedMessage(result.getNumProcessed(), saveDir);
+            return;
+        }
 
-        return action.process(comp);
+        var msg = new StringBuilder("<html>The following files could not be processed:<ul>");
+        failures.forEach((file, e) -> msg.append("<li><b>")
+            .append(file.getName()).append("</b>: ").append(e.getMessage()));
+        msg.append("</ul>");
+        Messages.showError("Batch Processing Errors", msg.toString());
     }
 
-    private static CompletableFuture<Void> saveAndClose(Composition comp, File lastSaveDir) {
-        assert calledOnEDT() : threadInfo();
+    /**
+     * Asks the user on the EDT whether the given file can be overwritten
+     */
+    private static OverwriteAnswer askOverwrite(File outputFile) {
+        String[] answer = new String[1];
+        GUIUtils.invokeAndWait(() -> answer[0] = showOverwriteWarningDialog(outputFile));
 
-        View view = comp.getView();
-        assert view != null : "no view for " + comp.getName();
-
-        var format = FileFormat.getLastOutput();
-        File file = calcOutputFile(comp, lastSaveDir, format);
-        CompletableFuture<Void> retVal = null;
-
-        // so that it doesn't ask to save again after we just saved it
-        comp.setDirty(false);
-
-        var saveSettings = new SaveSettings(format, file);
-        if (file.exists() && !overwriteAll) {
-            String answer = showOverwriteWarningDialog(file);
-
-            switch (answer) {
-                case OVERWRITE_YES:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    break;
-                case OVERWRITE_YES_ALL:
-                    retVal = comp.saveAsync(saveSettings, false);
-                    overwriteAll = true;
-                    break;
-                case OVERWRITE_NO:
-                    // do nothing
-                    break;
-                case OVERWRITE_CANCEL:
-                    OpenImages.warnAndClose(view);
-                    stopProcessing = true;
-                    return CompletableFuture.completedFuture(null);
-                default:
-                    throw new IllegalStateException("Unexpected value: " + answer);
-            }
-        } else { // the file does not exist or overwrite all was pressed previously
-            view.paintImmediately();
-            retVal = comp.saveAsync(saveSettings, false);
-        }
-        OpenImages.warnAndClose(view);
-        stopProcessing = false;
-        if (retVal != null) {
-            return retVal;
-        } else {
-            return CompletableFuture.completedFuture(null);
+        if (answer[0] == null) {
+            return OverwriteAnswer.CANCEL;
         }
-    }
-
-    private static File calcOutputFile(Composition comp, File lastSaveDir, FileFormat format) {
-        String inFileName = comp.getFile().getName();
-        String outFileName = FileUtils.replaceExt(inFileName, format.toString());
-        return new File(lastSaveDir, outFileName);
+        return switch (answer[0]) {
+            case OVERWRITE_YES -> OverwriteAnswer.YES;
+            case OVERWRITE_YES_ALL -> OverwriteAnswer.YES_TO_ALL;
+            case OVERWRITE_NO -> OverwriteAnswer.NO;
+            case OVERWRITE_CANCEL -> OverwriteAnswer.CANCEL;
+            default -> throw new IllegalStateException("Unexpected value: " + answer[0]);
+        };
     }
 
     private static String showOverwriteWarningDialog(File outputFile) {
@@ -195,4 +151,4 @@ public class Automate {
         }
         return answer;
     }
-}
\ No newline at end of file
+}
@@ -17,14 +17,9 @@
 
 package pixelitor.automate;
 
-import pixelitor.compactions.CompAction;
 import pixelitor.filters.Filter;
-import pixelitor.gui.PixelitorWindow;
 import pixelitor.layers.Drawable;
 
-import java.util.concurrent.CompletableFuture;
-
-import static pixelitor.ChangeReason.BATCH_AUTOMATE;
 import static pixelitor.automate.BatchFilterWizardPage.SELECT_FILTER_AND_DIRS;
 
 /**
@@ -40,14 +35,13 @@ public class BatchFilterWizard extends Wizard {
 
     @Override
     protected void finalAction() {
-        var busyCursorParent = PixelitorWindow.get();
         var dialogTitle = "Batch Filter Progress";
 
-        CompAction batchFilterAction = comp -> {
-            filter.run(comp.getActiveDrawableOrThrow(), BATCH_AUTOMATE, busyCursorParent);
-            return CompletableFuture.completedFuture(comp);
-        };
-        Automate.processFiles(batchFilterAction, dialogTitle);
+        // the filter instance is shared, so it can't run on several files at once
+        Automate.processFiles(comp -> {
+            filter.runWithoutView(comp.getActiveDrawableOrThrow());
+            return comp;
+        }, true, dialogTitle);
     }
 
     @Override
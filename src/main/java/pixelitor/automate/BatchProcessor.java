@@ -0,0 +1,367 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.io.SaveSettings;
+import pixelitor.io.TrackedIO;
+import pixelitor.utils.Utils;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import static pixelitor.utils.Threads.calledOutsideEDT;
+
+/**
+ * Processes image files without opening them in views: each file
+ * is loaded into a {@link Composition}, transformed by a processing
+ * step and saved into the output directory.
+ *
+ * Several files are processed in parallel, so that the decoding,
+ * processing and encoding of different files overlap. A new file is
+ * started only if its estimated memory need fits into the memory budget.
+ */
+public class BatchProcessor {
+    /**
+     * The possible answers to the question whether
+     * an existing output file should be overwritten
+     */
+    public enum OverwriteAnswer {
+        YES, YES_TO_ALL, NO, CANCEL
+    }
+
+    /**
+     * Called after each finished (processed, skipped or failed) file.
+     * Can be called on any of the worker threads.
+     */
+    public interface ProgressListener {
+        void fileFinished(File file, int numFinished, int numFiles);
+    }
+
+    // the pixels are stored at least twice (the layer image and the
+    // composite image), and most processing steps allocate a third copy
+    private static final int MEMORY_COPIES = 3;
+
+    // used for the files whose header can't be read with ImageIO
+    private static final int COMPRESSION_RATIO_ESTIMATE = 10;
+
+    private final UnaryOperator<Composition> step;
+    private final File outputDir;
+    private final FileFormat outputFormat;
+
+    private int numParallelFiles = Math.max(1,
+        Runtime.getRuntime().availableProcessors() / 2);
+    private int memoryBudgetMB = Math.max(1, Utils.getMaxHeapInMegabytes() / 2);
+    private boolean serialStep = false;
+    private boolean skipUpToDate = false;
+    private Function<File, File> outputDirMapper = null;
+    private Function<File, OverwriteAnswer> overwriteHandler = file -> OverwriteAnswer.YES;
+    private BooleanSupplier cancelCheck = () -> false;
+    private ProgressListener progressListener = (file, numFinished, numFiles) -> {
+    };
+
+    private final Object stepLock = new Object();
+
+    public BatchProcessor(UnaryOperator<Composition> step,
+                          File outputDir, FileFormat outputFormat) {
+        this.step = step;
+        this.outputDir = outputDir;
+        this.outputFormat = outputFormat;
+    }
+
+    public BatchProcessor parallelFiles(int numParallelFiles) {
+        if (numParallelFiles < 1) {
+            throw new IllegalArgumentException("numParallelFiles = " + numParallelFiles);
+        }
+        this.numParallelFiles = numParallelFiles;
+        return this;
+    }
+
+    public BatchProcessor memoryBudgetMB(int memoryBudgetMB) {
+        if (memoryBudgetMB < 1) {
+            throw new IllegalArgumentException("memoryBudgetMB = " + memoryBudgetMB);
+        }
+        this.memoryBudgetMB = memoryBudgetMB;
+        return this;
+    }
+
+    /**
+     * If set to true, the processing step runs for only one file at a time
+     * (the loading and saving still run in parallel). This is necessary
+     * for steps that are not thread-safe, like running a filter instance.
+     */
+    public BatchProcessor serialStep(boolean serialStep) {
+        this.serialStep = serialStep;
+        return this;
+    }
+
+    /**
+     * If set to true, the input files whose output file
+     * is newer than the input file are skipped
+     */
+    public BatchProcessor skipUpToDate(boolean skipUpToDate) {
+        this.skipUpToDate = skipUpToDate;
+        return this;
+    }
+
+    /**
+     * Sets a function that returns the output directory for
+     * each input file, for example in order to mirror a directory tree.
+     * By default all output files are saved into the same directory.
+     */
+    public BatchProcessor outputDirMapper(Function<File, File> outputDirMapper) {
+        this.outputDirMapper = outputDirMapper;
+        return this;
+    }
+
+    /**
+     * The overwrite handler is called in the order of the input files,
+     * always on the thread that called {@link #process(List)}
+     */
+    public BatchProcessor overwriteHandler(Function<File, OverwriteAnswer> overwriteHandler) {
+        this.overwriteHandler = overwriteHandler;
+        return this;
+    }
+
+    public BatchProcessor cancelCheck(BooleanSupplier cancelCheck) {
+        this.cancelCheck = cancelCheck;
+        return this;
+    }
+
+    public BatchProcessor progressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Processes the given files, and returns only after all
+     * started files are finished. Must not be called on the EDT.
+     */
+    public Result process(List<File> inputFiles) {
+        assert calledOutsideEDT() : "on EDT";
+
+        var result = new Result();
+        int numFiles = inputFiles.size();
+        var numFinished = new AtomicInteger();
+        var slots = new Semaphore(numParallelFiles);
+        var memory = new Semaphore(memoryBudgetMB);
+        ExecutorService executor = createExecutor();
+        boolean overwriteAll = false;
+        // output file => the input file that was mapped to it
+        Map<File, File> usedOutputs = new HashMap<>();
+
+        try {
+            for (File file : inputFiles) {
+                if (cancelCheck.getAsBoolean()) {
+                    result.cancelled = true;
+                    break;
+                }
+
+                File outFile = calcOutputFile(file);
+                File otherInput = usedOutputs.putIfAbsent(outFile.getAbsoluteFile(), file);
+                if (otherInput != null) {
+                    // for example a.png and a.jpg, the later file
+                    // would overwrite the output of the earlier one
+                    result.failures.put(file, new IllegalStateException(
+                        "the output file " + outFile.getAbsolutePath()
+                            + " is also the output of " + otherInput.getAbsolutePath()));
+                    progressListener.fileFinished(file,
+                        numFinished.incrementAndGet(), numFiles);
+                    continue;
+                }
+                if (skipUpToDate && isUpToDate(outFile, file)) {
+                    result.numSkipped.incrementAndGet();
+                    progressListener.fileFinished(file,
+                        numFinished.incrementAndGet(), numFiles);
+                    continue;
+                }
+                if (outFile.exists() && !overwriteAll) {
+                    OverwriteAnswer answer = overwriteHandler.apply(outFile);
+                    if (answer == OverwriteAnswer.CANCEL) {
+                        result.cancelled = true;
+                        break;
+                    }
+                    if (answer == OverwriteAnswer.NO) {
+                        result.numSkipped.incrementAndGet();
+                        progressListener.fileFinished(file,
+                            numFinished.incrementAndGet(), numFiles);
+                        continue;
+                    }
+                    if (answer == OverwriteAnswer.YES_TO_ALL) {
+                        overwriteAll = true;
+                    }
+                }
+
+                int neededMB = estimateMemoryMB(file);
+                slots.acquire();
+                memory.acquire(neededMB);
+                executor.execute(() -> {
+                    try {
+                        processFile(file, outFile);
+                        result.numProcessed.incrementAndGet();
+                    } catch (Throwable e) {
+                        result.failures.put(file, e);
+                    } finally {
+                        memory.release(neededMB);
+                        slots.release();
+                        progressListener.fileFinished(file,
+                            numFinished.incrementAndGet(), numFiles);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancelled = true;
+        } finally {
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+        return result;
+    }
+
+    private void processFile(File inFile, File outFile) {
+        FileFormat inputFormat = FileFormat.fromFile(inFile).orElseThrow(() ->
+            new IllegalArgumentException("unsupported file: " + inFile.getName()));
+        Composition comp = inputFormat.readSync(inFile);
+        if (comp == null) {
+            throw new IllegalStateException("could not read " + inFile.getName());
+        }
+
+        if (serialStep) {
+            synchronized (stepLock) {
+                comp = step.apply(comp);
+            }
+        } else {
+            comp = step.apply(comp);
+        }
+
+        File dir = outFile.getParentFile();
+        if (!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IllegalStateException("could not create " + dir.getAbsolutePath());
+        }
+
+        var saveSettings = new SaveSettings(outputFormat, outFile);
+        outputFormat.getSaveTask(comp, saveSettings).run();
+    }
+
+    private File calcOutputFile(File inFile) {
+        String outFileName = FileUtils.replaceExt(inFile.getName(), outputFormat.toString());
+        File dir = outputDirMapper == null ? outputDir : outputDirMapper.apply(inFile);
+        return new File(dir, outFileName);
+    }
+
+    private static boolean isUpToDate(File outFile, File inFile) {
+        // lastModified returns 0 if the file doesn't exist
+        long outModified = outFile.lastModified();
+        return outModified != 0 && outModified >= inFile.lastModified();
+    }
+
+    /**
+     * Estimates the memory (in megabytes) needed for processing the
+     * given file. The result is clamped to the memory budget, so that
+     * even a very big file can be processed, if it is processed alone.
+     */
+    private int estimateMemoryMB(File file) {
+        long numBytes;
+        Dimension size = null;
+        try {
+            size = TrackedIO.readDimensions(file);
+        } catch (IOException e) {
+            // the estimate below is used, the real error will show up later
+        }
+        if (size != null) {
+            numBytes = 4L * MEMORY_COPIES * size.width * size.height;
+        } else {
+            numBytes = file.length() * COMPRESSION_RATIO_ESTIMATE;
+        }
+        long mb = numBytes / (1024 * 1024) + 1;
+        return (int) Math.min(mb, memoryBudgetMB);
+    }
+
+    private ExecutorService createExecutor() {
+        var threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(numParallelFiles, r -> {
+            var thread = new Thread(r, "Batch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting, the running files can't be stopped
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The summary of a batch run
+     */
+    public static class Result {
+        private final AtomicInteger numProcessed = new AtomicInteger();
+        private final AtomicInteger numSkipped = new AtomicInteger();
+        private final Map<File, Throwable> failures =
+            Collections.synchronizedMap(new LinkedHashMap<>());
+        private volatile boolean cancelled = false;
+
+        public int getNumProcessed() {
+            return numProcessed.get();
+        }
+
+        public int getNumSkipped() {
+            return numSkipped.get();
+        }
+
+        public boolean wasCancelled() {
+            return cancelled;
+        }
+
+        public Map<File, Throwable> getFailures() {
+            synchronized (failures) {
+                return new LinkedHashMap<>(failures);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getNumProcessed() + " processed, "
+                + getNumSkipped() + " skipped, "
+                + failures.size() + " failed"
+                + (cancelled ? " (cancelled)" : "");
+        }
+    }
+}
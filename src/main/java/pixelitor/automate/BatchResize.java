@@ -51,7 +51,8 @@ public class BatchResize {
         int maxHeight = p.getNewHeight();
 
         var resizeAction = new Resize(maxWidth, maxHeight, true);
-        Automate.processFiles(resizeAction, "Batch Resize...");
+        Automate.processFiles(resizeAction::processWithoutView,
+            false, "Batch Resize...");
     }
 
     /**
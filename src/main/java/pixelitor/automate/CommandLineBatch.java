@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.Composition;
+import pixelitor.automate.BatchProcessor.OverwriteAnswer;
+import pixelitor.compactions.Resize;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.FilterState;
+import pixelitor.filters.gui.ParamSet;
+import pixelitor.filters.gui.UserPreset;
+import pixelitor.filters.util.FilterUtils;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.menus.MenuBar;
+import pixelitor.utils.ConsoleMessageHandler;
+import pixelitor.utils.Messages;
+
+import java.awt.HeadlessException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static java.lang.String.format;
+
+/**
+ * Runs the batch processing from the command line, without a GUI.
+ * It is started if the first command-line argument is {@value #BATCH_ARG}
+ */
+public class CommandLineBatch {
+    public static final String BATCH_ARG = "--batch";
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILURES = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = """
+        Usage: pixelitor --batch [options] <input files or directories>
+        Options:
+          --out <dir>        the output directory (default: the current directory)
+          --format <ext>     the output format: jpg, png, bmp, gif, tiff, pxc or ora (default: png)
+          --flatten          merge the layers of multi-layered images before filtering
+          --filter <name>    run the given filter on the active layer
+          --preset <name>    the filter settings: the name of a user or built-in
+                             preset, or the path of a preset file
+          --resize <WxH>     resize to fit into the given box, keeping the proportions
+          --recursive        also process the subdirectories of the input directories,
+                             mirroring the directory tree in the output directory
+          --jobs <n>         the number of files processed in parallel
+          --memory <MB>      the memory budget for the files processed in parallel
+          --overwrite        overwrite the existing output files (default: skip them)
+          --skip-up-to-date  skip the files whose output is newer than the input""";
+
+    private final List<File> inputArgs = new ArrayList<>();
+    private final List<File> inputFiles = new ArrayList<>();
+    private final Map<File, File> outputDirs = new HashMap<>();
+    private File outputDir = new File(".");
+    private FileFormat outputFormat = FileFormat.PNG;
+    private boolean flatten = false;
+    private String filterName = null;
+    private String presetName = null;
+    private Resize resize = null;
+    private boolean recursive = false;
+    private int numJobs = -1;
+    private int memoryMB = -1;
+    private boolean overwrite = false;
+    private boolean skipUpToDate = false;
+
+    private CommandLineBatch() {
+    }
+
+    public static boolean isBatchMode(String[] args) {
+        return args.length > 0 && BATCH_ARG.equals(args[0]);
+    }
+
+    /**
+     * Runs the batch processing described by the given
+     * command-line arguments, and returns the exit code
+     */
+    public static int run(String[] args) {
+        Messages.setMsgHandler(new ConsoleMessageHandler());
+
+        var batch = new CommandLineBatch();
+        try {
+            batch.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        return batch.process();
+    }
+
+    private void parseArgs(String[] args) {
+        assert BATCH_ARG.equals(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--out" -> outputDir = new File(nextArg(args, ++i, arg));
+                case "--format" -> {
+                    String ext = nextArg(args, ++i, arg);
+                    outputFormat = FileFormat.fromExtension(ext).orElseThrow(() ->
+                        new IllegalArgumentException("Unsupported output format: " + ext));
+                }
+                case "--flatten" -> flatten = true;
+                case "--filter" -> filterName = nextArg(args, ++i, arg);
+                case "--preset" -> presetName = nextArg(args, ++i, arg);
+                case "--resize" -> resize = parseResize(nextArg(args, ++i, arg));
+                case "--recursive" -> recursive = true;
+                case "--jobs" -> numJobs = parsePositiveInt(nextArg(args, ++i, arg), arg);
+                case "--memory" -> memoryMB = parsePositiveInt(nextArg(args, ++i, arg), arg);
+                case "--overwrite" -> overwrite = true;
+                case "--skip-up-to-date" -> skipUpToDate = true;
+                default -> {
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    inputArgs.add(new File(arg));
+                }
+            }
+        }
+
+        if (presetName != null && filterName == null) {
+            throw new IllegalArgumentException("A preset can only be used with a filter.");
+        }
+        if (!outputDir.isDirectory()) {
+            throw new IllegalArgumentException(format(
+                "The output directory %s does not exist.", outputDir.getAbsolutePath()));
+        }
+        for (File input : inputArgs) {
+            addInput(input);
+        }
+        if (inputFiles.isEmpty()) {
+            throw new IllegalArgumentException("No input files were given.");
+        }
+    }
+
+    private void addInput(File file) {
+        if (file.isDirectory()) {
+            if (recursive) {
+                addInputTree(file);
+            } else {
+                inputFiles.addAll(FileUtils.listSupportedInputFilesIn(file));
+            }
+        } else if (file.isFile() && FileUtils.hasSupportedInputExt(file)) {
+            inputFiles.add(file);
+        } else {
+            throw new IllegalArgumentException(format(
+                "%s is not a supported input file.", file.getAbsolutePath()));
+        }
+    }
+
+    private void addInputTree(File dir) {
+        List<File> files;
+        try {
+            files = FileUtils.listSupportedInputFilesRecursively(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Path root = dir.toPath();
+        for (File file : files) {
+            Path relDir = root.relativize(file.getParentFile().toPath());
+            outputDirs.put(file, outputDir.toPath().resolve(relDir).toFile());
+        }
+        inputFiles.addAll(files);
+    }
+
+    /**
+     * Combines the requested operations into a single processing step
+     */
+    private UnaryOperator<Composition> createStep(Filter filter) {
+        return comp -> {
+            if (flatten && comp.getNumLayers() > 1) {
+                comp = Composition.fromImage(comp.calculateCompositeImage(), comp.getFile(), null);
+            }
+            if (filter != null) {
+                filter.runWithoutView(comp.getActiveDrawableOrThrow());
+            }
+            if (resize != null) {
+                comp = resize.processWithoutView(comp);
+            }
+            return comp;
+        };
+    }
+
+    private static Filter findFilter(String filterName, String presetName) {
+        MenuBar.registerFilters();
+        Filter filter = FilterUtils.findFilterByName(filterName).orElseThrow(() ->
+            new IllegalArgumentException("Unknown filter: " + filterName));
+        if (presetName == null) {
+            return filter;
+        }
+
+        if (!(filter instanceof ParametrizedFilter)) {
+            throw new IllegalArgumentException(filter.getName() + " has no presets.");
+        }
+        ParamSet paramSet = ((ParametrizedFilter) filter).getParamSet();
+
+        File presetFile = new File(presetName);
+        if (presetFile.isFile()) {
+            var preset = new UserPreset(presetFile, filter.getName());
+            preset.loadIfNeeded();
+            paramSet.setStateFrom(preset);
+            return filter;
+        }
+        for (UserPreset preset : UserPreset.loadPresets(filter.getName())) {
+            if (preset.getName().equalsIgnoreCase(presetName)) {
+                preset.loadIfNeeded();
+                paramSet.setStateFrom(preset);
+                return filter;
+            }
+        }
+        if (paramSet.hasBuiltinPresets()) {
+            for (FilterState preset : paramSet.getBuiltinPresets()) {
+                if (presetName.equalsIgnoreCase(preset.getName())) {
+                    paramSet.setState(preset, false);
+                    return filter;
+                }
+            }
+        }
+        throw new IllegalArgumentException(format(
+            "No preset named %s was found for %s.", presetName, filter.getName()));
+    }
+
+    private int process() {
+        Filter filter = null;
+        if (filterName != null) {
+            try {
+                filter = findFilter(filterName, presetName);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                System.err.println(e.getMessage());
+                return EXIT_USAGE;
+            } catch (HeadlessException e) {
+                System.err.println(filterName + " can't run without a GUI.");
+                return EXIT_USAGE;
+            }
+        }
+
+        var processor = new BatchProcessor(createStep(filter), outputDir, outputFormat)
+            // a filter instance can't run on several images at once
+            .serialStep(filter != null)
+            .skipUpToDate(skipUpToDate)
+            .overwriteHandler(file -> overwrite ? OverwriteAnswer.YES_TO_ALL : OverwriteAnswer.NO)
+            .progressListener((file, numFinished, numFiles) ->
+                System.out.printf("[%d/%d] %s%n", numFinished, numFiles, file.getName()));
+        if (numJobs > 0) {
+            processor.parallelFiles(numJobs);
+        }
+        if (memoryMB > 0) {
+            processor.memoryBudgetMB(memoryMB);
+        }
+        if (!outputDirs.isEmpty()) {
+            processor.outputDirMapper(file -> outputDirs.getOrDefault(file, outputDir));
+        }
+
+        var result = processor.process(inputFiles);
+        result.getFailures().forEach((file, e) ->
+            System.err.println("Failed: " + file.getName() + ": " + e));
+        System.out.println(result);
+
+        return result.getFailures().isEmpty() ? EXIT_OK : EXIT_FAILURES;
+    }
+
+    private static Resize parseResize(String s) {
+        String[] parts = s.toLowerCase().split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid size: " + s);
+        }
+        int width = parsePositiveInt(parts[0], "--resize");
+        int height = parsePositiveInt(parts[1], "--resize");
+        return new Resize(width, height, true);
+    }
+
+    private static String nextArg(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int parsePositiveInt(String s, String option) {
+        try {
+            int value = Integer.parseInt(s.trim());
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException(format("Invalid value for %s: %s", option, s));
+    }
+}
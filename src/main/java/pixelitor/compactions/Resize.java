@@ -57,15 +57,65 @@ public class Resize implements CompAction {
 
     @Override
     public CompletableFuture<Composition> process(Composition oldComp) {
-        Canvas oldCanvas = oldComp.getCanvas();
-        int canvasCurrWidth = oldCanvas.getWidth();
-        int canvasCurrHeight = oldCanvas.getHeight();
-
-        if (canvasCurrWidth == targetWidth && canvasCurrHeight == targetHeight) {
+        Dimension targetSize = calcTargetSize(oldComp.getCanvas());
+        if (targetSize == null) {
             // nothing to do
             return CompletableFuture.completedFuture(oldComp);
         }
 
+        // The resize runs outside the EDT so that the progress bar animation
+        // can update and multiple resizing operations can run in parallel
+        var progressHandler = Messages.startProgress("Resizing", -1);
+        return CompletableFuture
+            .supplyAsync(() -> oldComp.copy(true, true), onPool)
+            .thenCompose(newComp -> resizeLayers(newComp, targetSize))
+            .thenApplyAsync(newComp -> afterResizeActions(oldComp, newComp, targetSize, progressHandler), onEDT)
+            .handle((newComp, ex) -> {
+                if (ex != null) {
+                    Messages.showExceptionOnEDT(ex);
+                }
+                return newComp;
+            });
+    }
+
+    /**
+     * Resizes a composition that has no view in place, without
+     * history and GUI updates. Used by the headless batch processing,
+     * the calling thread waits until the layers are resized.
+     */
+    public Composition processWithoutView(Composition comp) {
+        assert comp.getView() == null;
+
+        Canvas canvas = comp.getCanvas();
+        Dimension targetSize = calcTargetSize(canvas);
+        if (targetSize == null) {
+            return comp;
+        }
+
+        resizeLayers(comp, targetSize).join();
+
+        var canvasTransform = createCanvasTransform(targetSize, canvas);
+        if (comp.getPaths() != null) {
+            comp.getPaths().imCoordsChanged(canvasTransform);
+        }
+        canvas.changeImSize(targetSize.width, targetSize.height);
+        comp.invalidateStackSnapshots();
+        comp.imageChanged(REPAINT, true);
+
+        return comp;
+    }
+
+    /**
+     * Returns the new canvas size, or null if no resizing is necessary
+     */
+    private Dimension calcTargetSize(Canvas canvas) {
+        int canvasCurrWidth = canvas.getWidth();
+        int canvasCurrHeight = canvas.getHeight();
+
+        if (canvasCurrWidth == targetWidth && canvasCurrHeight == targetHeight) {
+            return null;
+        }
+
         // it is important to use local copies of the final global
         // variables, otherwise batch resize in box gets different
         // values for each input image, see issue #74
@@ -80,21 +130,7 @@ public class Resize implements CompAction {
             canvasTargetWidth = (int) (scale * canvasCurrWidth);
             canvasTargetHeight = (int) (scale * canvasCurrHeight);
         }
-        var targetSize = new Dimension(canvasTargetWidth, canvasTargetHeight);
-
-        // The resize runs outside the EDT so that the progress bar animation
-        // can update and multiple resizing operations can run in parallel
-        var progressHandler = Messages.startProgress("Resizing", -1);
-        return CompletableFuture
-            .supplyAsync(() -> oldComp.copy(true, true), onPool)
-            .thenCompose(newComp -> resizeLayers(newComp, targetSize))
-            .thenApplyAsync(newComp -> afterResizeActions(oldComp, newComp, targetSize, progressHandler), onEDT)
-            .handle((newComp, ex) -> {
-                if (ex != null) {
-                    Messages.showExceptionOnEDT(ex);
-                }
-                return newComp;
-            });
+        return new Dimension(canvasTargetWidth, canvasTargetHeight);
     }
 
     private static Composition afterResizeActions(Composition oldComp,
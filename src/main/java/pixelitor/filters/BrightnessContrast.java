@@ -108,4 +108,9 @@ public class BrightnessContrast extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
 }
\ No newline at end of file
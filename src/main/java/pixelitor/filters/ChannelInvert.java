@@ -163,4 +163,9 @@ public class ChannelInvert extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -454,4 +454,9 @@ public class ChannelMixer extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
 }
\ No newline at end of file
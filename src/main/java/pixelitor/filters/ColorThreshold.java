@@ -80,4 +80,9 @@ public class ColorThreshold extends ParametrizedFilter {
     public boolean supportsGray() {
         return false;
     }
+
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -46,6 +46,11 @@ public class ExtractChannelFilter extends Filter {
         return false;
     }
 
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
+
     // static factory methods from here
 
     public static FilterAction getValueChannelFA() {
@@ -33,6 +33,7 @@ import pixelitor.utils.test.RandomGUITest;
 import java.awt.Component;
 import java.awt.image.BufferedImage;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 import static pixelitor.ChangeReason.FILTER_WITHOUT_DIALOG;
@@ -46,12 +47,17 @@ public abstract class Filter implements Serializable {
     private transient FilterAction filterAction;
 
     // used for making sure that there are no
-    // unnecessary filter executions triggered
-    public static long runCount = 0;
+    // unnecessary filter executions triggered,
+    // atomic because the async previews run outside the EDT
+    private static final AtomicLong runCount = new AtomicLong();
 
     protected Filter() {
     }
 
+    public static long getRunCount() {
+        return runCount.get();
+    }
+
     /**
      * The main functionality of a filter.
      */
@@ -92,6 +98,17 @@ public abstract class Filter implements Serializable {
         FilterUtils.setLastFilter(this);
     }
 
+    /**
+     * Runs the filter on a {@link Drawable} whose composition has no view,
+     * for example in headless batch processing. Can be called outside the EDT,
+     * and the exceptions are not handled here.
+     */
+    public void runWithoutView(Drawable dr) {
+        BufferedImage src = dr.getFilterSourceImage();
+        BufferedImage dest = transformImage(src);
+        dr.filterWithoutDialogFinished(dest, ChangeReason.BATCH_AUTOMATE, getName());
+    }
+
     private void transformAndHandleExceptions(Drawable dr, ChangeReason cr) {
         BufferedImage dest;
 
@@ -110,29 +127,44 @@ public abstract class Filter implements Serializable {
             } else {
                 dr.filterWithoutDialogFinished(dest, cr, getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
         } catch (Throwable e) {
-            Layer layer = (Layer) dr;
-            if (layer instanceof LayerMask) {
-                layer = layer.getOwner();
-            }
-            String errorDetails = String.format(
-                "Error while running the filter '%s'%n" +
-                    "composition = '%s'%n" +
-                    "layer = '%s' (%s)%n" +
-                    "hasMask = '%s'%n" +
-                    "mask editing = '%b'",
-                getName(), layer.getComp().getName(),
-                layer.getName(), layer.getClass().getSimpleName(),
-                layer.hasMask(), layer.isMaskEditing());
-
-            var ise = new IllegalStateException(errorDetails, e);
-            if (RandomGUITest.isRunning()) {
-                throw ise; // we can debug the exact filter parameters only in RandomGUITest
-            }
-            Messages.showException(ise);
+            handleException(e, dr);
+        }
+    }
+
+    /**
+     * Reports an error that happened while this filter was running on the given
+     * {@link Drawable}. Must be called on the EDT.
+     */
+    public void handleException(Throwable e, Drawable dr) {
+        if (e instanceof OutOfMemoryError) {
+            Dialogs.showOutOfMemoryDialog((OutOfMemoryError) e);
+            return;
         }
+        if (dr == null) {
+            Messages.showException(e);
+            return;
+        }
+
+        Layer layer = (Layer) dr;
+        if (layer instanceof LayerMask) {
+            layer = layer.getOwner();
+        }
+        String errorDetails = String.format(
+            "Error while running the filter '%s'%n" +
+                "composition = '%s'%n" +
+                "layer = '%s' (%s)%n" +
+                "hasMask = '%s'%n" +
+                "mask editing = '%b'",
+            getName(), layer.getComp().getName(),
+            layer.getName(), layer.getClass().getSimpleName(),
+            layer.hasMask(), layer.isMaskEditing());
+
+        var ise = new IllegalStateException(errorDetails, e);
+        if (RandomGUITest.isRunning()) {
+            throw ise; // we can debug the exact filter parameters only in RandomGUITest
+        }
+        Messages.showException(ise);
     }
 
     public BufferedImage transformImage(BufferedImage src) {
@@ -155,13 +187,24 @@ public abstract class Filter implements Serializable {
             dest = ImageUtils.convertToGrayScaleImage(dest);
         }
 
-        runCount++;
+        runCount.incrementAndGet();
 
         assert dest != null : getName() + " returned null dest";
 
         return dest;
     }
 
+    /**
+     * Returns a new instance of this filter (with default settings),
+     * or null if this filter wasn't created by a {@link FilterAction}
+     */
+    public Filter createNewInstance() {
+        if (filterAction == null) {
+            return null;
+        }
+        return filterAction.createNewFilter();
+    }
+
     public void setFilterAction(FilterAction filterAction) {
         this.filterAction = filterAction;
     }
@@ -187,4 +230,13 @@ public abstract class Filter implements Serializable {
     public boolean supportsGray() {
         return true;
     }
+
+    /**
+     * Whether each output pixel depends only on the corresponding
+     * input pixel, so that a changed region of the input image
+     * can be transformed separately.
+     */
+    public boolean isPointOperation() {
+        return false;
+    }
 }
@@ -77,6 +77,11 @@ public class HueSat extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public boolean isPointOperation() {
+        return true;
+    }
+
     private static class Impl extends PointFilter {
         private final float hueShift;
         private final float satShift;
@@ -23,12 +23,10 @@ import pixelitor.filters.gui.RangeParam;
 import pixelitor.filters.gui.ShowOriginal;
 import pixelitor.filters.impl.MorphologyFilter;
 import pixelitor.gui.GUIText;
-import pixelitor.utils.StatusBarProgressTracker;
 
 import java.awt.image.BufferedImage;
 
-import static pixelitor.filters.impl.MorphologyFilter.OP_DILATE;
-import static pixelitor.filters.impl.MorphologyFilter.OP_ERODE;
+import static pixelitor.filters.impl.MorphologyFilter.*;
 
 /**
  * A morphology filter
@@ -36,19 +34,21 @@ import static pixelitor.filters.impl.MorphologyFilter.OP_ERODE;
 public class Morphology extends ParametrizedFilter {
     public static final String NAME = "Morphology";
 
-    private static final int OP_OPEN = 10;
-    private static final int OP_CLOSE = 11;
-
-    private final RangeParam radius = new RangeParam(GUIText.RADIUS, 1, 1, 21);
+    private final RangeParam radius = new RangeParam(GUIText.RADIUS, 1, 1, 100);
     private final IntChoiceParam kernel = new IntChoiceParam("Kernel Shape", new Item[]{
-        new Item("Diamond", MorphologyFilter.KERNEL_DIAMOND),
-        new Item("Square", MorphologyFilter.KERNEL_SQUARE),
+        new Item("Diamond", KERNEL_DIAMOND),
+        new Item("Square", KERNEL_SQUARE),
+        new Item("Disk", KERNEL_DISK),
+        new Item("Horizontal Line", KERNEL_HOR_LINE),
+        new Item("Vertical Line", KERNEL_VER_LINE),
     });
     private final IntChoiceParam op = new IntChoiceParam("Operation", new Item[]{
         new Item("Maximum (Dilate)", OP_DILATE),
         new Item("Minimum (Erode)", OP_ERODE),
         new Item("Open (Erode, then Dilate)", OP_OPEN),
         new Item("Close (Dilate, then Erode)", OP_CLOSE),
+        new Item("Top Hat (Original - Open)", OP_TOP_HAT),
+        new Item("Gradient (Dilate - Erode)", OP_GRADIENT),
     });
 
     public Morphology() {
@@ -61,36 +61,15 @@ public class Morphology extends ParametrizedFilter {
     public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
         var filter = new MorphologyFilter(NAME);
 
-        int iterations = radius.getValue();
-        filter.setIterations(iterations);
+        filter.setRadius(radius.getValue());
         filter.setKernel(kernel.getValue());
+        filter.setOp(op.getValue());
 
-        int selectedOp = op.getValue();
-
-        if (selectedOp == OP_DILATE || selectedOp == OP_ERODE) {
-            filter.setOp(selectedOp);
-            dest = filter.filter(src, dest);
-        } else {
-            var pt = new StatusBarProgressTracker(NAME, 2 * iterations);
-            filter.setProgressTracker(pt);
-
-            if (selectedOp == OP_OPEN) {
-                filter.setOp(OP_ERODE);
-                dest = filter.filter(src, dest);
-                filter.setOp(OP_DILATE);
-                dest = filter.filter(dest, dest);
-            } else if (selectedOp == OP_CLOSE) {
-                filter.setOp(OP_DILATE);
-                dest = filter.filter(src, dest);
-                filter.setOp(OP_ERODE);
-                dest = filter.filter(dest, dest);
-            } else {
-                throw new IllegalStateException("selectedOp = " + selectedOp);
-            }
-
-            pt.finished();
-        }
+        return filter.filter(src, dest);
+    }
 
-        return dest;
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
     }
 }
@@ -42,6 +42,10 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
     // the area affected by a filter
     private Shape[] affectedAreaShapes;
 
+    // the size of the filtered image relative to the real image,
+    // less than 1.0 only while a downscaled proxy preview is calculated
+    private transient double proxyScale = 1.0;
+
     protected ParametrizedFilter(ShowOriginal addShowOriginal) {
         this.addShowOriginal = addShowOriginal;
     }
@@ -74,6 +78,50 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
 
     public abstract BufferedImage doTransform(BufferedImage src, BufferedImage dest);
 
+    /**
+     * Runs the filter on a downscaled proxy of the real source image.
+     */
+    public BufferedImage transformProxy(BufferedImage proxySrc, double scale) {
+        proxyScale = scale;
+        try {
+            return transformImage(proxySrc);
+        } finally {
+            proxyScale = 1.0;
+        }
+    }
+
+    /**
+     * Whether the filter can be previewed on a downscaled proxy.
+     * Proxies are used only by the async previews, therefore
+     * only filters that also support async previews should return true.
+     * If some params are measured in pixels (blur radii, cell sizes, etc.),
+     * then the filter must pass them through {@link #scaledForProxy(float)},
+     * otherwise the result on a proxy looks different.
+     */
+    public boolean supportsProxyPreview() {
+        return false;
+    }
+
+    /**
+     * Whether the dialog previews of this filter can be calculated outside
+     * the EDT, while the params are adjusted on the EDT. This is safe only
+     * if the filter reads nothing else than the values of its own params
+     * (a render that sees a param changing is stale, and its result is
+     * thrown away), and it doesn't touch Swing components or global state.
+     * The filters opt in only after they were checked.
+     */
+    public boolean supportsAsyncPreview() {
+        return false;
+    }
+
+    /**
+     * Converts a distance measured in real image pixels
+     * into the pixels of the currently filtered image.
+     */
+    protected float scaledForProxy(float pixels) {
+        return (float) (pixels * proxyScale);
+    }
+
     private void setParamSet(ParamSet paramSet) {
         this.paramSet = paramSet;
         // switch the affected area functionality here on-off
@@ -17,9 +17,13 @@
 package pixelitor.filters.animation;
 
 import pd.AnimatedGifEncoder;
+import pixelitor.ThreadPool;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+
+import static pixelitor.utils.Threads.calledOutsideEDT;
 
 /**
  * An {@link AnimationWriter} implementation
@@ -33,20 +37,33 @@ public class AnimGIFWriter implements AnimationWriter {
         encoder.start(file);
         encoder.setDelay(delayMillis);
         encoder.setRepeat(0);
+
+        // the palettes of the next frames are calculated
+        // while the previous frames are written
+        encoder.setParallel(ThreadPool.getExecutor(),
+            Runtime.getRuntime().availableProcessors());
+
+        // tweening often changes only a part of the image
+        encoder.setFrameDifferencing(true);
     }
 
     @Override
-    public void addFrame(BufferedImage image) {
-        encoder.addFrame(image);
+    public void addFrame(BufferedImage image) throws IOException {
+        if (!encoder.addFrame(image)) {
+            throw new IOException("could not write a frame");
+        }
     }
 
     @Override
     public void finish() {
+        // waits for the frames that are still encoded
+        assert calledOutsideEDT() : "on EDT";
         encoder.finish();
     }
 
     @Override
     public void cancel() {
+        assert calledOutsideEDT() : "on EDT";
         encoder.cancel();
     }
 }
@@ -20,7 +20,9 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 
 /**
- * Writes out the frames of a rendered tweening animation
+ * Writes out the frames of a rendered tweening animation.
+ * All the methods are called outside the EDT, because
+ * finishing and canceling can wait for the pending writes.
  */
 public interface AnimationWriter {
     void addFrame(BufferedImage image) throws IOException;
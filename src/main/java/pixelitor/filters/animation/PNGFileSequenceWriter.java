@@ -1,5 +1,5 @@
 /*
- * Copyright 2018 Laszlo Balazs-Csiki and Contributors
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
  *
  * This file is part of Pixelitor. Pixelitor is free software: you
  * can redistribute it and/or modify it under the terms of the GNU
@@ -17,45 +17,135 @@
 
 package pixelitor.filters.animation;
 
+import pixelitor.ThreadPool;
 import pixelitor.io.TrackedIO;
 import pixelitor.utils.Messages;
 
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
 
 /**
  * An {@link AnimationWriter} implementation
- * that writes a sequence of PNG files
+ * that writes a sequence of PNG files.
+ *
+ * The frames are encoded and written asynchronously, several of them
+ * in parallel. If too many frames are waiting, then addFrame blocks
+ * until one of them is written.
  */
 public class PNGFileSequenceWriter implements AnimationWriter {
+    // a fast deflate level: the files are bigger than with the
+    // default level (4), but the compression doesn't slow
+    // down the rendering of long sequences
+    public static final int DEFAULT_DEFLATE_LEVEL = 1;
+
     private final File outputDir;
+    private final int deflateLevel;
+    private final Executor executor;
+    private final int maxPendingFrames;
+    private final Semaphore pendingSlots;
+
     private int fileSequenceNumber;
-    private int numWrittenImages = 0;
+    private final AtomicInteger numWrittenImages = new AtomicInteger();
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
 
     public PNGFileSequenceWriter(File outputDir) {
+        this(outputDir, DEFAULT_DEFLATE_LEVEL, ThreadPool.getExecutor(),
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a writer that encodes at most maxPendingFrames frames
+     * at the same time on the given executor, with the given deflate level.
+     */
+    public PNGFileSequenceWriter(File outputDir, int deflateLevel,
+                                 Executor executor, int maxPendingFrames) {
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            throw new IllegalArgumentException("deflateLevel = " + deflateLevel);
+        }
         this.outputDir = outputDir;
+        this.deflateLevel = deflateLevel;
+        this.executor = executor;
+        this.maxPendingFrames = Math.max(1, maxPendingFrames);
+        pendingSlots = new Semaphore(this.maxPendingFrames);
     }
 
+    /**
+     * Schedules the writing of the given frame, which must
+     * not be modified after this call. Throws the exception of
+     * a previously failed write, if there was one.
+     */
     @Override
     public void addFrame(BufferedImage image) throws IOException {
+        checkFailure();
+
         String fileName = format("frame_%05d.png", fileSequenceNumber);
         fileSequenceNumber++;
         File outputFile = new File(outputDir, fileName);
 
-        TrackedIO.write(image, "PNG", outputFile);
-        numWrittenImages++;
+        try {
+            pendingSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        executor.execute(() -> writeFrame(image, outputFile));
+    }
+
+    private void writeFrame(BufferedImage image, File outputFile) {
+        try {
+            if (!cancelled && failure == null) {
+                TrackedIO.writePNG(image, outputFile, deflateLevel);
+                numWrittenImages.incrementAndGet();
+            }
+        } catch (Throwable e) { // not only IOExceptions, because nobody else sees them
+            failure = e;
+        } finally {
+            pendingSlots.release();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    /**
+     * Waits until all the scheduled frames are written
+     */
+    private void waitForPendingFrames() {
+        pendingSlots.acquireUninterruptibly(maxPendingFrames);
+        pendingSlots.release(maxPendingFrames);
     }
 
     @Override
     public void finish() {
-        Messages.showFilesSavedMessage(numWrittenImages, outputDir);
+        waitForPendingFrames();
+        if (failure != null) {
+            Messages.showExceptionOnEDT(failure);
+        } else {
+            int numWritten = numWrittenImages.get();
+            EventQueue.invokeLater(() ->
+                Messages.showFilesSavedMessage(numWritten, outputDir));
+        }
     }
 
     @Override
     public void cancel() {
-
+        // the frames that were not started yet are skipped,
+        // the already written files are kept
+        cancelled = true;
+        waitForPendingFrames();
     }
 }
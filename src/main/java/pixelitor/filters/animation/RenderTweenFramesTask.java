@@ -17,30 +17,54 @@
 
 package pixelitor.filters.animation;
 
-import pixelitor.filters.Filter;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.FilterState;
-import pixelitor.gui.PixelitorWindow;
 import pixelitor.gui.utils.GUIUtils;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
 import static pixelitor.ChangeReason.TWEEN_PREVIEW;
+import static pixelitor.Composition.ImageChangeActions.REPAINT;
 import static pixelitor.utils.Threads.calledOutsideEDT;
 
 /**
- * A SwingWorker for rendering the frames of a tween animation
+ * A SwingWorker for rendering the frames of a tween animation.
+ *
+ * If the filter can run outside the EDT, then it runs for several frames
+ * in parallel, each on its own filter instance, otherwise the frames
+ * are rendered one by one on the EDT. The finished frames are composited
+ * in order on the EDT, and they are written by the {@link AnimationWriter}
+ * on a separate thread, while the next frames are rendered.
  */
 class RenderTweenFramesTask extends SwingWorker<Void, Void> {
+    // the number of frames waiting to be written
+    private static final int MAX_QUEUED_WRITES = 2;
+
     private final TweenAnimation animation;
     private final Drawable dr;
     private final ProgressMonitor progressMonitor;
 
+    private BufferedImage filterSource;
+    private BlockingQueue<ParametrizedFilter> filterInstances;
+    private ExecutorService renderPool; // null if the rendering is on the EDT
+
+    // the reorder buffer: the frames that are submitted
+    // for rendering, but not yet composited
+    private final Map<Integer, Future<BufferedImage>> renderedFrames = new HashMap<>();
+
     public RenderTweenFramesTask(TweenAnimation animation, Drawable dr) {
         this.animation = animation;
         this.dr = dr;
@@ -81,91 +105,254 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
         assert calledOutsideEDT() : "on EDT";
 
         int numFrames = animation.getNumFrames();
-        ParametrizedFilter filter = animation.getFilter();
 
         AnimationWriter animationWriter = animation.createAnimationWriter();
+        var frameWriter = new FrameWriter(animationWriter);
         boolean canceled = false;
 
         dr.tweenCalculatingStarted();
+        int[] initResult = new int[1];
+        GUIUtils.invokeAndWait(() -> initResult[0] = initRendering(numFrames));
+        int parallelism = initResult[0];
+        if (parallelism == 0) {
+            throw new IllegalStateException("initializing the rendering failed");
+        }
+
+        // the reorder buffer size: rendering can get
+        // ahead of the compositing with this many frames
+        int maxFramesAhead = 2 * parallelism;
 
         int numTotalFrames = numFrames;
         boolean pingPong = animation.isPingPong() && numFrames > 2;
         if (pingPong) {
             numTotalFrames = 2 * numFrames - 2;
         }
+        // The composited forward frames are reused when animating backwards.
+        // Soft references, because if the memory is low, then it's
+        // better to calculate some of them again.
+        List<SoftReference<BufferedImage>> pongFrames = pingPong
+            ? new ArrayList<>(numFrames) : null;
+
+        try {
+            int nextFrameToRender = 0;
+            for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
+                if (isCancelled() || frameWriter.hasFailed()) {
+                    canceled = true;
+                    break;
+                }
+                int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
+                setProgress(percentProgress);
 
-        for (int frameNr = 0; frameNr < numTotalFrames; frameNr++) {
-            if (isCancelled()) {
-                canceled = true;
-                break;
+                while (nextFrameToRender < numFrames
+                    && nextFrameToRender < frameNr + maxFramesAhead) {
+                    submitRendering(nextFrameToRender);
+                    nextFrameToRender++;
+                }
+
+                BufferedImage frame;
+                if (frameNr < numFrames) { // ping: normal animation forwards
+                    frame = composite(waitForRendering(frameNr));
+                    if (pingPong) {
+                        pongFrames.add(new SoftReference<>(frame));
+                    }
+                } else { // pong: animating backwards
+                    int effectiveFrame = 2 * (numFrames - 1) - frameNr;
+                    frame = pongFrames.get(effectiveFrame).get();
+                    if (frame == null) { // it was garbage collected
+                        submitRendering(effectiveFrame);
+                        frame = composite(waitForRendering(effectiveFrame));
+                    }
+                }
+
+                frameWriter.write(frame);
             }
-            int percentProgress = (int) ((100.0 * frameNr) / numTotalFrames);
-            setProgress(percentProgress);
-
-            double time;
-            if (frameNr < numFrames) { // ping: normal animation forwards
-                time = ((double) frameNr) / numFrames;
-            } else { // pong: animating backwards
-                // Here the same frames are calculated again.
-                // They could be cached in an array of soft references
-                // or in the case of the file sequence output,
-                // the output files could be copied.
-                // However, "ping-pong" animations are probably uncommon.
-                int effectiveFrame = 2 * (numFrames - 1) - frameNr;
-                time = ((double) effectiveFrame) / numFrames;
+        } catch (Exception e) {
+            canceled = true;
+            Messages.showExceptionOnEDT(e);
+        } finally {
+            if (renderPool != null) {
+                renderPool.shutdownNow();
             }
+            renderedFrames.clear();
+        }
 
-            try {
-                // first render the frame...
-                BufferedImage image = renderFrame(filter, time);
-
-                // ...then write the file
-                // TODO ideally while writing out the frame,
-                // the rendering of the next frame should be
-                // started on another thread
-                animationWriter.addFrame(image);
-            } catch (Exception e) {
-                canceled = true;
-                Messages.showException(e);
-                break;
+        if (!frameWriter.finish()) {
+            canceled = true;
+        }
+
+        try {
+            // finished here, because it waits for the pending writes
+            if (canceled) {
+                animationWriter.cancel();
+            } else {
+                animationWriter.finish();
             }
+        } finally {
+            setProgress(100);
+            SwingUtilities.invokeLater(dr::tweenCalculatingEnded);
         }
+    }
 
-        setProgress(100);
+    /**
+     * Creates the filter instances and the render threads,
+     * and returns the number of frames rendered in parallel.
+     * Runs on the EDT, because the source image and
+     * the param settings are read from here.
+     */
+    private int initRendering(int numFrames) {
+        filterSource = dr.getFilterSourceImage();
 
-        boolean finalCanceled = canceled;
-        SwingUtilities.invokeLater(() -> finishOnEDT(animationWriter, finalCanceled));
-    }
+        ParametrizedFilter filter = animation.getFilter();
+        if (!filter.supportsAsyncPreview()) {
+            return 1;
+        }
+        FilterState settings = filter.getParamSet().copyState(false);
 
-    private BufferedImage renderFrame(ParametrizedFilter filter,
-                                      double time) {
+        int parallelism = Math.max(1, Math.min(numFrames,
+            Runtime.getRuntime().availableProcessors() / 2));
+        // only copies run on the render threads, because the
+        // params of the original filter might be shown in the GUI
+        filterInstances = new ArrayBlockingQueue<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            var copy = (ParametrizedFilter) filter.createNewInstance();
+            if (copy == null) {
+                break; // this filter can't be copied, use fewer threads
+            }
+            copy.getParamSet().setState(settings, false);
+            filterInstances.add(copy);
+        }
+        parallelism = filterInstances.size();
+        if (parallelism == 0) {
+            return 1; // render on the EDT
+        }
 
-        long runCountBefore = Filter.runCount;
+        var threadCounter = new AtomicInteger();
+        renderPool = Executors.newFixedThreadPool(parallelism, r -> {
+            var thread = new Thread(r, "Tween-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return parallelism;
+    }
 
+    private void submitRendering(int frameNr) {
+        double time = ((double) frameNr) / animation.getNumFrames();
         FilterState intermediateState = animation.tween(time);
+
+        if (renderPool == null) {
+            // all sorts of problems can happen
+            // if filters run outside of EDT
+            BufferedImage[] frame = new BufferedImage[1];
+            GUIUtils.invokeAndWait(() ->
+                frame[0] = renderFrame(animation.getFilter(), intermediateState));
+            if (frame[0] == null) {
+                throw new IllegalStateException("rendering failed");
+            }
+            renderedFrames.put(frameNr, CompletableFuture.completedFuture(frame[0]));
+            return;
+        }
+
+        renderedFrames.put(frameNr, renderPool.submit(() -> {
+            ParametrizedFilter filter = filterInstances.take();
+            try {
+                return renderFrame(filter, intermediateState);
+            } finally {
+                filterInstances.add(filter);
+            }
+        }));
+    }
+
+    private BufferedImage renderFrame(ParametrizedFilter filter, FilterState intermediateState) {
         filter.getParamSet().setState(intermediateState, true);
+        return filter.transformImage(filterSource);
+    }
 
-        // all sorts of problems can happen
-        // if filters run outside of EDT
-        var busyCursorParent = PixelitorWindow.get();
-        Runnable filterRunTask = () -> filter.run(dr, TWEEN_PREVIEW, busyCursorParent);
-        GUIUtils.invokeAndWait(filterRunTask);
+    private BufferedImage waitForRendering(int frameNr)
+        throws InterruptedException, ExecutionException {
+        return renderedFrames.remove(frameNr).get();
+    }
 
-        long runCountAfter = Filter.runCount;
-        assert runCountAfter == runCountBefore + 1;
+    /**
+     * Shows the rendered layer image and returns
+     * a copy of the resulting composite image
+     */
+    private BufferedImage composite(BufferedImage layerImage) {
+        BufferedImage[] frame = new BufferedImage[1];
+        GUIUtils.invokeAndWait(() -> {
+            dr.changePreviewImage(layerImage, animation.getFilter().getName(), TWEEN_PREVIEW);
 
-        var comp = dr.getComp();
-        comp.repaint();
+            var comp = dr.getComp();
+            comp.imageChanged(REPAINT);
 
-        return comp.getCompositeImage();
+            // the writing happens later, on another thread, therefore
+            // a copy is needed, which is not affected by the next frames
+            frame[0] = ImageUtils.copyImage(comp.getCompositeImage());
+        });
+        if (frame[0] == null) {
+            throw new IllegalStateException("compositing failed");
+        }
+        return frame[0];
     }
 
-    private void finishOnEDT(AnimationWriter animationWriter, boolean canceled) {
-        dr.tweenCalculatingEnded();
-        if (canceled) {
-            animationWriter.cancel();
-        } else {
-            animationWriter.finish();
+    /**
+     * Writes the frames in order on its own thread
+     */
+    private static class FrameWriter {
+        private final AnimationWriter animationWriter;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            var thread = new Thread(r, "Tween Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Semaphore queueSlots = new Semaphore(MAX_QUEUED_WRITES);
+        private volatile Throwable failure;
+
+        FrameWriter(AnimationWriter animationWriter) {
+            this.animationWriter = animationWriter;
+        }
+
+        /**
+         * Schedules the writing of the given frame, waiting if
+         * the writer thread is behind with too many frames
+         */
+        void write(BufferedImage frame) throws InterruptedException {
+            queueSlots.acquire();
+            executor.execute(() -> {
+                try {
+                    if (failure == null) {
+                        animationWriter.addFrame(frame);
+                    }
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    queueSlots.release();
+                }
+            });
+        }
+
+        boolean hasFailed() {
+            return failure != null;
+        }
+
+        /**
+         * Waits until the scheduled frames are written,
+         * and returns true if there were no errors
+         */
+        boolean finish() {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting, a frame is being written
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (failure != null) {
+                Messages.showExceptionOnEDT(failure);
+                return false;
+            }
+            return true;
         }
     }
 }
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.gui;
+
+import pixelitor.ThreadPool;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.util.FilterUtils;
+import pixelitor.gui.View;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.awt.RenderingHints.KEY_INTERPOLATION;
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static pixelitor.ChangeReason.PREVIEWING;
+import static pixelitor.utils.Threads.calledOnEDT;
+import static pixelitor.utils.Threads.threadInfo;
+
+/**
+ * Runs the filter previews of a {@link FilterGUI} outside the EDT.
+ *
+ * Bursts of parameter adjustments are coalesced: only the latest request
+ * is rendered, and a render that became stale because of a newer request
+ * is cooperatively cancelled through {@link ThreadPool#callCancellable}.
+ * Only finished, up-to-date results are published to the {@link Drawable}.
+ *
+ * For large images and filters that support it, the preview is progressive:
+ * first the filter runs on a downscaled proxy matching the zoom of the view,
+ * and the full-resolution result is calculated only after the user
+ * stopped adjusting the settings for a while.
+ */
+class AsyncPreviewer {
+    // a single thread, so that a filter instance is never used by two renders at the same time
+    private static final ExecutorService renderThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Filter Preview");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // smaller images are always previewed at full resolution
+    private static final int MIN_PIXELS_FOR_PROXY = 4_000_000;
+
+    // the proxy is limited to this size even if the zoom would allow more
+    private static final int MAX_PROXY_PIXELS = 2_000_000;
+
+    // proxies that would be almost as big as the image are not worth it
+    private static final double MAX_PROXY_SCALE = 0.7;
+
+    // how long the settings must stay unchanged before the full-resolution render
+    private static final long REFINE_DELAY_MILLIS = 300;
+    private static final long IDLE_CHECK_MILLIS = 20;
+
+    private final Filter filter;
+    private final Drawable dr;
+
+    // only used on the render thread
+    private BufferedImage proxySourceFor;
+    private double proxySourceScale;
+    private BufferedImage proxySource;
+
+    // set when the dialog is accepted, no more waiting for idleness
+    private volatile boolean finishing = false;
+
+    // the generation of the latest requested preview, only changed on the EDT
+    private volatile long latestRequest = 0;
+
+    // the latest finished render, waiting to be published
+    private volatile long finishedRequest = 0;
+    private volatile BufferedImage finishedImage;
+    private volatile long finishedMillis;
+
+    // the latest failed render, reported on the EDT
+    private volatile long failedRequest = 0;
+    private volatile Throwable failure;
+
+    // only changed on the EDT
+    private long publishedRequest = 0;
+    private long reportedRequest = 0;
+    private volatile boolean closed = false;
+
+    AsyncPreviewer(Filter filter, Drawable dr) {
+        this.filter = filter;
+        this.dr = dr;
+    }
+
+    /**
+     * Requests a new preview with the current filter settings.
+     * Any previous, unfinished preview becomes stale.
+     */
+    void requestPreview() {
+        assert calledOnEDT() : threadInfo();
+        if (closed || finishing) {
+            return;
+        }
+
+        long request = ++latestRequest;
+        // the source image is obtained here, because the drawable is not thread-safe
+        BufferedImage src = dr.getFilterSourceImage();
+        double proxyScale = calcProxyScale(src);
+        renderThread.execute(() -> render(request, src, proxyScale));
+    }
+
+    /**
+     * Returns the scale of the proxy image, or 1.0 if no proxy should be used.
+     */
+    private double calcProxyScale(BufferedImage src) {
+        if (!(filter instanceof ParametrizedFilter)
+            || !((ParametrizedFilter) filter).supportsProxyPreview()) {
+            return 1.0;
+        }
+        long numPixels = (long) src.getWidth() * src.getHeight();
+        if (numPixels < MIN_PIXELS_FOR_PROXY) {
+            return 1.0;
+        }
+
+        double scale = Math.sqrt(MAX_PROXY_PIXELS / (double) numPixels);
+        View view = dr.getComp().getView();
+        if (view != null) {
+            // no need for more details than what the zoomed view can show
+            scale = Math.min(scale, view.getScaling());
+        }
+        if (scale > MAX_PROXY_SCALE) {
+            return 1.0;
+        }
+        return scale;
+    }
+
+    private void render(long request, BufferedImage src, double proxyScale) {
+        if (isStale(request)) {
+            // a newer request is already queued
+            return;
+        }
+
+        if (proxyScale < 1.0) {
+            renderProxy(request, src, proxyScale);
+            if (!waitUntilIdle(request)) {
+                return;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        BufferedImage dest;
+        try {
+            dest = ThreadPool.callCancellable(
+                () -> filter.transformImage(src),
+                () -> isStale(request));
+        } catch (Throwable e) {
+            if (!isStale(request)) {
+                // errors of stale renders can be caused by settings
+                // that changed during the render, so they are ignored
+                failure = e;
+                failedRequest = request;
+                EventQueue.invokeLater(() -> reportFailure(request));
+            }
+            return;
+        }
+
+        if (isStale(request)) {
+            return;
+        }
+        finishedImage = dest;
+        finishedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        finishedRequest = request;
+
+        EventQueue.invokeLater(() -> publish(request));
+    }
+
+    private void renderProxy(long request, BufferedImage src, double scale) {
+        BufferedImage proxySrc = getProxySource(src, scale);
+        BufferedImage preview;
+        try {
+            BufferedImage proxyDest = ThreadPool.callCancellable(
+                () -> ((ParametrizedFilter) filter).transformProxy(proxySrc, scale),
+                () -> isStale(request));
+            if (isStale(request)) {
+                return;
+            }
+            if (proxyDest == proxySrc) {
+                // the filter decided that nothing has to be changed
+                preview = src;
+            } else {
+                preview = enlarge(proxyDest, src);
+            }
+        } catch (Throwable e) {
+            // the full-resolution render will report the problem
+            return;
+        }
+
+        EventQueue.invokeLater(() -> publishProxy(request, preview));
+    }
+
+    private BufferedImage getProxySource(BufferedImage src, double scale) {
+        if (proxySource == null || proxySourceFor != src || proxySourceScale != scale) {
+            int proxyWidth = Math.max(1, (int) (src.getWidth() * scale));
+            int proxyHeight = Math.max(1, (int) (src.getHeight() * scale));
+            proxySource = ImageUtils.getFasterScaledInstance(src,
+                proxyWidth, proxyHeight, VALUE_INTERPOLATION_BILINEAR, true);
+            proxySourceFor = src;
+            proxySourceScale = scale;
+        }
+        return proxySource;
+    }
+
+    // scales the filtered proxy back to the size of the source image
+    private static BufferedImage enlarge(BufferedImage proxy, BufferedImage src) {
+        BufferedImage enlarged = ImageUtils.createImageWithSameCM(src);
+        Graphics2D g = enlarged.createGraphics();
+        g.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(proxy, 0, 0, src.getWidth(), src.getHeight(), null);
+        g.dispose();
+        return enlarged;
+    }
+
+    /**
+     * Waits until no new request arrives for some time. Returns
+     * false if the request became stale in the meantime.
+     */
+    private boolean waitUntilIdle(long request) {
+        long deadline = System.nanoTime() + REFINE_DELAY_MILLIS * 1_000_000;
+        while (!finishing && System.nanoTime() < deadline) {
+            if (isStale(request)) {
+                return false;
+            }
+            try {
+                Thread.sleep(IDLE_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !isStale(request);
+    }
+
+    private boolean isStale(long request) {
+        return closed || request != latestRequest;
+    }
+
+    private void publish(long request) {
+        assert calledOnEDT() : threadInfo();
+
+        if (closed || request != latestRequest
+            || request != finishedRequest || request == publishedRequest) {
+            return;
+        }
+        publishedRequest = request;
+
+        BufferedImage dest = finishedImage;
+        finishedImage = null;
+        dr.changePreviewImage(dest, filter.getName(), PREVIEWING);
+
+        Messages.showPerformanceMessage(filter.getName(), finishedMillis);
+        FilterUtils.setLastFilter(filter);
+    }
+
+    private void publishProxy(long request, BufferedImage preview) {
+        assert calledOnEDT() : threadInfo();
+
+        if (closed || request != latestRequest || request == publishedRequest) {
+            return;
+        }
+        dr.changePreviewImage(preview, filter.getName(), PREVIEWING);
+    }
+
+    private void reportFailure(long request) {
+        assert calledOnEDT() : threadInfo();
+
+        if (closed || finishing || request != latestRequest
+            || request != failedRequest || request == reportedRequest) {
+            // finish() reports it if it's still relevant
+            return;
+        }
+        reportedRequest = request;
+        filter.handleException(failure, dr);
+    }
+
+    /**
+     * Waits until the latest requested preview is finished, publishes it
+     * and stops accepting new requests. Called before the filter dialog
+     * is accepted, so that the accepted image reflects the latest settings.
+     *
+     * Returns false if the preview with the latest settings failed (then
+     * new requests are accepted again, and the dialog should stay open),
+     * or if the previews were canceled while waiting.
+     */
+    boolean finish() {
+        assert calledOnEDT() : threadInfo();
+
+        finishing = true;
+        waitForRenders();
+        if (closed) {
+            // canceled while waiting
+            return false;
+        }
+
+        long request = latestRequest;
+        if (failedRequest == request) {
+            // reported even if it was already reported while adjusting
+            reportedRequest = request;
+            filter.handleException(failure, dr);
+            finishing = false;
+            return false;
+        }
+        publish(request);
+        if (publishedRequest != request) {
+            // there is no finished render with the latest settings
+            // (it was interrupted), so it's calculated here, the same
+            // way as the synchronous previews
+            try {
+                BufferedImage dest = filter.transformImage(dr.getFilterSourceImage());
+                dr.changePreviewImage(dest, filter.getName(), PREVIEWING);
+            } catch (Throwable e) {
+                filter.handleException(e, dr);
+                finishing = false;
+                return false;
+            }
+        }
+        closed = true;
+        return true;
+    }
+
+    /**
+     * Discards the pending previews and stops accepting new requests.
+     * A running render is cancelled cooperatively, and this method
+     * returns only after it stopped using the filter.
+     */
+    void cancel() {
+        assert calledOnEDT() : threadInfo();
+
+        closed = true;
+        waitForRenders();
+        finishedImage = null;
+    }
+
+    /**
+     * Waits for the renders without blocking the EDT: the events
+     * are dispatched in a secondary loop, so that the published
+     * previews and the progress bar are painted in the meantime.
+     */
+    private static void waitForRenders() {
+        SecondaryLoop loop = Toolkit.getDefaultToolkit()
+            .getSystemEventQueue().createSecondaryLoop();
+
+        // The render thread processes the tasks in order, so when this
+        // barrier task runs, all the previously submitted renders are finished.
+        // The exit is posted as an event, because then it can't run before
+        // the loop is entered.
+        renderThread.execute(() -> EventQueue.invokeLater(loop::exit));
+        loop.enter();
+    }
+}
@@ -19,8 +19,10 @@ package pixelitor.filters.gui;
 
 import pixelitor.filters.Filter;
 import pixelitor.layers.Drawable;
+import pixelitor.utils.test.RandomGUITest;
 
 import javax.swing.*;
+import java.awt.Window;
 
 import static pixelitor.ChangeReason.PREVIEWING;
 
@@ -31,6 +33,9 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
     protected Filter filter;
     private final Drawable dr;
 
+    // null if the previews run synchronously on the EDT
+    private AsyncPreviewer asyncPreviewer;
+
     protected FilterGUI(Filter filter, Drawable dr) {
         this.filter = filter;
         this.dr = dr;
@@ -38,6 +43,71 @@ public abstract class FilterGUI extends JPanel implements PreviewExecutor {
 
     @Override
     public void runFilterPreview() {
-        filter.run(dr, PREVIEWING, this);
+        if (asyncPreviewer != null) {
+            asyncPreviewer.requestPreview();
+        } else {
+            filter.run(dr, PREVIEWING, this);
+        }
+    }
+
+    /**
+     * Whether the previews of this GUI can be calculated outside the EDT.
+     * This requires that the filter reads its settings only
+     * at the start of the calculation and doesn't touch Swing components.
+     */
+    protected boolean supportsAsyncPreviews() {
+        return false;
+    }
+
+    /**
+     * Called by the filter dialog when the GUI is shown. The
+     * following previews run outside the EDT if it's supported,
+     * which means that the dialog must call either
+     * {@link #finishPreviews()} or {@link #cancelPreviews()} when it closes.
+     * The filters opt in with {@link #supportsAsyncPreviews()}.
+     */
+    public void enableAsyncPreviews() {
+        if (supportsAsyncPreviews() && !RandomGUITest.isRunning()) {
+            asyncPreviewer = new AsyncPreviewer(filter, dr);
+        }
+    }
+
+    /**
+     * Makes sure that the preview reflects the latest settings. Returns
+     * false if this wasn't possible, and then the dialog should stay open.
+     */
+    public boolean finishPreviews() {
+        if (asyncPreviewer == null) {
+            return true;
+        }
+
+        // the dialog doesn't accept input while
+        // the last preview is finished in the background
+        Window dialog = SwingUtilities.getWindowAncestor(this);
+        if (dialog != null) {
+            dialog.setEnabled(false);
+        }
+        boolean finished;
+        try {
+            finished = asyncPreviewer.finish();
+        } finally {
+            if (dialog != null) {
+                dialog.setEnabled(true);
+            }
+        }
+        if (finished) {
+            asyncPreviewer = null;
+        }
+        return finished;
+    }
+
+    /**
+     * Discards the unfinished previews.
+     */
+    public void cancelPreviews() {
+        if (asyncPreviewer != null) {
+            asyncPreviewer.cancel();
+            asyncPreviewer = null;
+        }
     }
 }
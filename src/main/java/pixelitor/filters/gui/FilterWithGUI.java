@@ -83,6 +83,7 @@ public abstract class FilterWithGUI extends Filter {
         dr.startPreviewing();
 
         FilterGUI gui = createGUI(dr);
+        gui.enableAsyncPreviews();
         new DialogBuilder()
             .title(getName())
             .menuBar(getMenuBar())
@@ -90,8 +91,13 @@ public abstract class FilterWithGUI extends Filter {
             .content(gui)
             .align(FRAME_RIGHT)
             .withScrollbars()
+            // the dialog stays open if the last preview failed
+            .validator(d -> gui.finishPreviews())
             .okAction(() -> dr.onFilterDialogAccepted(getName()))
-            .cancelAction(dr::onFilterDialogCanceled)
+            .cancelAction(() -> {
+                gui.cancelPreviews();
+                dr.onFilterDialogCanceled();
+            })
             .show();
     }
 }
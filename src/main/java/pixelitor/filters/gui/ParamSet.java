@@ -160,12 +160,12 @@ public class ParamSet {
     }
 
     public void randomize() {
-        long before = Filter.runCount;
+        long before = Filter.getRunCount();
 
         paramList.forEach(FilterParam::randomize);
 
         // the filter is not supposed to be triggered
-        long after = Filter.runCount;
+        long after = Filter.getRunCount();
         assert before == after : "before = " + before + ", after = " + after;
     }
 
@@ -222,18 +222,25 @@ public class ParamSet {
     }
 
     public void loadPreset(UserPreset preset) {
-        long runCountBefore = Filter.runCount;
+        long runCountBefore = Filter.getRunCount();
         System.out.println("ParamSet::loadPreset: loading from preset " + preset.toString());
-        for (FilterParam param : paramList) {
-            param.loadStateFrom(preset);
-        }
-        assert runCountBefore == Filter.runCount :
-            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.runCount;
+        setStateFrom(preset);
+        assert runCountBefore == Filter.getRunCount() :
+            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.getRunCount();
 
         runFilter();
 
-        assert runCountBefore + 1 == Filter.runCount :
-            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.runCount;
+        assert runCountBefore + 1 == Filter.getRunCount() :
+            "runCountBefore = " + runCountBefore + ", runCount = " + Filter.getRunCount();
+    }
+
+    /**
+     * Sets the state of the params from the given preset without running the filter
+     */
+    public void setStateFrom(UserPreset preset) {
+        for (FilterParam param : paramList) {
+            param.loadStateFrom(preset);
+        }
     }
 
     /**
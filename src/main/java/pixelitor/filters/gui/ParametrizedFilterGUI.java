@@ -126,6 +126,11 @@ public class ParametrizedFilterGUI extends FilterGUI implements ParamAdjustmentL
         runFilterPreview();
     }
 
+    @Override
+    protected boolean supportsAsyncPreviews() {
+        return ((ParametrizedFilter) filter).supportsAsyncPreview();
+    }
+
     private boolean hasShowOriginal() {
         return showOriginalCB != null;
     }
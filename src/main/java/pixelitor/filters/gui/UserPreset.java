@@ -114,6 +114,16 @@ public class UserPreset {
         loaded = true;
     }
 
+    public void loadIfNeeded() {
+        if (!loaded) {
+            try {
+                load();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     public void save() {
         assert inFile == null;
         assert loaded;
@@ -139,13 +149,7 @@ public class UserPreset {
         return new AbstractAction(name) {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (!loaded) {
-                    try {
-                        load();
-                    } catch (IOException ex) {
-                        throw new UncheckedIOException(ex);
-                    }
-                }
+                loadIfNeeded();
                 paramSet.loadPreset(UserPreset.this);
             }
         };
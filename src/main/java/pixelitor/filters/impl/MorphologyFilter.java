@@ -18,24 +18,62 @@
 package pixelitor.filters.impl;
 
 import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
 import pixelitor.filters.Morphology;
 
 import java.awt.Rectangle;
+import java.util.Arrays;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
 
 /**
  * The implementation of the {@link Morphology} filter.
+ *
+ * The structuring elements are decomposed into horizontal, vertical
+ * and diagonal line segments, and the minimum/maximum along each line
+ * is calculated with the van Herk/Gil-Werman algorithm, which needs
+ * about three comparisons per pixel, independently of the radius.
+ * The image is padded with neutral values, so that pixels outside
+ * the image are ignored, and the decomposition is exact at the edges.
+ *
+ * The square kernel is not delegated to the {@link RankFilter}: it's
+ * also independent of the radius, but it updates histograms for every
+ * pixel, and for the minimum/maximum the two line passes are several
+ * times faster. The alpha channel is eroded and dilated like
+ * the color channels, for all kernels.
  */
 public class MorphologyFilter extends WholeImageFilter {
-    private int iterations = 1;
-
     public static final int OP_ERODE = 1;
     public static final int OP_DILATE = 2;
+    public static final int OP_OPEN = 10;
+    public static final int OP_CLOSE = 11;
+    public static final int OP_TOP_HAT = 12;
+    public static final int OP_GRADIENT = 13;
     private int op;
 
     public static final int KERNEL_DIAMOND = 3;
     public static final int KERNEL_SQUARE = 4;
+    public static final int KERNEL_DISK = 5;
+    public static final int KERNEL_HOR_LINE = 6;
+    public static final int KERNEL_VER_LINE = 7;
     private int kernel;
 
+    private int radius = 1;
+
+    // the directions of the line segments
+    private static final int HORIZONTAL = 0;
+    private static final int VERTICAL = 1;
+    private static final int DIAGONAL = 2; // down and right
+    private static final int ANTI_DIAGONAL = 3; // down and left
+
+    // the neutral values of the min/max operations
+    private static final int MIN_NEUTRAL = 0xFF_FF_FF_FF;
+    private static final int MAX_NEUTRAL = 0;
+
+    // the size of the padded image
+    private int paddedWidth;
+    private int paddedHeight;
+
     public MorphologyFilter(String filterName) {
         super(filterName);
     }
@@ -48,94 +86,295 @@ public class MorphologyFilter extends WholeImageFilter {
         this.op = op;
     }
 
-    public void setIterations(int iterations) {
-        this.iterations = iterations;
+    public void setRadius(int radius) {
+        this.radius = radius;
     }
 
     @Override
     protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
-        int[] outPixels = new int[width * height];
-        int numPixels = inPixels.length;
-        short[] inA = new short[numPixels];
-        short[] inR = new short[numPixels];
-        short[] inG = new short[numPixels];
-        short[] inB = new short[numPixels];
-
-        pt = createProgressTracker(iterations);
-        for (int it = 0; it < iterations; it++) {
-            if (it > 0) {
-                System.arraycopy(outPixels, 0, inPixels, 0, numPixels);
+        if (radius <= 0) {
+            return inPixels;
+        }
+
+        paddedWidth = width + 2 * radius;
+        paddedHeight = height + 2 * radius;
+
+        boolean twoSteps = op != OP_ERODE && op != OP_DILATE;
+        pt = createProgressTracker((twoSteps ? 2 : 1) * countPasses());
+
+        int[] outPixels = switch (op) {
+            case OP_ERODE -> erode(inPixels, width, height);
+            case OP_DILATE -> dilate(inPixels, width, height);
+            case OP_OPEN -> dilate(erode(inPixels, width, height), width, height);
+            case OP_CLOSE -> erode(dilate(inPixels, width, height), width, height);
+            case OP_TOP_HAT -> subtract(inPixels,
+                dilate(erode(inPixels, width, height), width, height), inPixels);
+            case OP_GRADIENT -> subtract(dilate(inPixels, width, height),
+                erode(inPixels, width, height), inPixels);
+            default -> throw new IllegalStateException("op = " + op);
+        };
+
+        finishProgressTracker();
+        return outPixels;
+    }
+
+    private int[] erode(int[] pixels, int width, int height) {
+        return minOrMax(pixels, width, height, true);
+    }
+
+    private int[] dilate(int[] pixels, int width, int height) {
+        return minOrMax(pixels, width, height, false);
+    }
+
+    private int[] minOrMax(int[] pixels, int width, int height, boolean min) {
+        int[] padded = pad(pixels, width, height, min ? MIN_NEUTRAL : MAX_NEUTRAL);
+
+        switch (kernel) {
+            case KERNEL_SQUARE -> {
+                linePass(padded, HORIZONTAL, radius, min);
+                linePass(padded, VERTICAL, radius, min);
             }
-            for (int i = 0; i < numPixels; i++) {
-                int rgb = inPixels[i];
-                inA[i] = (short) ((rgb >> 24) & 0xff);
-                inR[i] = (short) ((rgb >> 16) & 0xff);
-                inG[i] = (short) ((rgb >> 8) & 0xff);
-                inB[i] = (short) (rgb & 0xff);
+            case KERNEL_HOR_LINE -> linePass(padded, HORIZONTAL, radius, min);
+            case KERNEL_VER_LINE -> linePass(padded, VERTICAL, radius, min);
+            case KERNEL_DIAMOND -> {
+                // the diagonal segments give a diamond with holes
+                // in a checkerboard pattern, which are filled
+                // by the plus-shaped 3x3 diamonds
+                int diagonalRadius = (radius - 1) / 2;
+                linePass(padded, DIAGONAL, diagonalRadius, min);
+                linePass(padded, ANTI_DIAGONAL, diagonalRadius, min);
+                plusPass(padded, min);
+                if (radius % 2 == 0) {
+                    plusPass(padded, min);
+                }
             }
+            case KERNEL_DISK -> {
+                // an octagon, which is a square with cut corners
+                int diagonalRadius = calcDiskDiagonalRadius(radius);
+                int squareRadius = radius - 2 * diagonalRadius;
+                linePass(padded, HORIZONTAL, squareRadius, min);
+                linePass(padded, VERTICAL, squareRadius, min);
+                linePass(padded, DIAGONAL, diagonalRadius, min);
+                linePass(padded, ANTI_DIAGONAL, diagonalRadius, min);
+            }
+            default -> throw new IllegalStateException("kernel = " + kernel);
+        }
+
+        return crop(padded, width, height);
+    }
 
-            int index = 0;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    short a = 0xff;
-                    short r = 0xff;
-                    short g = 0xff;
-                    short b = 0xff;
-
-                    if (op == OP_DILATE) {
-                        r = 0;
-                        g = 0;
-                        b = 0;
-                    }
-
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int iy = y + dy;
-                        if (0 <= iy && iy < height) {
-                            int xOffset = iy * width;
-                            for (int dx = -1; dx <= 1; dx++) {
-                                if (kernel == KERNEL_DIAMOND) {
-                                    if (dx == dy && dx != 0) {
-                                        continue;
-                                    }
-                                    if (dx == -dy && dx != 0) {
-                                        continue;
-                                    }
-                                }
-
-                                int ix = x + dx;
-                                if (0 <= ix && ix < width) {
-                                    int comparedIndex = xOffset + ix;
-
-                                    if (op == OP_ERODE) {
-                                        a = min(a, inA[comparedIndex]);
-                                        r = min(r, inR[comparedIndex]);
-                                        g = min(g, inG[comparedIndex]);
-                                        b = min(b, inB[comparedIndex]);
-                                    } else {
-                                        a = max(a, inA[comparedIndex]);
-                                        r = max(r, inR[comparedIndex]);
-                                        g = max(g, inG[comparedIndex]);
-                                        b = max(b, inB[comparedIndex]);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    outPixels[index++] = a << 24 | r << 16 | g << 8 | b;
+    /**
+     * Returns the radius of the diagonal segments of an octagon that
+     * approximates a disk: its sides along the axes and along the
+     * diagonals should be about equally long.
+     */
+    static int calcDiskDiagonalRadius(int radius) {
+        return (int) (radius * (1 - Math.sqrt(0.5)));
+    }
+
+    private int countPasses() {
+        return switch (kernel) {
+            case KERNEL_SQUARE -> 2;
+            case KERNEL_HOR_LINE, KERNEL_VER_LINE -> 1;
+            case KERNEL_DIAMOND -> radius % 2 == 0 ? 6 : 4; // a plus pass has two line passes
+            case KERNEL_DISK -> 4;
+            default -> throw new IllegalStateException("kernel = " + kernel);
+        };
+    }
+
+    private int[] pad(int[] pixels, int width, int height, int neutral) {
+        int[] padded = new int[paddedWidth * paddedHeight];
+        if (neutral != 0) {
+            Arrays.fill(padded, neutral);
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, y * width,
+                padded, (y + radius) * paddedWidth + radius, width);
+        }
+        return padded;
+    }
+
+    private int[] crop(int[] padded, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(padded, (y + radius) * paddedWidth + radius,
+                pixels, y * width, width);
+        }
+        return pixels;
+    }
+
+    /**
+     * Replaces each pixel with the minimum or maximum of the
+     * line segment with the given direction and radius centered on it.
+     * The lines in the given direction don't overlap, so they can
+     * be processed in place and in parallel.
+     */
+    private void linePass(int[] pixels, int direction, int lineRadius, boolean min) {
+        if (lineRadius > 0) {
+            int numLines = switch (direction) {
+                case HORIZONTAL -> paddedHeight;
+                case VERTICAL -> paddedWidth;
+                default -> paddedWidth + paddedHeight - 1;
+            };
+            int maxLength = Math.max(paddedWidth, paddedHeight);
+
+            ThreadPool.parallelForStrips(numLines, (startLine, endLine) -> {
+                var line = new LineMinMax(maxLength, lineRadius, min);
+                for (int i = startLine; i < endLine; i++) {
+                    processLine(pixels, direction, i, line);
                 }
+            }, NULL_TRACKER);
+        }
+        pt.unitDone();
+    }
+
+    private void processLine(int[] pixels, int direction, int lineIndex, LineMinMax line) {
+        int start;
+        int step;
+        int length;
+        switch (direction) {
+            case HORIZONTAL -> {
+                start = lineIndex * paddedWidth;
+                step = 1;
+                length = paddedWidth;
+            }
+            case VERTICAL -> {
+                start = lineIndex;
+                step = paddedWidth;
+                length = paddedHeight;
+            }
+            case DIAGONAL -> {
+                // starting from the top row, then from the left column
+                int x = Math.max(0, paddedWidth - 1 - lineIndex);
+                int y = Math.max(0, lineIndex - paddedWidth + 1);
+                start = y * paddedWidth + x;
+                step = paddedWidth + 1;
+                length = Math.min(paddedWidth - x, paddedHeight - y);
+            }
+            case ANTI_DIAGONAL -> {
+                // starting from the top row, then from the right column
+                int x = Math.min(lineIndex, paddedWidth - 1);
+                int y = Math.max(0, lineIndex - paddedWidth + 1);
+                start = y * paddedWidth + x;
+                step = paddedWidth - 1;
+                length = Math.min(x + 1, paddedHeight - y);
             }
-            pt.unitDone();
+            default -> throw new IllegalStateException("direction = " + direction);
         }
-        finishProgressTracker();
-        return outPixels;
+        line.process(pixels, start, step, length);
     }
 
-    private static short min(short a, short b) {
-        return (a <= b) ? a : b;
+    /**
+     * Applies the plus-shaped 3x3 structuring element as the
+     * combination of a horizontal and a vertical segment
+     */
+    private void plusPass(int[] pixels, boolean min) {
+        int[] copy = pixels.clone();
+        linePass(pixels, HORIZONTAL, 1, min);
+        linePass(copy, VERTICAL, 1, min);
+        ThreadPool.parallelForStrips(paddedHeight, (startY, endY) -> {
+            for (int i = startY * paddedWidth; i < endY * paddedWidth; i++) {
+                pixels[i] = min ? min(pixels[i], copy[i]) : max(pixels[i], copy[i]);
+            }
+        }, NULL_TRACKER);
     }
 
-    private static short max(short a, short b) {
-        return (a >= b) ? a : b;
+    /**
+     * Calculates the channel-wise difference of the two images
+     * (used for the top-hat and gradient operations),
+     * with the transparency taken from the given image
+     */
+    private static int[] subtract(int[] pixels, int[] subtracted, int[] alphaSource) {
+        int[] result = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            int s = subtracted[i];
+            int r = Math.abs(((p >>> 16) & 0xFF) - ((s >>> 16) & 0xFF));
+            int g = Math.abs(((p >>> 8) & 0xFF) - ((s >>> 8) & 0xFF));
+            int b = Math.abs((p & 0xFF) - (s & 0xFF));
+            result[i] = alphaSource[i] & 0xFF_00_00_00 | r << 16 | g << 8 | b;
+        }
+        return result;
+    }
+
+    /**
+     * The van Herk/Gil-Werman running minimum/maximum
+     * of a line, with reusable buffers.
+     */
+    private static class LineMinMax {
+        private final int lineRadius;
+        private final int windowSize;
+        private final boolean min;
+        private final int neutral;
+
+        // the line padded with neutral values on both sides
+        private final int[] values;
+
+        // the running results from the start of each block
+        // of windowSize values, and from the end of each block
+        private final int[] fromStart;
+        private final int[] fromEnd;
+
+        LineMinMax(int maxLength, int lineRadius, boolean min) {
+            this.lineRadius = lineRadius;
+            this.min = min;
+            windowSize = 2 * lineRadius + 1;
+            neutral = min ? MIN_NEUTRAL : MAX_NEUTRAL;
+
+            int bufferSize = maxLength + 2 * lineRadius;
+            values = new int[bufferSize];
+            fromStart = new int[bufferSize];
+            fromEnd = new int[bufferSize];
+        }
+
+        void process(int[] pixels, int start, int step, int length) {
+            int n = length + 2 * lineRadius;
+            Arrays.fill(values, 0, lineRadius, neutral);
+            Arrays.fill(values, lineRadius + length, n, neutral);
+            for (int i = 0, index = start; i < length; i++, index += step) {
+                values[lineRadius + i] = pixels[index];
+            }
+
+            for (int i = 0; i < n; i++) {
+                fromStart[i] = i % windowSize == 0
+                    ? values[i]
+                    : op(fromStart[i - 1], values[i]);
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                fromEnd[i] = (i % windowSize == windowSize - 1 || i == n - 1)
+                    ? values[i]
+                    : op(fromEnd[i + 1], values[i]);
+            }
+
+            // the window [i, i + windowSize) spans at most two blocks
+            for (int i = 0, index = start; i < length; i++, index += step) {
+                pixels[index] = op(fromEnd[i], fromStart[i + windowSize - 1]);
+            }
+        }
+
+        private int op(int a, int b) {
+            return min ? min(a, b) : max(a, b);
+        }
+    }
+
+    /**
+     * Returns the channel-wise minimum of two packed ARGB values
+     */
+    private static int min(int a, int b) {
+        return Math.min(a >>> 24, b >>> 24) << 24
+            | Math.min((a >>> 16) & 0xFF, (b >>> 16) & 0xFF) << 16
+            | Math.min((a >>> 8) & 0xFF, (b >>> 8) & 0xFF) << 8
+            | Math.min(a & 0xFF, b & 0xFF);
+    }
+
+    /**
+     * Returns the channel-wise maximum of two packed ARGB values
+     */
+    private static int max(int a, int b) {
+        return Math.max(a >>> 24, b >>> 24) << 24
+            | Math.max((a >>> 16) & 0xFF, (b >>> 16) & 0xFF) << 16
+            | Math.max((a >>> 8) & 0xFF, (b >>> 8) & 0xFF) << 8
+            | Math.max(a & 0xFF, b & 0xFF);
     }
 
     @Override
@@ -143,4 +382,3 @@ public class MorphologyFilter extends WholeImageFilter {
         return "Blur/Minimum";
     }
 }
-
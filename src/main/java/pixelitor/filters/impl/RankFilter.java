@@ -0,0 +1,278 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
+import pixelitor.filters.Median;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The implementation of the {@link Median} filter: it replaces each
+ * channel value with the given percentile of the values in the
+ * surrounding square window (0 = minimum, 50 = median, 100 = maximum).
+ *
+ * The running time per pixel doesn't depend on the radius, because it
+ * uses the sliding column histograms of Perreault and Hébert ("Median
+ * Filtering in Constant Time", 2007): each column histogram is updated
+ * with one added and one removed pixel when moving down a row, and the
+ * window histogram with one added and one removed column when moving
+ * right. The histograms have a coarse level with 16 bins, and the fine
+ * level is updated lazily, only for the coarse bin containing the result.
+ *
+ * The edge pixels are repeated outside the image.
+ */
+public class RankFilter extends WholeImageFilter {
+    private static final int NUM_COARSE = 16; // coarse bins, each with 16 fine bins
+
+    private int radius = 1;
+    private double percentile = 50;
+
+    public RankFilter(String filterName) {
+        super(filterName);
+    }
+
+    public void setRadius(int radius) {
+        if (radius < 0 || radius >= Character.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("radius = " + radius);
+        }
+        this.radius = radius;
+    }
+
+    /**
+     * Sets the percentile between 0 (minimum) and 100 (maximum)
+     */
+    public void setPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile = " + percentile);
+        }
+        this.percentile = percentile;
+    }
+
+    @Override
+    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+        pt = createProgressTracker(height);
+        int[] outPixels = rankPixels(width, height, inPixels, pt);
+        finishProgressTracker();
+        return outPixels;
+    }
+
+    /**
+     * Calculates the filtered pixels, one unit of
+     * progress is reported for each row
+     */
+    public int[] rankPixels(int width, int height, int[] inPixels, ProgressTracker tracker) {
+        int[] outPixels = new int[width * height];
+        if (radius == 0) {
+            System.arraycopy(inPixels, 0, outPixels, 0, inPixels.length);
+            tracker.unitsDone(height);
+            return outPixels;
+        }
+
+        int windowSize = 2 * radius + 1;
+        int rank = (int) Math.round(percentile / 100.0 * (windowSize * windowSize - 1));
+        boolean opaque = isOpaque(inPixels);
+
+        // each strip starts by building the column histograms from
+        // windowSize rows, which would dominate in thinner strips
+        ThreadPool.parallelForStrips(height, windowSize, (startY, endY) -> {
+            var strip = new Strip(inPixels, outPixels, width, height, rank);
+            for (int shift = 0; shift < 32; shift += 8) {
+                if (shift == 24 && opaque) {
+                    strip.fillAlpha(startY, endY);
+                } else {
+                    strip.processChannel(startY, endY, shift);
+                }
+            }
+        }, tracker);
+
+        return outPixels;
+    }
+
+    private static boolean isOpaque(int[] pixels) {
+        for (int rgb : pixels) {
+            if ((rgb >>> 24) != 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The histograms used while processing a strip of rows
+     */
+    private class Strip {
+        private final int[] inPixels;
+        private final int[] outPixels;
+        private final int width;
+        private final int height;
+        private final int rank;
+        private final int windowSize;
+
+        // the column histograms of the current row
+        private final char[] colCoarse;
+        private final char[] colFine;
+
+        // the window histogram of the current pixel
+        private final int[] coarse = new int[NUM_COARSE];
+        private final int[] fine = new int[256];
+
+        // the x coordinate at which a fine segment of the
+        // window histogram was last updated, or -1
+        private final int[] segmentUpdated = new int[NUM_COARSE];
+
+        Strip(int[] inPixels, int[] outPixels, int width, int height, int rank) {
+            this.inPixels = inPixels;
+            this.outPixels = outPixels;
+            this.width = width;
+            this.height = height;
+            this.rank = rank;
+            windowSize = 2 * radius + 1;
+
+            colCoarse = new char[width * NUM_COARSE];
+            colFine = new char[width * 256];
+        }
+
+        void fillAlpha(int startY, int endY) {
+            for (int i = startY * width; i < endY * width; i++) {
+                outPixels[i] |= 0xFF_00_00_00;
+            }
+        }
+
+        void processChannel(int startY, int endY, int shift) {
+            initColumns(startY, shift);
+            for (int y = startY; y < endY; y++) {
+                if (y > startY) {
+                    int removedRow = clampY(y - radius - 1) * width;
+                    int addedRow = clampY(y + radius) * width;
+                    for (int x = 0; x < width; x++) {
+                        updateColumn(x, (inPixels[removedRow + x] >> shift) & 0xFF, -1);
+                        updateColumn(x, (inPixels[addedRow + x] >> shift) & 0xFF, 1);
+                    }
+                }
+                processRow(y, shift);
+            }
+        }
+
+        private void initColumns(int startY, int shift) {
+            Arrays.fill(colCoarse, (char) 0);
+            Arrays.fill(colFine, (char) 0);
+            for (int dy = -radius; dy <= radius; dy++) {
+                int rowOffset = clampY(startY + dy) * width;
+                for (int x = 0; x < width; x++) {
+                    updateColumn(x, (inPixels[rowOffset + x] >> shift) & 0xFF, 1);
+                }
+            }
+        }
+
+        private void updateColumn(int x, int value, int delta) {
+            colCoarse[x * NUM_COARSE + (value >> 4)] += delta;
+            colFine[x * 256 + value] += delta;
+        }
+
+        private void processRow(int y, int shift) {
+            Arrays.fill(coarse, 0);
+            Arrays.fill(segmentUpdated, -1);
+            for (int dx = -radius; dx <= radius; dx++) {
+                addCoarse(clampX(dx), 1);
+            }
+
+            int outIndex = y * width;
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    addCoarse(clampX(x - radius - 1), -1);
+                    addCoarse(clampX(x + radius), 1);
+                }
+
+                // find the coarse bin containing the searched rank
+                int count = 0;
+                int bin = 0;
+                while (count + coarse[bin] <= rank) {
+                    count += coarse[bin];
+                    bin++;
+                }
+
+                updateSegment(bin, x);
+
+                // find the value within the coarse bin
+                int value = bin << 4;
+                while (true) {
+                    count += fine[value];
+                    if (count > rank) {
+                        break;
+                    }
+                    value++;
+                }
+
+                outPixels[outIndex + x] |= value << shift;
+            }
+        }
+
+        private void addCoarse(int column, int sign) {
+            int offset = column * NUM_COARSE;
+            for (int i = 0; i < NUM_COARSE; i++) {
+                coarse[i] += sign * colCoarse[offset + i];
+            }
+        }
+
+        /**
+         * Brings the fine histogram of the given coarse bin
+         * up to date for the window centered at x
+         */
+        private void updateSegment(int bin, int x) {
+            int start = bin << 4;
+            int lastX = segmentUpdated[bin];
+            if (lastX == -1 || 2 * (x - lastX) > windowSize) {
+                // it's cheaper to recalculate it from the columns
+                Arrays.fill(fine, start, start + 16, 0);
+                for (int dx = -radius; dx <= radius; dx++) {
+                    addFine(clampX(x + dx), start, 1);
+                }
+            } else {
+                for (int cx = lastX + 1; cx <= x; cx++) {
+                    addFine(clampX(cx - radius - 1), start, -1);
+                    addFine(clampX(cx + radius), start, 1);
+                }
+            }
+            segmentUpdated[bin] = x;
+        }
+
+        private void addFine(int column, int start, int sign) {
+            int offset = column * 256 + start;
+            for (int i = 0; i < 16; i++) {
+                fine[start + i] += sign * colFine[offset + i];
+            }
+        }
+
+        private int clampX(int x) {
+            return x < 0 ? 0 : (x >= width ? width - 1 : x);
+        }
+
+        private int clampY(int y) {
+            return y < 0 ? 0 : (y >= height ? height - 1 : y);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Noise/Median";
+    }
+}
@@ -66,8 +66,8 @@ public class JHBoxBlur extends ParametrizedFilter {
             filter = new BoxBlurFilter(NAME);
         }
 
-        filter.setHRadius(hRadius);
-        filter.setVRadius(vRadius);
+        filter.setHRadius(scaledForProxy(hRadius));
+        filter.setVRadius(scaledForProxy(vRadius));
         filter.setIterations(numberOfIterations.getValue());
         filter.setPremultiplyAlpha(false);
 
@@ -79,4 +79,15 @@ public class JHBoxBlur extends ParametrizedFilter {
 
         return dest;
     }
+
+    @Override
+    public boolean supportsProxyPreview() {
+        // the radii are scaled
+        return true;
+    }
+
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -60,7 +60,7 @@ public class JHGaussianBlur extends ParametrizedFilter {
             filter = new GaussianFilter(NAME);
         }
 
-        filter.setRadius(radius.getValueAsFloat());
+        filter.setRadius(scaledForProxy(radius.getValueAsFloat()));
         filter.setPremultiplyAlpha(false);
 
         dest = filter.filter(src, dest);
@@ -72,6 +72,17 @@ public class JHGaussianBlur extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public boolean supportsProxyPreview() {
+        // the radius is scaled
+        return true;
+    }
+
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
+    }
+
     @Override
     protected boolean createDefaultDestImg() {
         return false;
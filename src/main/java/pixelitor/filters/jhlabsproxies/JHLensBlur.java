@@ -75,4 +75,9 @@ public class JHLensBlur extends ParametrizedFilter {
 
         return dest;
     }
+
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -156,4 +156,9 @@ public class JHMotionBlur extends ParametrizedFilter {
 
         return dest;
     }
+
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
+    }
 }
\ No newline at end of file
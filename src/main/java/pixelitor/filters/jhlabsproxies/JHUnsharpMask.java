@@ -67,4 +67,9 @@ public class JHUnsharpMask extends ParametrizedFilter {
 
         return dest;
     }
+
+    @Override
+    public boolean supportsAsyncPreview() {
+        return true;
+    }
 }
\ No newline at end of file
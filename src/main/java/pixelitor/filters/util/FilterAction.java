@@ -84,6 +84,16 @@ public class FilterAction extends DrawableAction {
         }
     }
 
+    /**
+     * Creates a new filter instance, independent of the one returned by
+     * {@link #getFilter()}, so that the two can run in parallel
+     */
+    public Filter createNewFilter() {
+        Filter newFilter = filterSupplier.get();
+        newFilter.setFilterAction(this);
+        return newFilter;
+    }
+
     public Filter getFilter() {
         createFilter();
         return filter;
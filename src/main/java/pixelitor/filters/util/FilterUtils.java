@@ -64,6 +64,17 @@ public class FilterUtils {
             .toArray(FilterAction[]::new);
     }
 
+    /**
+     * Finds a filter by its name or by its list name, ignoring the case
+     */
+    public static Optional<Filter> findFilterByName(String name) {
+        return allFilters.stream()
+            .filter(fa -> fa.getName().equalsIgnoreCase(name)
+                || fa.getListName().equalsIgnoreCase(name))
+            .findFirst()
+            .map(FilterAction::getFilter);
+    }
+
     public static Filter getRandomFilter(Predicate<Filter> conditions) {
         // tries to avoid the instantiation of filters
         FilterAction filterAction;
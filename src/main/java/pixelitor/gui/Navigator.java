@@ -19,6 +19,7 @@ package pixelitor.gui;
 
 import org.jdesktop.swingx.painter.CheckerboardPainter;
 import pixelitor.Canvas;
+import pixelitor.Composition;
 import pixelitor.OpenImages;
 import pixelitor.colors.Colors;
 import pixelitor.gui.utils.DialogBuilder;
@@ -298,7 +299,9 @@ public class Navigator extends JComponent
         var origTransform = g2.getTransform();
 
         g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(view.getComp().getCompositeImage(), 0, 0, null);
+        Composition comp = view.getComp();
+        g2.drawImage(comp.getCompositeImage(imgScalingRatio), 0, 0,
+            comp.getCanvasWidth(), comp.getCanvasHeight(), null);
         g2.setTransform(origTransform);
 
         g2.setStroke(VIEW_BOX_STROKE);
@@ -24,6 +24,7 @@ import pixelitor.filters.gui.IntChoiceParam;
 import pixelitor.gui.utils.*;
 import pixelitor.guides.GuideStrokeType;
 import pixelitor.guides.GuideStyle;
+import pixelitor.history.BackupStore;
 import pixelitor.history.History;
 import pixelitor.layers.LayerButtonLayout;
 import pixelitor.utils.AppPreferences;
@@ -48,6 +49,7 @@ public class PreferencesPanel extends JPanel {
     private static final Border EMPTY_BORDER =
         BorderFactory.createEmptyBorder(0, 10, 5, 0);
     private JTextField undoLevelsTF;
+    private JTextField undoMemoryTF;
     private JComboBox<IntChoiceParam.Item> thumbSizeCB;
     private JComboBox<MouseZoomMethod> zoomMethodCB;
     private JComboBox<PanMethod> panMethodCB;
@@ -148,6 +150,13 @@ public class PreferencesPanel extends JPanel {
         gbh.addLabelAndControl("Undo/Redo Levels: ",
             TextFieldValidator.createPositiveIntLayer("Undo/Redo Levels",
                 undoLevelsTF, true));
+
+        undoMemoryTF = new JTextField(5);
+        undoMemoryTF.setName("undoMemoryTF");
+        undoMemoryTF.setText(String.valueOf(BackupStore.getBudgetMB()));
+        gbh.addLabelAndControl("Undo Memory (MB): ",
+            TextFieldValidator.createPositiveIntLayer("Undo Memory",
+                undoMemoryTF, true));
     }
 
     private void addThumbSizeChooser(GridBagHelper gbh) {
@@ -266,6 +275,20 @@ public class PreferencesPanel extends JPanel {
             return false;
         }
 
+        int undoMemory;
+        try {
+            undoMemory = parseInt(undoMemoryTF.getText().trim());
+        } catch (NumberFormatException ex) {
+            undoMemory = -1;
+        }
+        if (undoMemory > 0) {
+            BackupStore.setBudgetMB(undoMemory);
+        } else {
+            Dialogs.showErrorDialog(d, "Error",
+                "<html>The <b>Undo Memory</b> must be a positive integer.");
+            return false;
+        }
+
         // the mouse zoom and pan can't be set interactively => set it here
         MouseZoomMethod.changeTo((MouseZoomMethod) zoomMethodCB.getSelectedItem());
         PanMethod.changeTo((PanMethod) panMethodCB.getSelectedItem());
@@ -335,8 +335,14 @@ public class View extends JComponent implements MouseListener, MouseMotionListen
             assert mask != null : "no mask in " + maskViewMode;
             mask.paintLayerOnGraphics(g2, true);
         } else {
-            BufferedImage compositeImage = comp.getCompositeImage();
-            g2.drawImage(compositeImage, 0, 0, null);
+            // when zoomed out, a smaller version of the composite is painted,
+            // and when zoomed in, only the visible tiles have to be composited
+            // (enlarged by one pixel, because of the interpolation)
+            Rectangle visibleArea = g2.getClipBounds();
+            visibleArea.grow(1, 1);
+            BufferedImage compositeImage = comp.getCompositeImage(scaling, visibleArea);
+            g2.drawImage(compositeImage, 0, 0,
+                canvas.getWidth(), canvas.getHeight(), null);
 
             if (maskViewMode.showRuby()) {
                 LayerMask mask = comp.getActiveLayer().getMask();
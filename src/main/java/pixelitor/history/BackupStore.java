@@ -0,0 +1,499 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.Compression;
+import pixelitor.utils.Messages;
+import pixelitor.utils.VisibleForTesting;
+import pixelitor.utils.debug.DebugNode;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static pixelitor.utils.MemoryInfo.ONE_MEGABYTE;
+
+/**
+ * Stores the backup pixels of the image edits within a memory budget.
+ *
+ * The backups are strongly referenced, so (unlike with soft references)
+ * an edit that is still in the history can always be undone.
+ * When the budget is exceeded, the oldest backups are compressed
+ * in the background, and if this is not enough, the compressed data
+ * is moved to a memory-mapped temporary file.
+ */
+public class BackupStore {
+    // all the live backups, from the oldest to the newest
+    private static final Set<Backup> backups = new LinkedHashSet<>();
+
+    private static long budget = 256L * ONE_MEGABYTE;
+
+    // the bytes of the uncompressed and compressed backups in the heap
+    private static long heapBytes = 0;
+    private static long spilledBytes = 0;
+
+    private static boolean trimScheduled = false;
+    private static SpillFile spillFile;
+    private static boolean spillFailed = false;
+    private static final Object spillLock = new Object();
+
+    private BackupStore() {
+    }
+
+    /**
+     * Stores the given image, which must not be modified afterwards.
+     */
+    static Backup add(BufferedImage img) {
+        return add(new Backup(img.getRaster(),
+            img.getColorModel(), img.isAlphaPremultiplied()));
+    }
+
+    /**
+     * Stores the given raster, which must not be modified afterwards.
+     */
+    static Backup add(Raster raster) {
+        return add(new Backup(raster, null, false));
+    }
+
+    private static synchronized Backup add(Backup backup) {
+        backups.add(backup);
+        heapBytes += backup.rawSize;
+        scheduleTrimIfNeeded();
+        return backup;
+    }
+
+    public static synchronized void setBudgetMB(int budgetMB) {
+        budget = (long) budgetMB * ONE_MEGABYTE;
+        scheduleTrimIfNeeded();
+    }
+
+    public static synchronized int getBudgetMB() {
+        return (int) (budget / ONE_MEGABYTE);
+    }
+
+    public static synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public static synchronized long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public static synchronized int getNumBackups() {
+        return backups.size();
+    }
+
+    /**
+     * Returns a short description of the memory used by the undo backups
+     */
+    public static synchronized String getUsageDescription() {
+        return String.format("%d MB in memory, %d MB on disk (budget: %d MB)",
+            heapBytes / ONE_MEGABYTE, spilledBytes / ONE_MEGABYTE, getBudgetMB());
+    }
+
+    private static void scheduleTrimIfNeeded() {
+        assert Thread.holdsLock(BackupStore.class);
+
+        if (heapBytes > budget && !trimScheduled) {
+            trimScheduled = true;
+            ThreadPool.submit(BackupStore::trim);
+        }
+    }
+
+    /**
+     * Shrinks the oldest backups until the heap usage fits into the budget.
+     */
+    @VisibleForTesting
+    static void trim() {
+        while (true) {
+            Backup victim;
+            synchronized (BackupStore.class) {
+                victim = heapBytes > budget ? findVictim() : null;
+                if (victim == null) {
+                    trimScheduled = false;
+                    return;
+                }
+            }
+            victim.shrink();
+        }
+    }
+
+    private static Backup findVictim() {
+        // first try to compress, because reading back compressed
+        // data from the heap is faster than reading it from disk
+        for (Backup backup : backups) {
+            if (backup.raster != null && backup.canCompress()) {
+                return backup;
+            }
+        }
+        if (!spillFailed) {
+            for (Backup backup : backups) {
+                if (backup.compressed != null) {
+                    return backup;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the compressed data of the given backup into the spill file.
+     * The disk IO runs outside the store lock, so that it doesn't block
+     * the threads that add or restore backups in the meantime.
+     */
+    private static void spill(Backup backup) {
+        // only one spill at a time, because the spill file is created lazily
+        synchronized (spillLock) {
+            byte[] data;
+            synchronized (BackupStore.class) {
+                if (backup.released || backup.compressed == null) {
+                    return;
+                }
+                data = backup.compressed;
+            }
+
+            long offset = -1;
+            try {
+                if (spillFile == null) {
+                    var newFile = new SpillFile();
+                    synchronized (BackupStore.class) {
+                        spillFile = newFile;
+                    }
+                }
+                synchronized (BackupStore.class) {
+                    offset = spillFile.allocate(data.length);
+                }
+                spillFile.write(offset, data);
+            } catch (IOException e) {
+                synchronized (BackupStore.class) {
+                    if (offset != -1) {
+                        spillFile.free(offset, data.length);
+                    }
+                    // keep everything in the heap from now on
+                    spillFailed = true;
+                }
+                Messages.showExceptionOnEDT(e);
+                return;
+            }
+
+            synchronized (BackupStore.class) {
+                if (backup.released || backup.compressed != data) {
+                    // released while the data was written
+                    spillFile.free(offset, data.length);
+                    return;
+                }
+                backup.compressed = null;
+                backup.spillOffset = offset;
+                backup.spillLength = data.length;
+                heapBytes -= data.length;
+                spilledBytes += data.length;
+            }
+        }
+    }
+
+    public static DebugNode getDebugNode() {
+        var node = new DebugNode("undo backups", BackupStore.class);
+        synchronized (BackupStore.class) {
+            node.addInt("num backups", backups.size());
+            node.addInt("heap MB", (int) (heapBytes / ONE_MEGABYTE));
+            node.addInt("spilled MB", (int) (spilledBytes / ONE_MEGABYTE));
+            node.addInt("budget MB", getBudgetMB());
+        }
+        return node;
+    }
+
+    /**
+     * The pixels of one backup image or raster, which can be
+     * in the heap (uncompressed or compressed) or spilled to disk.
+     */
+    static class Backup {
+        private final SampleModel sampleModel;
+        private final int minX;
+        private final int minY;
+
+        // only for backups of entire images
+        private final ColorModel colorModel;
+        private final boolean premultiplied;
+
+        private final long rawSize;
+
+        // at most one of these three is set
+        private Raster raster;
+        private byte[] compressed;
+        private long spillOffset = -1;
+
+        private int spillLength;
+        private int uncompressedLength;
+        private boolean released = false;
+
+        private Backup(Raster raster, ColorModel colorModel, boolean premultiplied) {
+            this.raster = raster;
+            this.colorModel = colorModel;
+            this.premultiplied = premultiplied;
+
+            minX = raster.getMinX();
+            minY = raster.getMinY();
+            int width = raster.getWidth();
+            int height = raster.getHeight();
+            sampleModel = raster.getSampleModel().createCompatibleSampleModel(width, height);
+
+            int bitsPerElement = DataBuffer.getDataTypeSize(sampleModel.getTransferType());
+            rawSize = (long) width * height * sampleModel.getNumDataElements() * bitsPerElement / 8;
+        }
+
+        public int getWidth() {
+            return sampleModel.getWidth();
+        }
+
+        public int getHeight() {
+            return sampleModel.getHeight();
+        }
+
+        private boolean canCompress() {
+            int type = sampleModel.getTransferType();
+            return type == DataBuffer.TYPE_INT || type == DataBuffer.TYPE_BYTE;
+        }
+
+        /**
+         * Returns the backed up image. If the pixels are not uncompressed
+         * in the heap, then a new image is created each time.
+         */
+        public BufferedImage getImage() {
+            assert colorModel != null;
+            WritableRaster wr = (WritableRaster) getRaster();
+            return new BufferedImage(colorModel, wr, premultiplied, null);
+        }
+
+        /**
+         * Returns the backed up raster. If the pixels are not uncompressed
+         * in the heap, then a new raster is created each time.
+         */
+        public Raster getRaster() {
+            byte[] bytes;
+            synchronized (BackupStore.class) {
+                if (released) {
+                    throw new IllegalStateException("released");
+                }
+                if (raster != null) {
+                    return raster;
+                }
+                if (compressed != null) {
+                    bytes = compressed;
+                } else {
+                    try {
+                        bytes = spillFile.read(spillOffset, spillLength);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+
+            try {
+                return toRaster(Compression.inflate(bytes, uncompressedLength));
+            } catch (DataFormatException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Removes this backup from the store. It must not be used afterwards.
+         */
+        public void release() {
+            synchronized (BackupStore.class) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                backups.remove(this);
+
+                if (raster != null) {
+                    heapBytes -= rawSize;
+                    raster = null;
+                } else if (compressed != null) {
+                    heapBytes -= compressed.length;
+                    compressed = null;
+                } else {
+                    spillFile.free(spillOffset, spillLength);
+                    spilledBytes -= spillLength;
+                }
+            }
+        }
+
+        private void shrink() {
+            Raster toCompress;
+            synchronized (BackupStore.class) {
+                if (released) {
+                    return;
+                }
+                toCompress = raster;
+            }
+            if (toCompress == null) { // already compressed
+                spill(this);
+                return;
+            }
+
+            // compress outside the lock, because it can take a while
+            byte[] bytes = toBytes(toCompress);
+            byte[] result = Compression.deflate(bytes, Deflater.BEST_SPEED);
+
+            synchronized (BackupStore.class) {
+                if (released || raster != toCompress) {
+                    return;
+                }
+                raster = null;
+                compressed = result;
+                uncompressedLength = bytes.length;
+                heapBytes += result.length - rawSize;
+            }
+        }
+
+        private byte[] toBytes(Raster source) {
+            Object data = source.getDataElements(minX, minY,
+                getWidth(), getHeight(), null);
+            if (data instanceof byte[]) {
+                return (byte[]) data;
+            }
+            int[] ints = (int[]) data;
+            var buffer = ByteBuffer.allocate(ints.length * 4);
+            buffer.asIntBuffer().put(ints);
+            return buffer.array();
+        }
+
+        private Raster toRaster(byte[] bytes) {
+            Object data;
+            if (sampleModel.getTransferType() == DataBuffer.TYPE_BYTE) {
+                data = bytes;
+            } else {
+                int[] ints = new int[bytes.length / 4];
+                ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+                data = ints;
+            }
+            WritableRaster wr = Raster.createWritableRaster(
+                sampleModel, new Point(minX, minY));
+            wr.setDataElements(minX, minY, getWidth(), getHeight(), data);
+            return wr;
+        }
+
+        @VisibleForTesting
+        boolean isCompressed() {
+            synchronized (BackupStore.class) {
+                return compressed != null;
+            }
+        }
+
+        @VisibleForTesting
+        boolean isSpilled() {
+            synchronized (BackupStore.class) {
+                return !released && raster == null && compressed == null;
+            }
+        }
+    }
+
+    /**
+     * A temporary file for the compressed backups. The regions of the
+     * released backups are reused by the later ones.
+     */
+    private static class SpillFile {
+        private final FileChannel channel;
+
+        // offset => length of the unused regions
+        private final NavigableMap<Long, Long> freeRegions = new TreeMap<>();
+        private long end = 0;
+
+        private SpillFile() throws IOException {
+            Path path = Files.createTempFile("pixelitor_undo", ".tmp");
+            path.toFile().deleteOnExit();
+            channel = FileChannel.open(path, READ, WRITE);
+        }
+
+        // the region must be allocated first
+        private void write(long offset, byte[] data) throws IOException {
+            MappedByteBuffer buffer = channel.map(READ_WRITE, offset, data.length);
+            buffer.put(data);
+        }
+
+        private byte[] read(long offset, int length) throws IOException {
+            MappedByteBuffer buffer = channel.map(READ_ONLY, offset, length);
+            byte[] data = new byte[length];
+            buffer.get(data);
+            return data;
+        }
+
+        private long allocate(int length) {
+            for (Map.Entry<Long, Long> region : freeRegions.entrySet()) {
+                long regionOffset = region.getKey();
+                long regionLength = region.getValue();
+                if (regionLength >= length) {
+                    freeRegions.remove(regionOffset);
+                    if (regionLength > length) {
+                        freeRegions.put(regionOffset + length, regionLength - length);
+                    }
+                    return regionOffset;
+                }
+            }
+            long offset = end;
+            end += length;
+            return offset;
+        }
+
+        private void free(long offset, long length) {
+            long start = offset;
+            long stop = offset + length;
+
+            // merge with the neighboring free regions
+            Map.Entry<Long, Long> prev = freeRegions.floorEntry(start);
+            if (prev != null && prev.getKey() + prev.getValue() == start) {
+                start = prev.getKey();
+                freeRegions.remove(start);
+            }
+            Long nextLength = freeRegions.remove(stop);
+            if (nextLength != null) {
+                stop += nextLength;
+            }
+
+            if (stop == end) {
+                end = start;
+            } else {
+                freeRegions.put(start, stop - start);
+            }
+        }
+    }
+}
@@ -53,6 +53,7 @@ public class History {
 
     static {
         setUndoLevels(AppPreferences.loadUndoLevels());
+        BackupStore.setBudgetMB(AppPreferences.loadUndoMemory());
     }
 
     private static final String UNDO_TEXT = UIManager.getString("AbstractUndoableEdit.undoText");
@@ -82,11 +83,18 @@ public class History {
 //        Debug.call(edit.getDebugName());
 
         assert edit != null;
+
+        var comp = edit.getComp();
+        List<ImageEdit> newImageEdits = comp.takePendingImageEdits();
+
         if (ignoreEdits) {
+            // release the backup pixels
+            edit.die();
             return;
         }
 
-        var comp = edit.getComp();
+        // the changes of the new image edits are done at this point
+        ImageEdit.storeDeltasLater(newImageEdits);
 
         if (edit.makesDirty()) {
             comp.setDirty(true);
@@ -170,7 +178,7 @@ public class History {
                 throw new RuntimeException("No undo available", e);
             } else {
                 Messages.showInfo("No undo available",
-                    "No undo available, probably because the undo image was discarded in order to save memory");
+                    "No undo available");
             }
         }
     }
@@ -365,6 +373,8 @@ public class History {
             node.add(undoManager.getDebugNode());
         }
 
+        node.add(BackupStore.getDebugNode());
+
         node.addInt("num undone edits", numUndoneEdits);
         node.addBoolean("ignore edits", ignoreEdits);
         node.addBoolean("can undo", canUndo());
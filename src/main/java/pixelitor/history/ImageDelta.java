@@ -0,0 +1,202 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+/**
+ * The difference between a backup image and the image that replaced it.
+ * Only the tiles that changed are stored (in the {@link BackupStore}),
+ * and the backup is recreated by copying them over the replacing image.
+ * If the replacing image was changed outside the history in the meantime,
+ * then the changed tiles are still restored, but the outside changes
+ * remain in the other tiles.
+ */
+class ImageDelta {
+    static final int TILE_SIZE = 64;
+
+    private final int width;
+    private final int height;
+    private final int type;
+    private final int numTilesX;
+    private final int numTilesY;
+
+    // horizontal runs of changed tiles from the backup image
+    private final List<BackupStore.Backup> changedParts = new ArrayList<>();
+    private int numChangedTiles;
+
+    private ImageDelta(BufferedImage after) {
+        width = after.getWidth();
+        height = after.getHeight();
+        type = after.getType();
+        numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Returns the delta that can recreate the "before" image
+     * from the "after" image, or null if it is not worth it.
+     * Can be called outside the EDT.
+     */
+    static ImageDelta create(BufferedImage before, BufferedImage after) {
+        if (!isSupported(before) || before.getType() != after.getType()
+            || before.getWidth() != after.getWidth()
+            || before.getHeight() != after.getHeight()) {
+            return null;
+        }
+
+        var delta = new ImageDelta(after);
+        boolean[] changed = new boolean[delta.getNumTiles()];
+        Raster beforeRaster = before.getRaster();
+        Raster afterRaster = after.getRaster();
+
+        ThreadPool.parallelFor(delta.numTilesY, tileY ->
+            delta.compareTileRow(tileY, beforeRaster, afterRaster, changed), NULL_TRACKER);
+
+        int numChanged = 0;
+        for (boolean b : changed) {
+            if (b) {
+                numChanged++;
+            }
+        }
+        // If nothing changed, then probably the edit was created
+        // before the change, and if everything changed, then the
+        // full image is more efficient. In both cases there's no delta.
+        if (numChanged == 0 || numChanged == changed.length) {
+            return null;
+        }
+
+        delta.numChangedTiles = numChanged;
+        delta.storeChangedTiles(before, changed);
+        return delta;
+    }
+
+    private static boolean isSupported(BufferedImage img) {
+        Raster raster = img.getRaster();
+        int transferType = raster.getTransferType();
+        return raster.getNumDataElements() == 1
+            && (transferType == DataBuffer.TYPE_INT || transferType == DataBuffer.TYPE_BYTE);
+    }
+
+    private void compareTileRow(int tileY, Raster before, Raster after, boolean[] changed) {
+        int y = tileY * TILE_SIZE;
+        int tileHeight = Math.min(TILE_SIZE, height - y);
+
+        // compare line by line, so that the
+        // temporary arrays remain small
+        for (int line = y; line < y + tileHeight; line++) {
+            int[] beforeLine = getLine(before, line);
+            int[] afterLine = getLine(after, line);
+            for (int tileX = 0; tileX < numTilesX; tileX++) {
+                int startX = tileX * TILE_SIZE;
+                int endX = Math.min(startX + TILE_SIZE, width);
+                if (!Arrays.equals(beforeLine, startX, endX, afterLine, startX, endX)) {
+                    changed[tileY * numTilesX + tileX] = true;
+                }
+            }
+        }
+    }
+
+    private int[] getLine(Raster raster, int y) {
+        Object data = raster.getDataElements(0, y, width, 1, null);
+        if (data instanceof int[]) {
+            return (int[]) data;
+        }
+        byte[] bytes = (byte[]) data;
+        int[] line = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            line[i] = bytes[i];
+        }
+        return line;
+    }
+
+    private void storeChangedTiles(BufferedImage before, boolean[] changed) {
+        for (int tileY = 0; tileY < numTilesY; tileY++) {
+            int tileX = 0;
+            while (tileX < numTilesX) {
+                if (!changed[tileY * numTilesX + tileX]) {
+                    tileX++;
+                    continue;
+                }
+                int runStart = tileX;
+                while (tileX < numTilesX && changed[tileY * numTilesX + tileX]) {
+                    tileX++;
+                }
+                Rectangle runBounds = new Rectangle(
+                    runStart * TILE_SIZE, tileY * TILE_SIZE,
+                    (tileX - runStart) * TILE_SIZE, TILE_SIZE)
+                    .intersection(new Rectangle(0, 0, width, height));
+                changedParts.add(BackupStore.add(before.getData(runBounds)));
+            }
+        }
+    }
+
+    /**
+     * Recreates the "before" image from the given "after" image,
+     * or returns null if the size or the type of the given image
+     * is not the same as of the image used to create this delta.
+     */
+    BufferedImage recreate(BufferedImage after) {
+        if (after.getWidth() != width || after.getHeight() != height
+            || after.getType() != type) {
+            return null;
+        }
+
+        BufferedImage before = ImageUtils.copyImage(after);
+        WritableRaster raster = before.getRaster();
+        for (BackupStore.Backup part : changedParts) {
+            raster.setRect(part.getRaster());
+        }
+        return before;
+    }
+
+    void release() {
+        for (BackupStore.Backup part : changedParts) {
+            part.release();
+        }
+        changedParts.clear();
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getNumChangedTiles() {
+        return numChangedTiles;
+    }
+
+    int getNumTiles() {
+        return numTilesX * numTilesY;
+    }
+}
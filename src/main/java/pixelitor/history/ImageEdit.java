@@ -23,15 +23,33 @@ import pixelitor.utils.debug.DebugNode;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static pixelitor.utils.Threads.calledOnEDT;
+import static pixelitor.utils.Threads.threadInfo;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
  */
 public class ImageEdit extends FadeableEdit {
+    // a single background thread, so that the diffs don't compete with each other
+    private static final ExecutorService deltaThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Undo Deltas");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final boolean ignoreSelection;
-    private SoftReference<BufferedImage> imgRef;
+
+    // either the full backup image or only its
+    // difference from the current image is stored
+    private BackupStore.Backup backup;
+    private ImageDelta delta;
+
     protected Drawable dr;
 
     private final boolean canRepeat;
@@ -47,12 +65,75 @@ public class ImageEdit extends FadeableEdit {
 
 //        Utils.debugImage(backupImage, "Backup for " + name);
         
-        // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
         this.dr = dr;
         this.canRepeat = canRepeat;
 
-        checkBackupDifferentFromActive();
+        checkBackupDifferentFromActive(backupImage);
+        backup = BackupStore.add(backupImage);
+
+        comp.addPendingImageEdit(this);
+    }
+
+    /**
+     * Replaces the full backups of the given edits with their differences
+     * from the current images. Called when an edit is added to the history,
+     * because the changes are done at that point, or at least until the end
+     * of the current event (some tools add their edit before the change).
+     */
+    static void storeDeltasLater(List<ImageEdit> edits) {
+        if (edits.isEmpty()) {
+            return;
+        }
+        EventQueue.invokeLater(() -> {
+            for (ImageEdit edit : edits) {
+                edit.storeDeltaInBackground();
+            }
+        });
+    }
+
+    /**
+     * Calculates the delta outside the EDT, and replaces the full backup
+     * with it only if the backup wasn't swapped in the meantime.
+     */
+    private void storeDeltaInBackground() {
+        assert calledOnEDT() : threadInfo();
+
+        if (backup == null || dr == null) { // died or already a delta
+            return;
+        }
+        BackupStore.Backup fullBackup = backup;
+        BufferedImage currentImage = getCurrentImage();
+        deltaThread.execute(() -> {
+            ImageDelta newDelta;
+            try {
+                newDelta = ImageDelta.create(fullBackup.getImage(), currentImage);
+            } catch (IllegalStateException e) {
+                // the backup was released in the meantime
+                return;
+            }
+            if (newDelta != null) {
+                EventQueue.invokeLater(() -> replaceBackup(fullBackup, newDelta));
+            }
+        });
+    }
+
+    private void replaceBackup(BackupStore.Backup fullBackup, ImageDelta newDelta) {
+        if (backup != fullBackup) {
+            // undone, redone or died while the delta was calculated
+            newDelta.release();
+            return;
+        }
+        backup.release();
+        backup = null;
+        delta = newDelta;
+    }
+
+    private BufferedImage getCurrentImage() {
+        if (ignoreSelection) {
+            return dr.getImage();
+        } else {
+            return dr.getSelectedSubImage(false);
+        }
     }
 
     public static ImageEdit createEmbedded(Drawable dr) {
@@ -70,9 +151,9 @@ public class ImageEdit extends FadeableEdit {
 
     // the backup should never be identical to the active image
     // otherwise the backup might be also edited
-    private void checkBackupDifferentFromActive() {
+    private void checkBackupDifferentFromActive(BufferedImage backupImage) {
         BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        if (layerImage == backupImage) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -99,28 +180,29 @@ public class ImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapImages()  {
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage == null) {
+        if (dr == null) { // died
             return false;
         }
-
-        BufferedImage tmp;
-        if (ignoreSelection) {
-            tmp = dr.getImage();
-        } else {
-            tmp = dr.getSelectedSubImage(false);
+        BufferedImage tmp = getCurrentImage();
+        BufferedImage backupImage = getBackupImage(tmp);
+        if (backupImage == null) {
+            return false;
         }
+        releaseBackup();
+
         dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
-        // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        // create new backup from tmp, and replace
+        // it later with a delta relative to the new image
+        checkBackupDifferentFromActive(tmp);
+        backup = BackupStore.add(tmp);
+        storeDeltasLater(List.of(this));
 
         if(!embedded) {
             comp.imageChanged();
             dr.updateIconImage();
         }
 
-        checkBackupDifferentFromActive();
         return true;
     }
 
@@ -128,20 +210,36 @@ public class ImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if(backupImage != null) {
-            backupImage.flush();
-        }
-
-        imgRef = null;
+        releaseBackup();
         dr = null;
     }
 
+    private void releaseBackup() {
+        if (backup != null) {
+            backup.release();
+            backup = null;
+        }
+        if (delta != null) {
+            delta.release();
+            delta = null;
+        }
+    }
+
     @Override
     public BufferedImage getBackupImage() {
-        if(imgRef != null) {
-            // this still could be null
-            return imgRef.get();
+        if (dr == null) { // died
+            return null;
+        }
+        return getBackupImage(getCurrentImage());
+    }
+
+    private BufferedImage getBackupImage(BufferedImage currentImage) {
+        if (backup != null) {
+            return backup.getImage();
+        }
+        if (delta != null) {
+            // null if the size of the current image has changed
+            return delta.recreate(currentImage);
         }
         return null;
     }
@@ -155,10 +253,14 @@ public class ImageEdit extends FadeableEdit {
     public DebugNode getDebugNode() {
         var node = super.getDebugNode();
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("backup image width", img.getWidth());
-            node.addInt("backup image height", img.getHeight());
+        if (backup != null) {
+            node.addInt("backup image width", backup.getWidth());
+            node.addInt("backup image height", backup.getHeight());
+        } else if (delta != null) {
+            node.addInt("backup image width", delta.getWidth());
+            node.addInt("backup image height", delta.getHeight());
+            node.addInt("changed tiles", delta.getNumChangedTiles());
+            node.addInt("all tiles", delta.getNumTiles());
         }
 
         return node;
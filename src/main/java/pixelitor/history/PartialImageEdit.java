@@ -29,7 +29,6 @@ import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
-import java.lang.ref.SoftReference;
 
 import static java.lang.String.format;
 
@@ -40,7 +39,7 @@ import static java.lang.String.format;
 public class PartialImageEdit extends FadeableEdit {
     private final Rectangle saveRect;
     private final boolean canRepeat;
-    private SoftReference<Raster> backupRasterRef;
+    private BackupStore.Backup backup;
 
     private final Drawable dr;
 
@@ -53,7 +52,7 @@ public class PartialImageEdit extends FadeableEdit {
         this.saveRect = saveRect;
 
         Raster backupRaster = image.getData(this.saveRect);
-        backupRasterRef = new SoftReference<>(backupRaster);
+        backup = BackupStore.add(backupRaster);
     }
 
     @Override
@@ -78,10 +77,10 @@ public class PartialImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapRasters() {
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) {
+        if (backup == null) { // died
             return false;
         }
+        Raster backupRaster = backup.getRaster();
 
         BufferedImage image = dr.getImage();
 
@@ -101,9 +100,13 @@ public class PartialImageEdit extends FadeableEdit {
             throw e;
         }
 
-        backupRasterRef = new SoftReference<>(tmpRaster);
+        backup.release();
+        backup = BackupStore.add(tmpRaster);
 
-        comp.imageChanged();
+        // only the saved rectangle has to be recomposited
+        var changedArea = new Rectangle(saveRect);
+        changedArea.translate(dr.getTx(), dr.getTy());
+        comp.imageChanged(changedArea);
         dr.updateIconImage();
 
         return true;
@@ -135,7 +138,10 @@ public class PartialImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        backupRasterRef = null;
+        if (backup != null) {
+            backup.release();
+        }
+        backup = null;
     }
 
     @Override
@@ -145,13 +151,10 @@ public class PartialImageEdit extends FadeableEdit {
 
     @Override
     public BufferedImage getBackupImage() {
-        if (backupRasterRef == null) { // died
-            return null;
-        }
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) { // soft reference lost
+        if (backup == null) { // died
             return null;
         }
+        Raster backupRaster = backup.getRaster();
 
         // recreate the full image as if it was backed up entirely
         // because Fade expects to fade images of equal size
@@ -176,10 +179,9 @@ public class PartialImageEdit extends FadeableEdit {
 
         int width = -1;
         int height = -1;
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster != null) {
-            width = backupRaster.getWidth();
-            height = backupRaster.getHeight();
+        if (backup != null) {
+            width = backup.getWidth();
+            height = backup.getHeight();
         }
 
         node.addInt("backup image width", width);
@@ -54,6 +54,9 @@ public abstract class PixelitorEdit extends AbstractUndoableEdit {
 
         activateComp();
 
+        // the edit might change the pixels of a non-active layer
+        comp.invalidateStackSnapshots();
+
         if (!embedded) {
             History.notifyMenus(this);
         }
@@ -70,6 +73,9 @@ public abstract class PixelitorEdit extends AbstractUndoableEdit {
 
         activateComp();
 
+        // the edit might change the pixels of a non-active layer
+        comp.invalidateStackSnapshots();
+
         if (!embedded) {
             History.notifyMenus(this);
         }
@@ -119,6 +119,28 @@ public class FileChoosers {
     }
 
     public static void openAsync() {
+        File selectedFile = chooseFileToOpen();
+        if (selectedFile != null) {
+            IO.openFileAsync(selectedFile);
+        }
+    }
+
+    /**
+     * Opens a large image as a subsampled overview
+     */
+    public static void openLargeImageAsync() {
+        File selectedFile = chooseFileToOpen();
+        if (selectedFile != null) {
+            IO.openLargeImageAsync(selectedFile);
+        }
+    }
+
+    /**
+     * Returns the file selected with the open chooser,
+     * or null if the dialog was cancelled or the file
+     * doesn't have a supported extension
+     */
+    private static File chooseFileToOpen() {
         initOpenChooser();
 
         GlobalEvents.dialogOpened("Open");
@@ -132,7 +154,7 @@ public class FileChoosers {
             Dirs.setLastOpen(selectedFile.getParentFile());
 
             if (FileUtils.hasSupportedInputExt(fileName)) {
-                IO.openFileAsync(selectedFile);
+                return selectedFile;
             } else { // unsupported extension
                 handleUnsupportedExtensionWhileOpening(fileName);
             }
@@ -141,6 +163,7 @@ public class FileChoosers {
         } else if (result == JFileChooser.ERROR_OPTION) {
             // error or dismissed
         }
+        return null;
     }
 
     private static void handleUnsupportedExtensionWhileOpening(String fileName) {
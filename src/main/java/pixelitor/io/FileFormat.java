@@ -45,19 +45,27 @@ public enum FileFormat {
 
         @Override
         public CompletableFuture<Composition> readFrom(File file) {
-            return CompletableFuture.supplyAsync(
-                Utils.toSupplier(() -> PXCFormat.read(file)), onIOThread);
+            return CompletableFuture.supplyAsync(() -> readSync(file), onIOThread);
+        }
+
+        @Override
+        public Composition readSync(File file) {
+            return Utils.toSupplier(() -> PXCFormat.read(file)).get();
         }
     }, ORA(true, true) {
         @Override
         public Runnable getSaveTask(Composition comp, SaveSettings settings) {
-            return () -> OpenRaster.uncheckedWrite(comp, settings.getFile(), false);
+            return OpenRaster.createSaveTask(comp, settings.getFile(), false);
         }
 
         @Override
         public CompletableFuture<Composition> readFrom(File file) {
-            return CompletableFuture.supplyAsync(
-                Utils.toSupplier(() -> OpenRaster.read(file)), onIOThread);
+            return CompletableFuture.supplyAsync(() -> readSync(file), onIOThread);
+        }
+
+        @Override
+        public Composition readSync(File file) {
+            return Utils.toSupplier(() -> OpenRaster.read(file)).get();
         }
     };
 
@@ -69,10 +77,23 @@ public enum FileFormat {
         supportsAlpha = hasAlpha;
     }
 
+    public boolean isLayered() {
+        return supportsMultipleLayers;
+    }
+
     public Runnable getSaveTask(Composition comp, SaveSettings settings) {
         assert !supportsMultipleLayers; // overwritten for multi-layered formats
 
-        return () -> saveSingleLayered(comp, settings);
+        // The composite image can be updated in place on the EDT
+        // while the task runs, so a snapshot is taken right now.
+        BufferedImage img;
+        if (supportsAlpha) {
+            img = ImageUtils.copyImage(comp.getCompositeImage());
+        } else {
+            // no alpha support, convert first to RGB, which is also a copy
+            img = ImageUtils.convertToRGB(comp.getCompositeImage(), false);
+        }
+        return () -> saveSingleLayered(img, settings);
     }
 
     public CompletableFuture<Composition> readFrom(File file) {
@@ -80,6 +101,15 @@ public enum FileFormat {
         return readSimpleFrom(file);
     }
 
+    /**
+     * Loads a composition on the current thread, without creating a view for it.
+     * This is used for batch processing, and it shouldn't be called on the EDT.
+     */
+    public Composition readSync(File file) {
+        // overwritten for multi-layered formats
+        return Composition.fromImage(TrackedIO.uncheckedRead(file), file, null);
+    }
+
     /**
      * Loads a composition from a file with a single-layer image format
      */
@@ -88,13 +118,10 @@ public enum FileFormat {
             .thenApplyAsync(img -> Composition.fromImage(img, file, null), onEDT);
     }
 
-    private void saveSingleLayered(Composition comp, SaveSettings settings) {
-        BufferedImage img = comp.getCompositeImage();
-        if (!supportsAlpha) {
-            // no alpha support, convert first to RGB
-            img = ImageUtils.convertToRGB(img, false);
-        } else if (this == GIF) {
-            img = ImageUtils.convertToIndexed(img, false);
+    private void saveSingleLayered(BufferedImage img, SaveSettings settings) {
+        if (this == GIF) {
+            // the snapshot is not needed after the conversion
+            img = ImageUtils.convertToIndexed(img, true);
         }
         IO.saveImageToFile(img, settings);
     }
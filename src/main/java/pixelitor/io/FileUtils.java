@@ -18,6 +18,9 @@ package pixelitor.io;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -111,4 +114,18 @@ public class FileUtils {
                 .filter(File::isFile)
                 .collect(toList());
     }
-}
\ No newline at end of file
+
+    /**
+     * Lists the supported input files in the given directory and in its subdirectories
+     */
+    public static List<File> listSupportedInputFilesRecursively(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths
+                .filter(Files::isRegularFile)
+                .map(Path::toFile)
+                .filter(FileUtils::hasSupportedInputExt)
+                .sorted()
+                .collect(toList());
+        }
+    }
+}
@@ -20,6 +20,7 @@ package pixelitor.io;
 import pixelitor.Composition;
 import pixelitor.OpenImages;
 import pixelitor.automate.SingleDirChooser;
+import pixelitor.gui.View;
 import pixelitor.gui.utils.Dialogs;
 import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
@@ -29,6 +30,7 @@ import pixelitor.utils.Messages;
 import pixelitor.utils.Utils;
 
 import java.awt.EventQueue;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -56,6 +58,94 @@ public class IO {
             .whenComplete((comp, e) -> checkForIOProblems(e));
     }
 
+    /**
+     * Opens a single-layered image file as a subsampled overview,
+     * if it is large enough, otherwise it's opened normally.
+     */
+    public static CompletableFuture<Composition> openLargeImageAsync(File file) {
+        FileFormat format = FileFormat.fromFile(file).orElse(FileFormat.JPG);
+        if (format.isLayered()) {
+            return openFileAsync(file);
+        }
+        return CompletableFuture
+            .supplyAsync(() -> readLargeImage(file), onIOThread)
+            .thenApplyAsync(comp -> {
+                if (comp.getLargeImage() == null) {
+                    return OpenImages.addJustLoadedComp(comp);
+                }
+                OpenImages.addAsNewComp(comp);
+                Messages.showInStatusBar(format("The overview of <b>%s</b> was opened.",
+                    file.getName()));
+                return comp;
+            }, onEDT)
+            .whenComplete((comp, e) -> checkForIOProblems(e));
+    }
+
+    private static Composition readLargeImage(File file) {
+        try {
+            var largeImage = LargeImage.open(file);
+            if (largeImage.getSubsampling() == 1) {
+                // small enough to be opened normally
+                return Composition.fromImage(TrackedIO.read(file), file, null);
+            }
+            return largeImage.readOverviewComp();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes a part of the original large image at full resolution
+     * and opens it as a new image. The part corresponds to the selection
+     * bounds of the overview or, without a selection, to its visible area.
+     */
+    public static void openFullResolutionArea(Composition comp) {
+        LargeImage largeImage = comp.getLargeImage();
+        if (largeImage == null || !largeImage.isOverviewOf(comp)) {
+            Messages.showInfo("Not an Overview",
+                "<html>Full resolution areas can be opened only for the unresized " +
+                    "overviews of large images, opened with <b>File/Open Large Image</b>.");
+            return;
+        }
+
+        Rectangle overviewArea;
+        if (comp.hasSelection()) {
+            overviewArea = comp.getSelection().getShapeBounds();
+        } else {
+            View view = comp.getView();
+            overviewArea = view.componentToImageSpace(view.getVisiblePart()).getBounds();
+        }
+        Rectangle area = largeImage.toFullResolution(overviewArea);
+        if (area.isEmpty()) {
+            return;
+        }
+        if (!LargeImage.fitsIntoMemory(area)) {
+            Messages.showError("Area Too Large", format(
+                "The %dx%d pixels area doesn't fit into the available memory.%n" +
+                    "Select a smaller area.", area.width, area.height));
+            return;
+        }
+
+        String name = format("%s (%d, %d, %dx%d)", largeImage.getFile().getName(),
+            area.x, area.y, area.width, area.height);
+        var progressHandler = Messages.startProgress("Decoding " + name, -1);
+        CompletableFuture
+            .supplyAsync(() -> readRegion(largeImage, area), onIOThread)
+            .thenAcceptAsync(img -> OpenImages.addAsNewComp(img, null, name), onEDT)
+            .whenComplete((v, e) -> {
+                progressHandler.stopProgress();
+                checkForIOProblems(e);
+            });
+    }
+
+    private static BufferedImage readRegion(LargeImage largeImage, Rectangle area) {
+        try {
+            return largeImage.readRegion(area);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static CompletableFuture<Composition> loadCompAsync(File file) {
         // if the file format is not recognized, this will still try to
         // read it in a single-layered format, which doesn't have to be JPG
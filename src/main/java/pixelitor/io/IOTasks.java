@@ -22,10 +22,13 @@ import pixelitor.utils.SerialExecutor;
 import pixelitor.utils.Utils;
 import pixelitor.utils.VisibleForTesting;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static pixelitor.utils.Threads.calledOnEDT;
@@ -56,6 +59,25 @@ public class IOTasks {
         return executor;
     }
 
+    /**
+     * Waits for the result of a subtask of an IO operation,
+     * and rethrows its failure as an {@link IOException}
+     */
+    public static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     public static synchronized boolean isProcessing(String absolutePath) {
         assert calledOnEDT() : threadInfo();
 
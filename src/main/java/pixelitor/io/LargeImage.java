@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import pixelitor.Canvas;
+import pixelitor.Composition;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.VisibleForTesting;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static pixelitor.utils.Threads.calledOutsideEDT;
+
+/**
+ * An image file that is too big to be decoded at once. It can be
+ * opened as a subsampled overview, and the full-resolution regions
+ * are decoded on demand, through a cache of decoded tiles.
+ */
+public class LargeImage {
+    // the overview has at most this many pixels
+    private static final long OVERVIEW_MAX_PIXELS = 4_000_000;
+
+    @VisibleForTesting
+    static final int TILE_SIZE = 512;
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int subsampling;
+
+    // the decoded full-resolution tiles in access order,
+    // the least recently used ones are evicted first
+    private final Map<Point, BufferedImage> tileCache =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxCacheBytes;
+    private long cacheBytes;
+
+    private LargeImage(File file, int width, int height, long maxCacheBytes) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.maxCacheBytes = maxCacheBytes;
+
+        subsampling = calcSubsampling(width, height, OVERVIEW_MAX_PIXELS);
+    }
+
+    /**
+     * Reads the size of the image from the file header,
+     * without decoding the pixels
+     */
+    public static LargeImage open(File file) throws IOException {
+        // the tiles can use at most a quarter of the memory
+        return open(file, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    @VisibleForTesting
+    static LargeImage open(File file, long maxCacheBytes) throws IOException {
+        var size = TrackedIO.readDimensions(file);
+        if (size == null) {
+            throw new DecodingException(file);
+        }
+        return new LargeImage(file, size.width, size.height, maxCacheBytes);
+    }
+
+    /**
+     * Returns the number of pixels to advance in both directions
+     * so that the overview has at most maxPixels pixels
+     */
+    @VisibleForTesting
+    static int calcSubsampling(int width, int height, long maxPixels) {
+        double numPixels = (double) width * height;
+        if (numPixels <= maxPixels) {
+            return 1;
+        }
+        int subsampling = (int) Math.ceil(Math.sqrt(numPixels / maxPixels));
+        // correct the rounding errors of the square root
+        while (overviewSize(width, subsampling) * (long) overviewSize(height, subsampling) > maxPixels) {
+            subsampling++;
+        }
+        return subsampling;
+    }
+
+    private static int overviewSize(int fullSize, int subsampling) {
+        return (fullSize + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Decodes the subsampled overview of the image.
+     */
+    public BufferedImage readOverview() throws IOException {
+        assert calledOutsideEDT() : "on EDT";
+
+        return decode(null, subsampling);
+    }
+
+    /**
+     * Decodes the overview into a new composition, which
+     * has no file, so that the subsampled version can't
+     * overwrite the original image.
+     */
+    public Composition readOverviewComp() throws IOException {
+        String name = format("%s (1:%d)", file.getName(), subsampling);
+        var comp = Composition.fromImage(readOverview(), null, name);
+        comp.setLargeImage(this);
+        return comp;
+    }
+
+    /**
+     * Returns true if the given composition is still an unchanged-size
+     * overview of this image, so that its coordinates can be mapped
+     * to the coordinates of the full-resolution image
+     */
+    public boolean isOverviewOf(Composition comp) {
+        Canvas canvas = comp.getCanvas();
+        return comp.getLargeImage() == this
+            && canvas.getWidth() == overviewSize(width, subsampling)
+            && canvas.getHeight() == overviewSize(height, subsampling);
+    }
+
+    /**
+     * Converts an area of the overview to the corresponding
+     * area of the full-resolution image
+     */
+    public Rectangle toFullResolution(Rectangle overviewArea) {
+        Rectangle area = new Rectangle(
+            overviewArea.x * subsampling,
+            overviewArea.y * subsampling,
+            overviewArea.width * subsampling,
+            overviewArea.height * subsampling);
+        return area.intersection(getBounds());
+    }
+
+    /**
+     * Returns true if a region of the given size can be
+     * decoded at full resolution with the available memory
+     */
+    public static boolean fitsIntoMemory(Rectangle region) {
+        long numBytes = 4L * region.width * region.height;
+        Runtime rt = Runtime.getRuntime();
+        long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+
+        // the decoded tiles and the result both need memory
+        return 2 * numBytes < available;
+    }
+
+    /**
+     * Decodes the given region at full resolution. The tiles that were
+     * decoded previously are taken from the cache, and the missing
+     * tiles are decoded with a single read of their bounding rectangle.
+     */
+    public BufferedImage readRegion(Rectangle region) throws IOException {
+        assert calledOutsideEDT() : "on EDT";
+
+        region = region.intersection(getBounds());
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("region = " + region);
+        }
+
+        int firstCol = region.x / TILE_SIZE;
+        int lastCol = (region.x + region.width - 1) / TILE_SIZE;
+        int firstRow = region.y / TILE_SIZE;
+        int lastRow = (region.y + region.height - 1) / TILE_SIZE;
+
+        // the tiles are collected first, because if the region is
+        // bigger than the cache, some of them could be evicted
+        Map<Point, BufferedImage> tiles = new HashMap<>();
+        synchronized (tileCache) {
+            Rectangle missing = null;
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int col = firstCol; col <= lastCol; col++) {
+                    Point key = new Point(col, row);
+                    BufferedImage tile = tileCache.get(key);
+                    if (tile != null) {
+                        tiles.put(key, tile);
+                    } else {
+                        Rectangle tileBounds = getTileBounds(col, row);
+                        missing = missing == null ? tileBounds : missing.union(tileBounds);
+                    }
+                }
+            }
+            if (missing != null) {
+                decodeTiles(missing, tiles);
+            }
+        }
+
+        var result = ImageUtils.createSysCompatibleImage(region.width, region.height);
+        Graphics2D g = result.createGraphics();
+        g.translate(-region.x, -region.y);
+        tiles.forEach((key, tile) ->
+            g.drawImage(tile, key.x * TILE_SIZE, key.y * TILE_SIZE, null));
+        g.dispose();
+
+        return result;
+    }
+
+    /**
+     * Decodes the tiles in the given tile-aligned area with a single
+     * read, and adds the ones that aren't already present to the cache
+     * and to the given map.
+     */
+    private void decodeTiles(Rectangle area, Map<Point, BufferedImage> tiles) throws IOException {
+        BufferedImage decoded = decode(area, 1);
+        for (int row = area.y / TILE_SIZE; row * TILE_SIZE < area.y + area.height; row++) {
+            for (int col = area.x / TILE_SIZE; col * TILE_SIZE < area.x + area.width; col++) {
+                Point key = new Point(col, row);
+                if (tiles.containsKey(key)) {
+                    continue;
+                }
+                Rectangle tileBounds = getTileBounds(col, row);
+                tileBounds.translate(-area.x, -area.y);
+                BufferedImage tile = copyTile(decoded, tileBounds);
+                tiles.put(key, tile);
+                addToCache(key, tile);
+            }
+        }
+    }
+
+    /**
+     * Copies an area of the decoded image into a new image with the same
+     * color model, so that the tile doesn't keep the whole decoded area in memory
+     */
+    private static BufferedImage copyTile(BufferedImage decoded, Rectangle bounds) {
+        Raster src = decoded.getRaster().createChild(bounds.x, bounds.y,
+            bounds.width, bounds.height, 0, 0, null);
+        WritableRaster raster = src.createCompatibleWritableRaster();
+        raster.setRect(src);
+        return new BufferedImage(decoded.getColorModel(), raster,
+            decoded.isAlphaPremultiplied(), null);
+    }
+
+    private void addToCache(Point key, BufferedImage tile) {
+        tileCache.put(key, tile);
+        cacheBytes += tileBytes(tile);
+
+        // evict the least recently used tiles, but keep the new one
+        var it = tileCache.entrySet().iterator();
+        while (cacheBytes > maxCacheBytes && tileCache.size() > 1) {
+            var eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                break;
+            }
+            cacheBytes -= tileBytes(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    // an estimate, the tiles are stored in the decoded format
+    private static long tileBytes(BufferedImage tile) {
+        return 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    private Rectangle getTileBounds(int col, int row) {
+        var tileBounds = new Rectangle(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        return tileBounds.intersection(getBounds());
+    }
+
+    /**
+     * Decodes the given source region (or the whole
+     * image, if it's null) with the given subsampling
+     */
+    private BufferedImage decode(Rectangle sourceRegion, int sampling) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) {
+                throw new DecodingException(file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new DecodingException(file);
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (sourceRegion != null) {
+                    param.setSourceRegion(sourceRegion);
+                }
+                if (sampling > 1) {
+                    param.setSourceSubsampling(sampling, sampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getNumCachedTiles() {
+        synchronized (tileCache) {
+            return tileCache.size();
+        }
+    }
+
+    public Rectangle getBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
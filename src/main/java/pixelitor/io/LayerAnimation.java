@@ -19,26 +19,40 @@ package pixelitor.io;
 
 import pd.AnimatedGifEncoder;
 import pixelitor.Composition;
-import pixelitor.gui.utils.GUIUtils;
+import pixelitor.ThreadPool;
 import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
 import pixelitor.layers.TextLayer;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static pixelitor.utils.Threads.calledOutsideEDT;
+import static pixelitor.utils.Threads.onEDT;
+import static pixelitor.utils.Threads.onIOThread;
 
 /**
  * A layer animation (an animation based on the layers of a composition)
  */
 public class LayerAnimation {
+    // the maximum number of frames used for training the global palette
+    private static final int MAX_PALETTE_SAMPLES = 8;
+
     private final int delayMillis;
+    private final boolean globalPalette;
     private final List<BufferedImage> images = new ArrayList<>();
 
-    public LayerAnimation(Composition comp, int delayMillis, boolean pingPong) {
+    public LayerAnimation(Composition comp, int delayMillis,
+                          boolean pingPong, boolean globalPalette) {
         this.delayMillis = delayMillis;
+        this.globalPalette = globalPalette;
         addComposition(comp, pingPong);
     }
 
@@ -58,11 +72,13 @@ public class LayerAnimation {
         Layer layer = comp.getLayer(layerIndex);
         if (layer instanceof ImageLayer) {
             ImageLayer imageLayer = (ImageLayer) layer;
-            BufferedImage image = imageLayer.getCanvasSizedSubImage();
+            // copied, because the frames are encoded on another
+            // thread, while the layer can be edited
+            BufferedImage image = ImageUtils.copyImage(
+                imageLayer.getCanvasSizedSubImage());
 
             if (layer.hasMask()) {
                 // TODO probably problems with translation
-                image = ImageUtils.copyImage(image);
                 layer.getMask().applyToImage(image);
             }
 
@@ -75,19 +91,58 @@ public class LayerAnimation {
         }
     }
 
-    private void export(File f) {
+    private void export(File f) throws IOException {
+        assert calledOutsideEDT() : "on EDT";
+
         AnimatedGifEncoder e = new AnimatedGifEncoder();
-        e.start(f);
+        if (!e.start(f)) {
+            throw new IOException("could not create " + f.getAbsolutePath());
+        }
         e.setDelay(delayMillis);
         e.setRepeat(0);
-        images.forEach(e::addFrame);
+        e.setParallel(ThreadPool.getExecutor(),
+            Runtime.getRuntime().availableProcessors());
+        e.setFrameDifferencing(true);
+        if (globalPalette) {
+            e.setGlobalPalette(selectPaletteSamples());
+        }
+        for (BufferedImage image : images) {
+            if (!e.addFrame(image)) {
+                e.cancel();
+                throw new IOException("could not write a frame");
+            }
+        }
         e.finish();
     }
 
-    public void saveToFile(File selectedFile) {
+    /**
+     * Selects evenly spaced frames for training the global palette.
+     * The ping-pong frames are repeated, but that's not a problem.
+     */
+    private List<BufferedImage> selectPaletteSamples() {
+        int numImages = images.size();
+        if (numImages <= MAX_PALETTE_SAMPLES) {
+            return images;
+        }
+        List<BufferedImage> samples = new ArrayList<>(MAX_PALETTE_SAMPLES);
+        for (int i = 0; i < MAX_PALETTE_SAMPLES; i++) {
+            samples.add(images.get(i * numImages / MAX_PALETTE_SAMPLES));
+        }
+        return samples;
+    }
+
+    public void saveToFileAsync(File selectedFile) {
         assert selectedFile != null;
 
-        Runnable r = () -> export(selectedFile);
-        GUIUtils.runWithBusyCursor(r);
+        CompletableFuture
+            .runAsync(() -> {
+                try {
+                    export(selectedFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, onIOThread)
+            .thenRunAsync(() -> Messages.showFileSavedMessage(selectedFile), onEDT)
+            .exceptionally(Messages::showExceptionOnEDT);
     }
 }
@@ -24,6 +24,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import pixelitor.Composition;
+import pixelitor.ThreadPool;
 import pixelitor.layers.BlendingMode;
 import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
@@ -34,6 +35,8 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -49,93 +52,129 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class OpenRaster {
     private static final String MERGED_IMAGE_NAME = "mergedimage.png";
 
+    // the maximum number of layers that are encoded, but not yet written
+    private static final int MAX_PENDING_PNGS = Runtime.getRuntime().availableProcessors();
+
     private OpenRaster() {
     }
 
-    public static void uncheckedWrite(Composition comp, File outFile, boolean addMergedImage) {
-        try {
-            write(comp, outFile, addMergedImage);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    /**
+     * Returns a task that writes the given composition into an ORA file.
+     * The merged image is copied on the calling thread, because
+     * the composite image can be updated in place on the EDT
+     * while the task is running on the IO thread.
+     */
+    public static Runnable createSaveTask(Composition comp, File outFile, boolean addMergedImage) {
+        BufferedImage mergedImage = addMergedImage
+            ? ImageUtils.copyImage(comp.getCompositeImage())
+            : null;
+        return () -> {
+            try {
+                write(comp, outFile, mergedImage);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
     }
 
     public static void write(Composition comp, File outFile, boolean addMergedImage) throws IOException {
-        var mainTracker = new StatusBarProgressTracker("Writing " + outFile.getName(), 100);
+        write(comp, outFile, addMergedImage ? comp.getCompositeImage() : null);
+    }
 
-        var fos = new FileOutputStream(outFile);
-        var zos = new ZipOutputStream(fos);
+    private static void write(Composition comp, File outFile, BufferedImage mergedImage) throws IOException {
+        boolean addMergedImage = mergedImage != null;
+        int numLayers = comp.getNumLayers();
+        int numImages = comp.getNumImageLayers();
+        if (addMergedImage) {
+            numImages++;
+        }
+        var mainTracker = new StatusBarProgressTracker(
+            "Writing " + outFile.getName(), Math.max(1, numImages));
 
-        String stackXML = format("""
+        var stackXML = new StringBuilder(format("""
             <?xml version='1.0' encoding='UTF-8'?>
             <image w="%d" h="%d">
             <stack>
-            """, comp.getCanvasWidth(), comp.getCanvasHeight());
-
-        int numLayers = comp.getNumLayers();
-        int numImageLayers = comp.getNumImageLayers();
-        if (addMergedImage) {
-            numImageLayers++;
-        }
-        double workRatio = 1.0 / numImageLayers;
+            """, comp.getCanvasWidth(), comp.getCanvasHeight()));
 
+        // The PNGs are encoded in parallel, and then written
+        // into the zip file in order, as they become ready.
         // Reverse iteration: in stack.xml the first element in a stack is the uppermost.
+        Map<String, BufferedImage> images = new LinkedHashMap<>();
         for (int i = numLayers - 1; i >= 0; i--) {
             Layer layer = comp.getLayer(i);
             if (layer instanceof ImageLayer) {
                 ImageLayer imageLayer = (ImageLayer) layer;
-                var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-                stackXML += writeLayer(imageLayer, i, zos, subTracker);
+                String entryName = format("data/%d.png", i);
+                stackXML.append(createLayerXML(imageLayer, entryName));
+                images.put(entryName, imageLayer.getImage());
             }
         }
-
         if (addMergedImage) {
-            zos.putNextEntry(new ZipEntry(MERGED_IMAGE_NAME));
-            var subTaskTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-            var img = comp.getCompositeImage();
-            TrackedIO.writeToStream(img, zos, "PNG", subTaskTracker);
-            zos.closeEntry();
+            images.put(MERGED_IMAGE_NAME, mergedImage);
         }
 
-        stackXML += "</stack>\n</image>";
+        stackXML.append("</stack>\n</image>");
+
+        // only a few encoded layers are kept in memory at the same time,
+        // the next ones are submitted as the finished ones are written
+        Iterator<BufferedImage> imagesToEncode = images.values().iterator();
+        Deque<Future<byte[]>> pngs = new ArrayDeque<>();
+        try (var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            for (String entryName : images.keySet()) {
+                while (pngs.size() < MAX_PENDING_PNGS && imagesToEncode.hasNext()) {
+                    pngs.addLast(encodePNGAsync(imagesToEncode.next()));
+                }
+                byte[] png = IOTasks.getResult(pngs.removeFirst());
+
+                // the PNG data is already compressed
+                zos.setLevel(Deflater.NO_COMPRESSION);
+                zos.putNextEntry(new ZipEntry(entryName));
+                zos.write(png);
+                zos.closeEntry();
 
-        // write the stack.xml file
-        zos.putNextEntry(new ZipEntry("stack.xml"));
-        zos.write(stackXML.getBytes(UTF_8));
-        zos.closeEntry();
+                mainTracker.unitDone();
+            }
+            zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+            // write the stack.xml file
+            zos.putNextEntry(new ZipEntry("stack.xml"));
+            zos.write(stackXML.toString().getBytes(UTF_8));
+            zos.closeEntry();
 
-        // write the mimetype
-        zos.putNextEntry(new ZipEntry("mimetype"));
-        zos.write("image/openraster".getBytes(UTF_8));
-        zos.closeEntry();
-        zos.close();
+            // write the mimetype
+            zos.putNextEntry(new ZipEntry("mimetype"));
+            zos.write("image/openraster".getBytes(UTF_8));
+            zos.closeEntry();
+        } finally {
+            // don't leave the encoding tasks running after a failure
+            for (Future<byte[]> png : pngs) {
+                png.cancel(false);
+            }
+        }
 
         mainTracker.finished();
     }
 
-    private static String writeLayer(ImageLayer layer,
-                                     int layerIndex,
-                                     ZipOutputStream zos,
-                                     ProgressTracker pt) throws IOException {
-        String stackXML = format(Locale.ENGLISH,
+    private static Future<byte[]> encodePNGAsync(BufferedImage image) {
+        return ThreadPool.submitSubtask(() -> {
+            var bos = new ByteArrayOutputStream();
+            TrackedIO.writeToStream(image, bos, "PNG", ProgressTracker.NULL_TRACKER);
+            return bos.toByteArray();
+        });
+    }
+
+    private static String createLayerXML(ImageLayer layer, String entryName) {
+        return format(Locale.ENGLISH,
             "<layer name=\"%s\" visibility=\"%s\" composite-op=\"%s\" " +
-                "opacity=\"%f\" src=\"data/%d.png\" x=\"%d\" y=\"%d\"/>\n",
+                "opacity=\"%f\" src=\"%s\" x=\"%d\" y=\"%d\"/>\n",
             layer.getName(),
             layer.getVisibilityAsORAString(),
             layer.getBlendingMode().toSVGName(),
             layer.getOpacity(),
-            layerIndex,
+            entryName,
             layer.getTx(),
             layer.getTy());
-
-        var entry = new ZipEntry(format("data/%d.png", layerIndex));
-        zos.putNextEntry(entry);
-        BufferedImage image = layer.getImage();
-
-        TrackedIO.writeToStream(image, zos, "PNG", pt);
-
-        zos.closeEntry();
-        return stackXML;
     }
 
     public static Composition read(File file) throws IOException, ParserConfigurationException, SAXException {
@@ -143,11 +182,9 @@ public class OpenRaster {
         var mainTracker = new StatusBarProgressTracker("Reading " + file.getName(), 100);
         Map<String, BufferedImage> images = new HashMap<>();
         try (ZipFile zipFile = new ZipFile(file)) {
-            // first iterate to count the image files...
-            int numImageFiles = countNumImageFiles(zipFile);
-            double workRatio = 1.0 / numImageFiles;
-
-            // ...then iterate again to actually read the files
+            // the layer images are decoded in parallel, because
+            // the zip file allows random access to the entries
+            Map<String, Future<BufferedImage>> futures = new LinkedHashMap<>();
             var fileEntries = zipFile.entries();
             while (fileEntries.hasMoreElements()) {
                 ZipEntry entry = fileEntries.nextElement();
@@ -158,12 +195,20 @@ public class OpenRaster {
                 } else if (name.equalsIgnoreCase(MERGED_IMAGE_NAME)) {
                     // no need for that
                 } else if (FileUtils.hasPNGExtension(name)) {
-                    var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-                    var stream = zipFile.getInputStream(entry);
-                    var image = TrackedIO.readFromStream(stream, subTracker);
-                    images.put(name, image);
+                    futures.put(name, ThreadPool.submitSubtask(() ->
+                        decodePNG(zipFile, entry)));
                 }
             }
+
+            int numImages = futures.size();
+            int numDone = 0;
+            for (var entry : futures.entrySet()) {
+                images.put(entry.getKey(), IOTasks.getResult(entry.getValue()));
+
+                // the main tracker expects 100 units
+                mainTracker.unitsDone((numDone + 1) * 100 / numImages - numDone * 100 / numImages);
+                numDone++;
+            }
         }
 
         if (stackXML == null) {
@@ -200,7 +245,6 @@ public class OpenRaster {
             String layerY = element.getAttribute("y");
 
             BufferedImage image = images.get(layerImageSource);
-            image = ImageUtils.toSysCompatibleImage(image);
 
             if (layerVisibility == null || layerVisibility.isEmpty()) {
                 //workaround: paint.net exported files use "visible" attribute instead of "visibility"
@@ -229,17 +273,12 @@ public class OpenRaster {
         return comp;
     }
 
-    private static int countNumImageFiles(ZipFile zipFile) {
-        Enumeration<? extends ZipEntry> fileEntries = zipFile.entries();
-        int numImageFiles = 0;
-        while (fileEntries.hasMoreElements()) {
-            ZipEntry entry = fileEntries.nextElement();
-            String name = entry.getName().toLowerCase();
-            if (name.endsWith("png") && !name.equals(MERGED_IMAGE_NAME)) {
-                numImageFiles++;
-            }
+    private static BufferedImage decodePNG(ZipFile zipFile, ZipEntry entry) throws IOException {
+        BufferedImage image;
+        try (var stream = zipFile.getInputStream(entry)) {
+            image = TrackedIO.readFromStream(stream, ProgressTracker.NULL_TRACKER);
         }
-        return numImageFiles;
+        return ImageUtils.toSysCompatibleImage(image);
     }
 
     private static Document loadXMLFromString(String xml)
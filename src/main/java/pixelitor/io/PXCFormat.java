@@ -18,6 +18,8 @@
 package pixelitor.io;
 
 import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.utils.Compression;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
@@ -25,6 +27,9 @@ import pixelitor.utils.SubtaskProgressTracker;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -35,29 +40,45 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 import static pixelitor.utils.ImageUtils.getPixelsAsArray;
 
 /**
  * PXC file format support.
+ *
+ * Since version 4 the serialized object data is not compressed as a whole,
+ * instead the image pixels are stored in horizontal strips, which are
+ * compressed and decompressed independently on multiple threads.
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
+
+    // In version 4 the image data starts with this marker.
+    // In version 3 it started with the width, which can't be negative.
+    private static final int STRIPS_MARKER = -1;
 
-    // tracks the reading-writing of the whole file
-    private static ProgressTracker mainPT;
+    // the approximate uncompressed size of an image strip
+    private static final int STRIP_BYTES = 1 << 20;
 
-    private static double workRatioForOneImage;
+    // Track the writing of the whole file. They are thread-local,
+    // because several files can be written at the same time
+    // in batch processing.
+    private static final ThreadLocal<ProgressTracker> writeTracker = new ThreadLocal<>();
+    private static final ThreadLocal<Double> workRatioForOneImage = new ThreadLocal<>();
 
     private PXCFormat() {
     }
 
     public static Composition read(File file) throws NotPxcFormatException {
         long fileSize = file.length();
-        mainPT = new StatusBarProgressTracker(
+        var mainPT = new StatusBarProgressTracker(
                 "Reading " + file.getName(), (int) fileSize);
         Composition comp = null;
         try (InputStream is = new ProgressTrackingInputStream(
@@ -85,19 +106,22 @@ public class PXCFormat {
                         .getName() + " is in an obsolete pxc format, " +
                         "it can only be opened in the old Pixelitor versions 0.9.9-1.1.2");
             }
-            if (versionByte > 3) {
+            if (versionByte > CURRENT_PXC_VERSION_NUMBER) {
                 throw new NotPxcFormatException(file.getName() + " has unknown version byte " + versionByte);
             }
 
-            try (GZIPInputStream gs = new GZIPInputStream(is)) {
-                try (ObjectInput ois = new ObjectInputStream(gs)) {
-                    comp = (Composition) ois.readObject();
-                    mainPT.finished();
-                    mainPT = null;
-                    
-                    // file is transient in Composition because the pxc file can be renamed
-                    comp.setFile(file);
-                }
+            InputStream dataStream;
+            if (versionByte == 3) { // the whole object stream is gzipped
+                dataStream = new GZIPInputStream(is);
+            } else { // only the image strips are compressed
+                dataStream = new BufferedInputStream(is);
+            }
+            try (ObjectInput ois = new ObjectInputStream(dataStream)) {
+                comp = (Composition) ois.readObject();
+                mainPT.finished();
+
+                // file is transient in Composition because the pxc file can be renamed
+                comp.setFile(file);
             }
         } catch (IOException | ClassNotFoundException e) {
             Messages.showException(e);
@@ -107,28 +131,29 @@ public class PXCFormat {
     }
 
     public static void write(Composition comp, File f) {
-        mainPT = new StatusBarProgressTracker(
+        var mainPT = new StatusBarProgressTracker(
                 "Writing " + f.getName(), 100);
+        writeTracker.set(mainPT);
         int numImages = comp.calcNumImages();
         if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
+            workRatioForOneImage.set(1.0 / numImages);
         } else {
-            workRatioForOneImage = -1;
+            workRatioForOneImage.set(-1.0);
         }
         try (FileOutputStream fos = new FileOutputStream(f)) {
             fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
 
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
-                }
+            try (ObjectOutput oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+                oos.writeObject(comp);
+                oos.flush();
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            writeTracker.remove();
+            workRatioForOneImage.remove();
         }
         mainPT.finished();
-        mainPT = null;
     }
 
     public static void serializeImage(ObjectOutputStream out,
@@ -138,34 +163,48 @@ public class PXCFormat {
         int imgWidth = img.getWidth();
         int imgHeight = img.getHeight();
 
+        out.writeInt(STRIPS_MARKER);
         out.writeInt(imgWidth);
         out.writeInt(imgHeight);
         out.writeInt(imgType);
 
+        int stripHeight = calcStripHeight(img);
+        out.writeInt(stripHeight);
+
+        // compress the strips in parallel...
+        boolean gray = imgType == TYPE_BYTE_GRAY;
+        int[] pixels = gray ? null : getPixelsAsArray(img);
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int startY = 0; startY < imgHeight; startY += stripHeight) {
+            int y = startY;
+            int endY = Math.min(startY + stripHeight, imgHeight);
+            futures.add(ThreadPool.submitSubtask(() -> Compression.deflate(
+                getStripBytes(img, pixels, y, endY), Deflater.DEFAULT_COMPRESSION)));
+        }
+
+        // ...and write them in order
         ProgressTracker pt = getImageTracker();
+        int numStrips = futures.size();
+        for (int i = 0; i < numStrips; i++) {
+            byte[] compressed = IOTasks.getResult(futures.get(i));
+            out.writeInt(compressed.length);
+            out.write(compressed);
 
-        if (imgType == TYPE_BYTE_GRAY) {
-            ImageIO.write(img, "PNG", out);
-        } else {
-            int[] pixels = getPixelsAsArray(img);
-            int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
-            for (int pixel : pixels) {
-                out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
-            }
+            // the tracker of an image expects 100 units
+            pt.unitsDone((i + 1) * 100 / numStrips - i * 100 / numStrips);
         }
     }
 
     // when deserializing, the progress tracking
     // is done at the InputStream level, not here
     public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
-        int width = in.readInt();
+        int firstInt = in.readInt();
+        if (firstInt == STRIPS_MARKER) {
+            return deserializeStrips(in);
+        }
+
+        // version 3 format: the first int is the width
+        int width = firstInt;
         int height = in.readInt();
         int type = in.readInt();
 
@@ -183,12 +222,88 @@ public class PXCFormat {
         }
     }
 
+    private static BufferedImage deserializeStrips(ObjectInputStream in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int type = in.readInt();
+        int stripHeight = in.readInt();
+        if (width <= 0 || height <= 0 || stripHeight <= 0) {
+            throw new IOException(String.format("invalid image data: width = %d, height = %d, strip height = %d",
+                width, height, stripHeight));
+        }
+
+        BufferedImage img = new BufferedImage(width, height, type);
+        boolean gray = type == TYPE_BYTE_GRAY;
+        int[] pixels = gray ? null : getPixelsAsArray(img);
+
+        // the strips are read sequentially, but they
+        // are decompressed in parallel while reading the next ones
+        List<Future<?>> futures = new ArrayList<>();
+        for (int startY = 0; startY < height; startY += stripHeight) {
+            int y = startY;
+            int endY = Math.min(startY + stripHeight, height);
+
+            byte[] compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+
+            futures.add(ThreadPool.submitSubtask(() -> {
+                byte[] stripBytes = Compression.inflate(compressed, calcStripSize(img, y, endY));
+                setStripBytes(img, pixels, y, endY, stripBytes);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            IOTasks.getResult(future);
+        }
+        return img;
+    }
+
+    private static int calcStripHeight(BufferedImage img) {
+        int bytesPerLine = img.getWidth() * getBytesPerPixel(img);
+        return Math.max(1, STRIP_BYTES / bytesPerLine);
+    }
+
+    private static int getBytesPerPixel(BufferedImage img) {
+        return img.getType() == TYPE_BYTE_GRAY ? 1 : 4;
+    }
+
+    private static int calcStripSize(BufferedImage img, int startY, int endY) {
+        return img.getWidth() * (endY - startY) * getBytesPerPixel(img);
+    }
+
+    private static byte[] getStripBytes(BufferedImage img, int[] pixels, int startY, int endY) {
+        int width = img.getWidth();
+        int numLines = endY - startY;
+        if (pixels == null) { // gray image
+            return (byte[]) img.getRaster().getDataElements(
+                0, startY, width, numLines, null);
+        }
+        int length = width * numLines;
+        var buffer = ByteBuffer.allocate(length * 4);
+        buffer.asIntBuffer().put(pixels, startY * width, length);
+        return buffer.array();
+    }
+
+    private static void setStripBytes(BufferedImage img, int[] pixels,
+                                      int startY, int endY, byte[] stripBytes) {
+        int width = img.getWidth();
+        int numLines = endY - startY;
+        if (pixels == null) { // gray image
+            WritableRaster raster = img.getRaster();
+            raster.setDataElements(0, startY, width, numLines, stripBytes);
+            return;
+        }
+        ByteBuffer.wrap(stripBytes).asIntBuffer()
+            .get(pixels, startY * width, width * numLines);
+    }
+
     private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
+        Double ratio = workRatioForOneImage.get();
+        if (ratio == null || ratio == -1) {
+            // a pxc without images, or not called from write
             return ProgressTracker.NULL_TRACKER;
         } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
+            return new SubtaskProgressTracker(ratio, writeTracker.get());
         }
     }
 }
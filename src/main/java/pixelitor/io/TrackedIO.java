@@ -24,6 +24,7 @@ import pixelitor.utils.*;
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.Iterator;
@@ -53,6 +54,38 @@ public class TrackedIO {
         }
     }
 
+    /**
+     * Writes a PNG file with the given deflate level (0-9). Lower
+     * levels are faster, but they create somewhat bigger files.
+     * The progress is not tracked, so this can be called for
+     * several files in parallel.
+     */
+    public static void writePNG(BufferedImage img,
+                                File file,
+                                int deflateLevel) throws IOException {
+        assert calledOutsideEDT() : "on EDT";
+        assert deflateLevel >= 0 && deflateLevel <= 9 : "deflateLevel = " + deflateLevel;
+
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(file)) {
+            if (ios == null) {
+                throwNoIOSErrorFor(file);
+            }
+            ImageWriter writer = findWriter(img, "PNG");
+            try {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                if (param.canWriteCompressed()) {
+                    // the PNG writer uses the deflate level 9 - round(9 * quality)
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality((9 - deflateLevel) / 9.0f);
+                }
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(img, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+    }
+
     public static void throwNoIOSErrorFor(File file) throws IOException {
         // createImageOutputStream swallows the original IO exception
         // for IO errors like "Access is denied" and returns null,
@@ -80,14 +113,7 @@ public class TrackedIO {
         assert calledOutsideEDT() : "on EDT";
         assert ios != null;
 
-        ImageTypeSpecifier type =
-            ImageTypeSpecifier.createFromRenderedImage(img);
-        Iterator<ImageWriter> writers = ImageIO.getImageWriters(type, formatName);
-
-        if (!writers.hasNext()) {
-            throw new IOException("No writer found for " + formatName);
-        }
-        ImageWriter writer = writers.next();
+        ImageWriter writer = findWriter(img, formatName);
         try {
             writer.setOutput(ios);
             writer.addIIOWriteProgressListener(new TrackerWriteProgressListener(tracker));
@@ -97,6 +123,18 @@ public class TrackedIO {
         }
     }
 
+    private static ImageWriter findWriter(BufferedImage img,
+                                          String formatName) throws IOException {
+        ImageTypeSpecifier type =
+            ImageTypeSpecifier.createFromRenderedImage(img);
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(type, formatName);
+
+        if (!writers.hasNext()) {
+            throw new IOException("No writer found for " + formatName);
+        }
+        return writers.next();
+    }
+
     /**
      * Reads an image from a file, and throws only runtime exceptions
      */
@@ -254,6 +292,30 @@ public class TrackedIO {
         return thumbInfo;
     }
 
+    /**
+     * Returns the size of the image in the given file by reading only
+     * the file header, or null if it can't be determined this way
+     */
+    public static Dimension readDimensions(File file) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     /**
      * Calculates the number of columns to advance between pixels while subsampling.
      * In order to preserve the aspect ratio, the same number is used
@@ -19,15 +19,22 @@ package pixelitor.layers;
 
 import pixelitor.Composition;
 import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.FilterParam;
 import pixelitor.filters.gui.FilterWithGUI;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Utils;
 
+import java.awt.AlphaComposite;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -41,6 +48,13 @@ public class AdjustmentLayer extends Layer {
 
     private final Filter filter;
 
+    // The last filter result, which remains valid as long as the
+    // layers bellow and the filter settings are unchanged,
+    // except for the in-place changes in the dirty input area.
+    private transient BufferedImage cachedResult;
+    private transient List<Object> cachedInputKey;
+    private transient Rectangle dirtyInputArea;
+
     public AdjustmentLayer(Composition comp, String name, Filter filter) {
         super(comp, name, null);
         this.filter = filter;
@@ -76,7 +90,108 @@ public class AdjustmentLayer extends Layer {
 
     @Override
     public BufferedImage actOnImageFromLayerBellow(BufferedImage src) {
-        return filter.transformImage(src);
+        List<Object> inputKey = createInputKey(src);
+        if (cachedResult == null || !inputKey.equals(cachedInputKey)) {
+            cacheResult(src, inputKey);
+        } else if (dirtyInputArea != null) {
+            if (filter.isPointOperation()) {
+                updateCachedResult(src, dirtyInputArea);
+            } else {
+                cacheResult(src, inputKey);
+            }
+        }
+        dirtyInputArea = null;
+
+        // not copied, see keepsAdjustedImage
+        return cachedResult;
+    }
+
+    @Override
+    protected boolean keepsAdjustedImage() {
+        return true;
+    }
+
+    /**
+     * Describes everything that the filter result depends on,
+     * except for the in-place pixel changes of the layers bellow,
+     * which are reported by {@link #inputChanged(Rectangle)}.
+     */
+    private List<Object> createInputKey(BufferedImage src) {
+        List<Object> key = new ArrayList<>();
+        key.add(src.getWidth());
+        key.add(src.getHeight());
+
+        int layerIndex = comp.getLayerIndex(this);
+        for (int i = 0; i < layerIndex; i++) {
+            comp.getLayer(i).addSnapshotKeyTo(key);
+        }
+
+        if (filter instanceof ParametrizedFilter) {
+            var paramSet = ((ParametrizedFilter) filter).getParamSet();
+            for (FilterParam param : paramSet.getParams()) {
+                key.add(param.getParamValue());
+            }
+        }
+        return key;
+    }
+
+    private void cacheResult(BufferedImage src, List<Object> inputKey) {
+        BufferedImage result = filter.transformImage(src);
+        if (result == src) {
+            // the source will be modified by the other layers
+            result = ImageUtils.copyImage(src);
+        }
+        if (cachedResult != null) {
+            cachedResult.flush();
+        }
+        cachedResult = result;
+        cachedInputKey = inputKey;
+    }
+
+    /**
+     * Transforms only the changed area, which is possible
+     * because the filter is a point operation.
+     */
+    private void updateCachedResult(BufferedImage src, Rectangle area) {
+        Rectangle bounds = area.intersection(
+            new Rectangle(0, 0, src.getWidth(), src.getHeight()));
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        BufferedImage changedInput = ImageUtils.getCopyOfSubimage(src, bounds);
+        BufferedImage changedResult = filter.transformImage(changedInput);
+
+        Graphics2D g = cachedResult.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(changedResult, bounds.x, bounds.y, null);
+        g.dispose();
+    }
+
+    /**
+     * Called when the pixels of a layer bellow this one were changed
+     * in the given canvas-space area, or everywhere if the area is null.
+     */
+    public void inputChanged(Rectangle changedArea) {
+        if (cachedResult == null) {
+            return;
+        }
+        if (changedArea == null) {
+            invalidateCache();
+        } else if (dirtyInputArea == null) {
+            dirtyInputArea = new Rectangle(changedArea);
+        } else {
+            dirtyInputArea.add(changedArea);
+        }
+    }
+
+    public void invalidateCache() {
+        if (cachedResult != null) {
+            cachedResult.flush();
+            cachedResult = null;
+        }
+        cachedInputKey = null;
+        dirtyInputArea = null;
     }
 
     @Override
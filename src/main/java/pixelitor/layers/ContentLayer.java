@@ -27,6 +27,7 @@ import pixelitor.history.PixelitorEdit;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
+import java.util.List;
 
 /**
  * A layer with a content (text or image layer) that
@@ -68,6 +69,13 @@ public abstract class ContentLayer extends Layer {
         return translationY + tmpTy;
     }
 
+    @Override
+    protected void addContentKeyTo(List<Object> key) {
+        super.addContentKeyTo(key);
+        key.add(getTx());
+        key.add(getTy());
+    }
+
     /**
      * Returns the layer bounding box relative to the canvas.
      * The returned rectangle must be trimmed from transparent pixels.
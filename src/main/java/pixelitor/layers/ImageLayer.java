@@ -39,6 +39,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import static java.awt.RenderingHints.KEY_INTERPOLATION;
@@ -405,6 +406,23 @@ public class ImageLayer extends ContentLayer implements Drawable {
         return visibleImage;
     }
 
+    @Override
+    protected void addContentKeyTo(List<Object> key) {
+        super.addContentKeyTo(key);
+        key.add(getVisibleImage());
+    }
+
+    @Override
+    protected Rectangle getPaintedBounds() {
+        if (tmpDrawingLayer != null) {
+            // a brush stroke can be anywhere on the canvas
+            return super.getPaintedBounds();
+        }
+        BufferedImage visibleImage = getVisibleImage();
+        return new Rectangle(getTx(), getTy(),
+            visibleImage.getWidth(), visibleImage.getHeight());
+    }
+
     // every image creation in this class should use this method
     // which is overridden by the LayerMask subclass
     // because normal image layers are enlarged with transparent pixels
@@ -558,17 +576,20 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert state == PREVIEW || state == SHOW_ORIGINAL;
         assert previewImage != null;
 
+        ImageEdit edit = null;
         if (imageContentChanged) {
-            var edit = new ImageEdit(filterName, comp, this,
+            edit = new ImageEdit(filterName, comp, this,
                 getSelectedSubImage(true),
                 false, true);
-            History.add(edit);
         }
 
         image = previewImage;
         imageRefChanged();
 
         if (imageContentChanged) {
+            // added only after the image change, so that
+            // the history can store only the changed tiles
+            History.add(edit);
             updateIconImage();
             invalidateTrimCache();
         }
@@ -1157,7 +1178,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // mess with the clipping of the original
             Graphics2D gCopy = (Graphics2D) g.create();
             gCopy.drawImage(visibleImage, getTx(), getTy(), null);
-            comp.applySelectionClipping(gCopy);
+            if (comp.hasSelection()) {
+                // intersect, because the composite might be painted in tiles
+                gCopy.clip(comp.getSelectionShape());
+            }
             Tools.SHAPES.paintOverActiveLayer(gCopy);
             gCopy.dispose();
         } else {
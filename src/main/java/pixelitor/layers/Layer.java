@@ -43,7 +43,6 @@ import java.util.function.Function;
 
 import static java.awt.AlphaComposite.DstIn;
 import static java.awt.AlphaComposite.SRC_OVER;
-import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static java.lang.String.format;
 import static pixelitor.utils.Threads.calledOnEDT;
 
@@ -85,6 +84,9 @@ public abstract class Layer implements Serializable {
 
     private transient List<LayerListener> listeners;
 
+    // created when the layer is first painted with a mask
+    private transient MaskedImageCache maskedImageCache;
+
     // unit tests use a different LayerUI implementation
     // by assigning a different UI factory
     public static Function<Layer, LayerUI> uiFactory = LayerButton::new;
@@ -463,10 +465,62 @@ public abstract class Layer implements Serializable {
         }
     }
 
+    /**
+     * Whether this is an adjustment layer or a watermarked text layer,
+     * which need the whole image painted so far
+     */
+    public boolean isAdjustment() {
+        return isAdjustment;
+    }
+
     private boolean useMask() {
         return mask != null && maskEnabled;
     }
 
+    /**
+     * Adds the state that determines the appearance of this layer
+     * in the composite image to the given key, which is used
+     * to detect the changes of the cached layer stack snapshots.
+     */
+    public void addSnapshotKeyTo(List<Object> key) {
+        key.add(this);
+        key.add(visible);
+        key.add(opacity);
+        key.add(blendingMode);
+        key.add(maskEnabled);
+        addContentKeyTo(key);
+        if (mask != null) {
+            mask.addContentKeyTo(key);
+        }
+    }
+
+    /**
+     * Adds the state that determines the pixels painted by this layer
+     * to the given key. In-place changes of the pixels are not
+     * represented, they are reported by {@link #pixelsChanged(Rectangle)}.
+     */
+    protected void addContentKeyTo(List<Object> key) {
+        // nothing on this level
+    }
+
+    /**
+     * Returns the canvas-space area where this layer can paint.
+     */
+    protected Rectangle getPaintedBounds() {
+        return comp.getCanvasBounds();
+    }
+
+    /**
+     * Called when the pixels of this layer or of its mask were changed
+     * in place in the given canvas-space area, or everywhere if the
+     * area is null.
+     */
+    public void pixelsChanged(Rectangle changedArea) {
+        if (maskedImageCache != null) {
+            maskedImageCache.invalidate(changedArea);
+        }
+    }
+
     /**
      * Applies the effect of this layer on the given Graphics2D
      * or on the given BufferedImage.
@@ -497,26 +551,35 @@ public abstract class Layer implements Serializable {
     public abstract void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer);
 
     /**
-     * Returns the masked image for the non-adjustment case.
-     * The returned image is canvas-sized, and the masks and the
+     * Paints the masked image for the non-adjustment case.
+     * The masked image is cached, and the masks and the
      * translations are taken into account
      */
     private void paintLayerOnGraphicsWithMask(Graphics2D g, boolean firstVisibleLayer) {
-        // 1. create the masked image
-        // TODO the masked image should be cached
-        var maskedImage = new BufferedImage(
-            comp.getCanvasWidth(), comp.getCanvasHeight(), TYPE_INT_ARGB);
-        Graphics2D mig = maskedImage.createGraphics();
-        paintLayerOnGraphics(mig, firstVisibleLayer);
-        mig.setComposite(DstIn);
-        mig.drawImage(mask.getTransparencyImage(),
-            mask.getTx(), mask.getTy(), null);
-        mig.dispose();
+        // 1. get the masked image
+        if (maskedImageCache == null) {
+            maskedImageCache = new MaskedImageCache(this);
+        }
+        BufferedImage maskedImage = maskedImageCache.get(firstVisibleLayer);
+        if (maskedImage == null) { // nothing is painted inside the canvas
+            return;
+        }
 
         // 2. paint the masked image onto the graphics
-//            g.drawImage(maskedImage, getTx(), getTy(), null);
         setupDrawingComposite(g, firstVisibleLayer);
-        g.drawImage(maskedImage, 0, 0, null);
+        Rectangle bounds = maskedImageCache.getBounds();
+        g.drawImage(maskedImage, bounds.x, bounds.y, null);
+    }
+
+    /**
+     * Paints this layer with the mask applied on the given
+     * Graphics, which is translated into canvas space.
+     */
+    void paintMasked(Graphics2D g, boolean firstVisibleLayer) {
+        paintLayerOnGraphics(g, firstVisibleLayer);
+        g.setComposite(DstIn);
+        g.drawImage(mask.getTransparencyImage(),
+            mask.getTx(), mask.getTy(), null);
     }
 
     /**
@@ -529,9 +592,21 @@ public abstract class Layer implements Serializable {
         }
         BufferedImage transformed = actOnImageFromLayerBellow(imgSoFar);
         if (useMask()) {
+            if (keepsAdjustedImage()) {
+                transformed = ImageUtils.copyImage(transformed);
+            }
             mask.applyToImage(transformed);
         }
         if (!useMask() && isNormalAndOpaque()) {
+            if (keepsAdjustedImage()) {
+                // the next layers paint on the returned image,
+                // so the kept image replaces the pixels of the source
+                Graphics2D g = imgSoFar.createGraphics();
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(transformed, 0, 0, null);
+                g.dispose();
+                return imgSoFar;
+            }
             return transformed;
         } else {
             Graphics2D g = imgSoFar.createGraphics();
@@ -547,6 +622,14 @@ public abstract class Layer implements Serializable {
      */
     protected abstract BufferedImage actOnImageFromLayerBellow(BufferedImage src);
 
+    /**
+     * Returns true if the image returned by actOnImageFromLayerBellow
+     * is kept by this layer, and therefore it must not be modified
+     */
+    protected boolean keepsAdjustedImage() {
+        return false;
+    }
+
     public abstract CompletableFuture<Void> resize(Dimension newSize);
 
     /**
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import pixelitor.tools.Tools;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * The cached image of a layer with its mask applied, sized
+ * to the area where the layer can paint inside the canvas.
+ * It is recreated if the layer image, the mask image, their
+ * translations or the link state change, and it is partially
+ * updated if the pixels are changed in place in a region.
+ */
+class MaskedImageCache {
+    private final Layer layer;
+
+    private BufferedImage image;
+    private Rectangle bounds;
+    private List<Object> key;
+    private Rectangle dirtyArea;
+
+    MaskedImageCache(Layer layer) {
+        this.layer = layer;
+    }
+
+    /**
+     * Returns the masked image, whose canvas-space position is
+     * given by {@link #getBounds()}, or null if the layer
+     * can't paint anything inside the canvas.
+     */
+    BufferedImage get(boolean firstVisibleLayer) {
+        Rectangle newBounds = layer.getPaintedBounds()
+            .intersection(layer.getComp().getCanvasBounds());
+        if (newBounds.isEmpty()) {
+            invalidate(null);
+            return null;
+        }
+
+        if (Tools.isShapesDrawing() && layer.isActive()) {
+            // the shapes are painted temporarily over the layer or its mask,
+            // therefore this is calculated every time
+            invalidate(null);
+            bounds = newBounds;
+            image = createImage(firstVisibleLayer);
+            key = null;
+            return image;
+        }
+
+        List<Object> newKey = createKey();
+        if (image == null || !newBounds.equals(bounds) || !newKey.equals(key)) {
+            flush();
+            bounds = newBounds;
+            key = newKey;
+            image = createImage(firstVisibleLayer);
+        } else if (dirtyArea != null) {
+            Rectangle area = dirtyArea.intersection(bounds);
+            if (!area.isEmpty()) {
+                update(area, firstVisibleLayer);
+            }
+        }
+        dirtyArea = null;
+
+        return image;
+    }
+
+    Rectangle getBounds() {
+        return bounds;
+    }
+
+    private List<Object> createKey() {
+        List<Object> newKey = new ArrayList<>();
+        layer.addContentKeyTo(newKey);
+
+        LayerMask mask = layer.getMask();
+        mask.addContentKeyTo(newKey);
+        newKey.add(mask.isLinked());
+        return newKey;
+    }
+
+    private BufferedImage createImage(boolean firstVisibleLayer) {
+        var img = new BufferedImage(bounds.width, bounds.height, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        layer.paintMasked(g, firstVisibleLayer);
+        g.dispose();
+        return img;
+    }
+
+    private void update(Rectangle area, boolean firstVisibleLayer) {
+        Graphics2D g = image.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(area);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.clip(area);
+        layer.paintMasked(g, firstVisibleLayer);
+        g.dispose();
+    }
+
+    /**
+     * Marks the given canvas-space area as changed,
+     * or the whole image if the area is null.
+     */
+    void invalidate(Rectangle changedArea) {
+        if (image == null) {
+            return;
+        }
+        if (changedArea == null) {
+            flush();
+        } else if (dirtyArea == null) {
+            dirtyArea = new Rectangle(changedArea);
+        } else {
+            dirtyArea.add(changedArea);
+        }
+    }
+
+    private void flush() {
+        if (image != null) {
+            image.flush();
+            image = null;
+        }
+        key = null;
+        dirtyArea = null;
+    }
+}
@@ -28,6 +28,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -72,6 +73,14 @@ public class SmartObject extends ContentLayer {
         return new SmartObject(comp, name);
     }
 
+    @Override
+    protected void addContentKeyTo(List<Object> key) {
+        super.addContentKeyTo(key);
+        // the content can change without notice, make
+        // sure that it is never considered unchanged
+        key.add(new Object());
+    }
+
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
         g.drawImage(content.getCompositeImage(), getTx(), getTy(), null);
@@ -40,6 +40,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import static org.jdesktop.swingx.painter.AbstractLayoutPainter.HorizontalAlignment.CENTER;
@@ -55,6 +56,10 @@ public class TextLayer extends ContentLayer {
     private transient TransformedTextPainter painter;
     private TextSettings settings;
 
+    // incremented at each settings change, because
+    // the settings object can also be modified in place
+    private transient int settingsVersion;
+
     public TextLayer(Composition comp) {
         this(comp, "");
     }
@@ -281,11 +286,19 @@ public class TextLayer extends ContentLayer {
 
     public void setSettings(TextSettings settings) {
         this.settings = settings;
+        settingsVersion++;
 
         isAdjustment = settings.isWatermark();
         settings.configurePainter(painter);
     }
 
+    @Override
+    protected void addContentKeyTo(List<Object> key) {
+        super.addContentKeyTo(key);
+        key.add(settings);
+        key.add(settingsVersion);
+    }
+
     public TextSettings getSettings() {
         return settings;
     }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.menus;
+
+import pixelitor.filters.Filter;
+import pixelitor.filters.util.FilterAction;
+import pixelitor.filters.util.FilterUtils;
+
+import javax.swing.*;
+import java.util.function.Supplier;
+
+/**
+ * Something that filter actions can be added to while the filter
+ * menus are built. The {@link #NO_MENU} instance only creates the
+ * filter actions (which register themselves in {@link FilterUtils}),
+ * without creating any menus or key strokes, and therefore
+ * it can be used also in a headless environment.
+ */
+public interface FilterMenu {
+    FilterMenu NO_MENU = new FilterMenu() {
+        @Override
+        public void addFilter(FilterAction fa) {
+            // the filter action is already registered
+        }
+
+        @Override
+        public void addFilter(FilterAction fa, Supplier<KeyStroke> keyStroke) {
+            // the key stroke is not needed
+        }
+
+        @Override
+        public void addSeparator() {
+        }
+
+        @Override
+        public FilterMenu addSubmenu(String name) {
+            return this;
+        }
+    };
+
+    void addFilter(FilterAction fa);
+
+    default void addFilter(String name, Supplier<Filter> supplier) {
+        addFilter(new FilterAction(name, supplier));
+    }
+
+    /**
+     * The key stroke is given by a supplier, because creating
+     * the key strokes requires the default toolkit.
+     */
+    void addFilter(FilterAction fa, Supplier<KeyStroke> keyStroke);
+
+    void addSeparator();
+
+    FilterMenu addSubmenu(String name);
+}
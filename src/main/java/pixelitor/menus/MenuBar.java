@@ -107,7 +107,7 @@ public class MenuBar extends JMenuBar {
         add(createLayerMenu(pw, texts));
         add(createSelectMenu(texts));
         add(createImageMenu(texts));
-        add(createColorMenu(texts));
+        add(createColorMenu());
         add(createFilterMenu(texts));
         add(createViewMenu(pw, texts));
 
@@ -118,6 +118,17 @@ public class MenuBar extends JMenuBar {
         add(createHelpMenu(pw, texts));
     }
 
+    /**
+     * Registers the filters in {@link FilterUtils} without creating
+     * the main window, the menus or the key strokes. Used by the
+     * command-line batch processing, which can run headless.
+     */
+    public static void registerFilters() {
+        ResourceBundle texts = Texts.getResources();
+        addColorFilters(FilterMenu.NO_MENU);
+        addFilterMenuFilters(FilterMenu.NO_MENU, texts);
+    }
+
     private static JMenu createFileMenu(PixelitorWindow pw, ResourceBundle texts) {
         // TODO adapt the mnemonic
         PMenu fileMenu = new PMenu(texts.getString("file"), 'F');
@@ -135,6 +146,13 @@ public class MenuBar extends JMenuBar {
             }
         }).alwaysEnabled().withKey(CTRL_O).add();
 
+        fileMenu.buildAction(new MenuAction("Open Large Image...") {
+            @Override
+            public void onClick() {
+                FileChoosers.openLargeImageAsync();
+            }
+        }).alwaysEnabled().add();
+
         // recent files
         JMenu recentFiles = RecentFilesMenu.getInstance();
         fileMenu.add(recentFiles);
@@ -612,6 +630,13 @@ public class MenuBar extends JMenuBar {
             }
         });
 
+        imageMenu.addAction(new MenuAction("Open Full Resolution Area") {
+            @Override
+            public void onClick() {
+                IO.openFullResolutionArea(getActiveComp());
+            }
+        });
+
         imageMenu.addSeparator();
 
         imageMenu.addAction(EnlargeCanvas.getAction());
@@ -648,50 +673,41 @@ public class MenuBar extends JMenuBar {
         return imageMenu;
     }
 
-    private static JMenu createColorMenu(ResourceBundle texts) {
+    private static JMenu createColorMenu() {
         PMenu colorsMenu = new PMenu(GUIText.COLOR, 'C');
 
-        colorsMenu.buildFilter(ColorBalance.NAME, ColorBalance::new)
-            .withKey(CTRL_B)
-            .add();
-        colorsMenu.buildFilter(HueSat.NAME, HueSat::new)
-            .withKey(CTRL_U)
-            .add();
-        colorsMenu.addFilter(Colorize.NAME, Colorize::new);
-        colorsMenu.buildFilter(Levels.NAME, Levels::new)
-            .withKey(CTRL_L)
-            .add();
-        colorsMenu.buildFilter(ToneCurvesFilter.NAME, ToneCurvesFilter::new)
-            .withKey(CTRL_M)
-            .add();
-        colorsMenu.addFilter(BrightnessContrast.NAME, BrightnessContrast::new);
-        colorsMenu.addFilter(Solarize.NAME, Solarize::new);
-        colorsMenu.addFilter(Sepia.NAME, Sepia::new);
-        colorsMenu.buildFilter(Invert.NAME, Invert::new)
-            .noGUI()
-            .withKey(CTRL_I)
-            .add();
-        colorsMenu.addFilter(ChannelInvert.NAME, ChannelInvert::new);
-        colorsMenu.addFilter(ChannelMixer.NAME, ChannelMixer::new);
-
-        colorsMenu.add(createExtractChannelsSubmenu());
-        colorsMenu.add(createReduceColorsSubmenu());
-        colorsMenu.add(createFillSubmenu(texts));
+        addColorFilters(colorsMenu);
 
         return colorsMenu;
     }
 
-    private static JMenu createExtractChannelsSubmenu() {
-        PMenu sub = new PMenu("Extract Channels");
+    private static void addColorFilters(FilterMenu menu) {
+        menu.addFilter(new FilterAction(ColorBalance.NAME, ColorBalance::new), () -> CTRL_B);
+        menu.addFilter(new FilterAction(HueSat.NAME, HueSat::new), () -> CTRL_U);
+        menu.addFilter(Colorize.NAME, Colorize::new);
+        menu.addFilter(new FilterAction(Levels.NAME, Levels::new), () -> CTRL_L);
+        menu.addFilter(new FilterAction(ToneCurvesFilter.NAME, ToneCurvesFilter::new), () -> CTRL_M);
+        menu.addFilter(BrightnessContrast.NAME, BrightnessContrast::new);
+        menu.addFilter(Solarize.NAME, Solarize::new);
+        menu.addFilter(Sepia.NAME, Sepia::new);
+        menu.addFilter(new FilterAction(Invert.NAME, Invert::new)
+            .withoutGUI(), () -> CTRL_I);
+        menu.addFilter(ChannelInvert.NAME, ChannelInvert::new);
+        menu.addFilter(ChannelMixer.NAME, ChannelMixer::new);
+
+        addExtractChannelFilters(menu.addSubmenu("Extract Channels"));
+        addReduceColorsFilters(menu.addSubmenu("Reduce Colors"));
+        addFillFilters(menu.addSubmenu(GUIText.FILL_WITH));
+    }
 
+    private static void addExtractChannelFilters(FilterMenu sub) {
         sub.addFilter("Extract Channel", ExtractChannel::new);
 
         sub.addSeparator();
 
-        sub.buildFilter(Luminosity.NAME, Luminosity::new)
-            .noGUI()
-            .extract()
-            .add();
+        sub.addFilter(new FilterAction(Luminosity.NAME, Luminosity::new)
+            .withoutGUI()
+            .withExtractChannelListName());
 
         sub.addFilter(ExtractChannelFilter.getValueChannelFA());
         sub.addFilter(ExtractChannelFilter.getDesaturateChannelFA());
@@ -701,13 +717,9 @@ public class MenuBar extends JMenuBar {
         sub.addFilter(ExtractChannelFilter.getHueChannelFA());
         sub.addFilter(ExtractChannelFilter.getHueInColorsChannelFA());
         sub.addFilter(ExtractChannelFilter.getSaturationChannelFA());
-
-        return sub;
     }
 
-    private static JMenu createReduceColorsSubmenu() {
-        PMenu sub = new PMenu("Reduce Colors");
-
+    private static void addReduceColorsFilters(FilterMenu sub) {
         sub.addFilter(JHQuantize.NAME, JHQuantize::new);
         sub.addFilter(Posterize.NAME, Posterize::new);
         sub.addFilter(Threshold.NAME, Threshold::new);
@@ -721,28 +733,17 @@ public class MenuBar extends JMenuBar {
         sub.addSeparator();
 
         sub.addFilter(JHDither.NAME, JHDither::new);
-
-        return sub;
     }
 
-    private static JMenu createFillSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(GUIText.FILL_WITH);
-
-        sub.buildFilter(FOREGROUND.asFillFilterAction())
-            .withKey(ALT_BACKSPACE)
-            .add();
-        sub.buildFilter(BACKGROUND.asFillFilterAction())
-            .withKey(CTRL_BACKSPACE)
-            .add();
+    private static void addFillFilters(FilterMenu sub) {
+        sub.addFilter(FOREGROUND.asFillFilterAction(), () -> ALT_BACKSPACE);
+        sub.addFilter(BACKGROUND.asFillFilterAction(), () -> CTRL_BACKSPACE);
         sub.addFilter(TRANSPARENT.asFillFilterAction());
 
-        sub.buildFilter(ColorWheel.NAME, ColorWheel::new)
-            .withFillListName()
-            .add();
-        sub.buildFilter(JHFourColorGradient.NAME, JHFourColorGradient::new)
-            .withFillListName().add();
-
-        return sub;
+        sub.addFilter(new FilterAction(ColorWheel.NAME, ColorWheel::new)
+            .withFillListName());
+        sub.addFilter(new FilterAction(JHFourColorGradient.NAME, JHFourColorGradient::new)
+            .withFillListName());
     }
 
     private static JMenu createFilterMenu(ResourceBundle texts) {
@@ -762,26 +763,28 @@ public class MenuBar extends JMenuBar {
 
         filterMenu.addSeparator();
 
-        filterMenu.add(createBlurSharpenSubmenu(texts));
-        filterMenu.add(createDistortSubmenu(texts));
-        filterMenu.add(createDisplaceSubmenu(texts));
-        filterMenu.add(createLightSubmenu(texts));
-        filterMenu.add(createNoiseSubmenu(texts));
-        filterMenu.add(createRenderSubmenu(texts));
-        filterMenu.add(createArtisticSubmenu(texts));
-        filterMenu.add(createFindEdgesSubmenu(texts));
-        filterMenu.add(createOtherSubmenu(texts));
-
-        // the text as filter is still useful for batch operations
-        filterMenu.addFilter("Text", TextFilter::new);
+        addFilterMenuFilters(filterMenu, texts);
 
         return filterMenu;
     }
 
-    private static JMenu createBlurSharpenSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("blur")
-            + "/" + texts.getString("sharpen"));
+    private static void addFilterMenuFilters(FilterMenu menu, ResourceBundle texts) {
+        addBlurSharpenFilters(menu.addSubmenu(texts.getString("blur")
+            + "/" + texts.getString("sharpen")));
+        addDistortFilters(menu.addSubmenu(texts.getString("distort")));
+        addDisplaceFilters(menu.addSubmenu(texts.getString("displace")));
+        addLightFilters(menu.addSubmenu(texts.getString("light")));
+        addNoiseFilters(menu.addSubmenu(texts.getString("noise")));
+        addRenderFilters(menu.addSubmenu(texts.getString("render")), texts);
+        addArtisticFilters(menu.addSubmenu(texts.getString("artistic")));
+        addFindEdgesFilters(menu.addSubmenu(texts.getString("find_edges")));
+        addOtherFilters(menu.addSubmenu("Other"));
+
+        // the text as filter is still useful for batch operations
+        menu.addFilter("Text", TextFilter::new);
+    }
 
+    private static void addBlurSharpenFilters(FilterMenu sub) {
         sub.addFilter(JHBoxBlur.NAME, JHBoxBlur::new);
         sub.addFilter(JHFocus.NAME, JHFocus::new);
         sub.addFilter(JHGaussianBlur.NAME, JHGaussianBlur::new);
@@ -791,13 +794,9 @@ public class MenuBar extends JMenuBar {
         sub.addFilter(SPIN_ZOOM_BLUR.createFilterAction());
         sub.addSeparator();
         sub.addFilter(JHUnsharpMask.NAME, JHUnsharpMask::new);
-
-        return sub;
     }
 
-    private static JMenu createDistortSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("distort"));
-
+    private static void addDistortFilters(FilterMenu sub) {
         sub.addFilter(JHSwirlPinchBulge.NAME, JHSwirlPinchBulge::new);
         sub.addFilter(CircleToSquare.NAME, CircleToSquare::new);
         sub.addFilter(JHPerspective.NAME, JHPerspective::new);
@@ -827,56 +826,39 @@ public class MenuBar extends JMenuBar {
         sub.addFilter(LittlePlanet.NAME, LittlePlanet::new);
         sub.addFilter(JHPolarCoordinates.NAME, JHPolarCoordinates::new);
         sub.addFilter(JHWrapAroundArc.NAME, JHWrapAroundArc::new);
-
-        return sub;
     }
 
-    private static JMenu createDisplaceSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("displace"));
-
+    private static void addDisplaceFilters(FilterMenu sub) {
         sub.addFilter(DrunkVision.NAME, DrunkVision::new);
         sub.addFilter(JHKaleidoscope.NAME, JHKaleidoscope::new);
         sub.addFilter(JHOffset.NAME, JHOffset::new);
         sub.addFilter(Mirror.NAME, Mirror::new);
         sub.addFilter(Slice.NAME, Slice::new);
         sub.addFilter(JHVideoFeedback.NAME, JHVideoFeedback::new);
-
-        return sub;
     }
 
-    private static JMenu createLightSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("light"));
-
+    private static void addLightFilters(FilterMenu sub) {
         sub.addFilter(Flashlight.NAME, Flashlight::new);
         sub.addFilter(JHGlint.NAME, JHGlint::new);
         sub.addFilter(JHGlow.NAME, JHGlow::new);
         sub.addFilter(JHRays.NAME, JHRays::new);
         sub.addFilter(JHSparkle.NAME, JHSparkle::new);
-
-        return sub;
     }
 
-    private static JMenu createNoiseSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("noise"));
-
-        sub.buildFilter(JHReduceNoise.NAME, JHReduceNoise::new)
-            .noGUI()
-            .add();
-        sub.buildFilter(JHMedian.NAME, JHMedian::new)
-            .noGUI()
-            .add();
+    private static void addNoiseFilters(FilterMenu sub) {
+        sub.addFilter(new FilterAction(JHReduceNoise.NAME, JHReduceNoise::new)
+            .withoutGUI());
+        sub.addFilter(new FilterAction(JHMedian.NAME, JHMedian::new)
+            .withoutGUI());
+        sub.addFilter(Median.NAME, Median::new);
 
         sub.addSeparator();
 
         sub.addFilter(AddNoise.NAME, AddNoise::new);
         sub.addFilter(JHPixelate.NAME, JHPixelate::new);
-
-        return sub;
     }
 
-    private static JMenu createRenderSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("render"));
-
+    private static void addRenderFilters(FilterMenu sub, ResourceBundle texts) {
         sub.addFilter(Clouds.NAME, Clouds::new);
         sub.addFilter(JHPlasma.NAME, JHPlasma::new);
         sub.addFilter(ValueNoise.NAME, ValueNoise::new);
@@ -892,16 +874,12 @@ public class MenuBar extends JMenuBar {
 
         sub.addSeparator();
 
-        sub.add(createRenderFractalsSubmenu(texts));
-        sub.add(createRenderGeometrySubmenu());
-        sub.add(createRenderShapesSubmenu());
-
-        return sub;
+        addRenderFractalsFilters(sub.addSubmenu(texts.getString("fractals")));
+        addRenderGeometryFilters(sub.addSubmenu("Geometry"));
+        addRenderShapesFilters(sub.addSubmenu("Shapes"));
     }
 
-    private static JMenu createRenderShapesSubmenu() {
-        PMenu sub = new PMenu("Shapes");
-
+    private static void addRenderShapesFilters(FilterMenu sub) {
         sub.addFilter("Flower of Life", FlowerOfLife::new);
         sub.addFilter("Grid", RenderGrid::new);
         sub.addFilter(Lissajous.NAME, Lissajous::new);
@@ -909,33 +887,21 @@ public class MenuBar extends JMenuBar {
         sub.addFilter(SpiderWeb.NAME, SpiderWeb::new);
         sub.addFilter(Spiral.NAME, Spiral::new);
         sub.addFilter("Spirograph", Spirograph::new);
-
-        return sub;
     }
 
-    private static JMenu createRenderFractalsSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("fractals"));
-
+    private static void addRenderFractalsFilters(FilterMenu sub) {
         sub.addFilter(ChaosGame.NAME, ChaosGame::new);
         sub.addFilter(FractalTree.NAME, FractalTree::new);
         sub.addFilter(JuliaSet.NAME, JuliaSet::new);
         sub.addFilter(MandelbrotSet.NAME, MandelbrotSet::new);
-
-        return sub;
     }
 
-    private static JMenu createRenderGeometrySubmenu() {
-        PMenu sub = new PMenu("Geometry");
-
+    private static void addRenderGeometryFilters(FilterMenu sub) {
         sub.addFilter(JHCheckerFilter.NAME, JHCheckerFilter::new);
         sub.addFilter(Starburst.NAME, Starburst::new);
-
-        return sub;
     }
 
-    private static JMenu createArtisticSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("artistic"));
-
+    private static void addArtisticFilters(FilterMenu sub) {
         sub.addFilter(JHCrystallize.NAME, JHCrystallize::new);
         sub.addFilter(JHEmboss.NAME, JHEmboss::new);
         sub.addFilter(JHOilPainting.NAME, JHOilPainting::new);
@@ -947,37 +913,24 @@ public class MenuBar extends JMenuBar {
         sub.addFilter(JHStamp.NAME, JHStamp::new);
         sub.addFilter(JHWeave.NAME, JHWeave::new);
 
-        sub.add(createHalftoneSubmenu());
-
-        return sub;
+        addHalftoneFilters(sub.addSubmenu("Halftone"));
     }
 
-    private static JMenu createHalftoneSubmenu() {
-        PMenu sub = new PMenu("Halftone");
-
+    private static void addHalftoneFilters(FilterMenu sub) {
         sub.addFilter(JHStripedHalftone.NAME, JHStripedHalftone::new);
         sub.addFilter(JHConcentricHalftone.NAME, JHConcentricHalftone::new);
         sub.addFilter(JHColorHalftone.NAME, JHColorHalftone::new);
-
-        return sub;
     }
 
-
-    private static JMenu createFindEdgesSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu(texts.getString("find_edges"));
-
+    private static void addFindEdgesFilters(FilterMenu sub) {
         sub.addFilter(JHConvolutionEdge.NAME, JHConvolutionEdge::new);
-        sub.addAction(new FilterAction(JHLaplacian.NAME, JHLaplacian::new)
+        sub.addFilter(new FilterAction(JHLaplacian.NAME, JHLaplacian::new)
             .withoutGUI());
         sub.addFilter(JHDifferenceOfGaussians.NAME, JHDifferenceOfGaussians::new);
         sub.addFilter("Canny", Canny::new);
-
-        return sub;
     }
 
-    private static JMenu createOtherSubmenu(ResourceBundle texts) {
-        PMenu sub = new PMenu("Other");
-
+    private static void addOtherFilters(FilterMenu sub) {
         sub.addFilter(JHDropShadow.NAME, JHDropShadow::new);
         sub.addFilter(Morphology.NAME, Morphology::new);
         sub.addFilter("Random Filter", RandomFilter::new);
@@ -992,11 +945,8 @@ public class MenuBar extends JMenuBar {
         sub.addSeparator();
 
         sub.addFilter(ChannelToTransparency.NAME, ChannelToTransparency::new);
-        sub.buildFilter(JHInvertTransparency.NAME, JHInvertTransparency::new)
-            .noGUI()
-            .add();
-
-        return sub;
+        sub.addFilter(new FilterAction(JHInvertTransparency.NAME, JHInvertTransparency::new)
+            .withoutGUI());
     }
 
     private static JMenu createViewMenu(PixelitorWindow pw, ResourceBundle texts) {
@@ -27,7 +27,7 @@ import java.util.function.Supplier;
 /**
  * A JMenu with some utility methods
  */
-public class PMenu extends JMenu {
+public class PMenu extends JMenu implements FilterMenu {
     public PMenu(String s) {
         super(s);
     }
@@ -67,6 +67,7 @@ public class PMenu extends JMenu {
     /**
      * Simple add for filter actions, no builder is needed in the simplest case
      */
+    @Override
     public void addFilter(String name, Supplier<Filter> supplier) {
         addFilter(new FilterAction(name, supplier));
     }
@@ -78,11 +79,24 @@ public class PMenu extends JMenu {
         addFilter(new FilterAction(name, op));
     }
 
+    @Override
     public void addFilter(FilterAction fa) {
         JMenuItem menuItem = EnabledIf.THERE_IS_OPEN_IMAGE.createMenuItem(fa);
         add(menuItem);
     }
 
+    @Override
+    public void addFilter(FilterAction fa, Supplier<KeyStroke> keyStroke) {
+        buildFilter(fa).withKey(keyStroke.get()).add();
+    }
+
+    @Override
+    public FilterMenu addSubmenu(String name) {
+        PMenu sub = new PMenu(name);
+        add(sub);
+        return sub;
+    }
+
     public FilterMenuItemBuilder buildFilter(String name, Supplier<Filter> supplier) {
         FilterAction fa = new FilterAction(name, supplier);
         return buildFilter(fa);
@@ -52,23 +52,25 @@ public class LayerAnimExport {
             .title("Export Animated GIF")
             .content(p)
             .okText("Export")
-            .okAction(() -> export(comp, p.getDelayMillis(), p.isPingPong()))
+            .okAction(() -> export(comp, p.getDelayMillis(),
+                p.isPingPong(), p.useGlobalPalette()))
             .show();
     }
 
-    private static void export(Composition activeComp, int delayMillis, boolean pingPong) {
+    private static void export(Composition activeComp, int delayMillis,
+                               boolean pingPong, boolean globalPalette) {
         File file = FileChoosers.selectSaveFileForSpecificFormat(gifFilter);
         if (file != null) {
             var animation = new LayerAnimation(activeComp,
-                delayMillis, pingPong);
-            animation.saveToFile(file);
-            Messages.showFileSavedMessage(file);
+                delayMillis, pingPong, globalPalette);
+            animation.saveToFileAsync(file);
         }
     }
 
     static class ExportPanel extends JPanel {
         private final JTextField delayTF;
         private final JCheckBox pingPongCB;
+        private final JCheckBox globalPaletteCB;
 
         public ExportPanel(int nrLayers) {
             setBorder(createEmptyBorder(10, 10, 10, 10));
@@ -91,6 +93,12 @@ public class LayerAnimExport {
                 pingPongCB.setEnabled(false);
             }
             add(pingPongCB);
+
+            globalPaletteCB = new JCheckBox("Same Colors in All Frames (Faster)");
+            globalPaletteCB.setToolTipText(
+                "<html>Use one palette for all frames instead of calculating a new one for each frame." +
+                    "<br>The colors can be worse if the layers are very different.");
+            add(globalPaletteCB);
         }
 
         private int getDelayMillis() {
@@ -100,5 +108,9 @@ public class LayerAnimExport {
         private boolean isPingPong() {
             return pingPongCB.isSelected();
         }
+
+        private boolean useGlobalPalette() {
+            return globalPaletteCB.isSelected();
+        }
     }
 }
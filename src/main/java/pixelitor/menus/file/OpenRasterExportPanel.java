@@ -92,7 +92,7 @@ public class OpenRasterExportPanel extends JPanel {
         File file = FileChoosers.selectSaveFileForSpecificFormat(FileChoosers.oraFilter);
         if (file != null) {
             boolean addMergedImage = p.exportMergedImage();
-            Runnable saveTask = () -> OpenRaster.uncheckedWrite(comp, file, addMergedImage);
+            Runnable saveTask = OpenRaster.createSaveTask(comp, file, addMergedImage);
             comp.saveAsync(saveTask, file, true);
         }
     }
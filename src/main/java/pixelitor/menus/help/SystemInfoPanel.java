@@ -18,6 +18,7 @@
 package pixelitor.menus.help;
 
 import pixelitor.gui.utils.GridBagHelper;
+import pixelitor.history.BackupStore;
 import pixelitor.utils.MemoryInfo;
 
 import javax.swing.*;
@@ -48,5 +49,6 @@ class SystemInfoPanel extends JPanel {
         gbh.addTwoLabels("Used Memory:", mi.getUsedMemory());
         gbh.addTwoLabels("Free Memory:", mi.getFreeMemory());
         gbh.addTwoLabels("Max Memory:", mi.getMaxMemory());
+        gbh.addTwoLabels("Undo Memory:", BackupStore.getUsageDescription());
     }
 }
@@ -61,4 +61,11 @@ public class NewGradientEdit extends PixelitorEdit {
 
         dr.updateIconImage();
     }
+
+    @Override
+    public void die() {
+        super.die();
+
+        imageEdit.die();
+    }
 }
@@ -28,6 +28,7 @@ import pixelitor.gui.utils.Theme;
 import pixelitor.gui.utils.Themes;
 import pixelitor.guides.GuideStrokeType;
 import pixelitor.guides.GuideStyle;
+import pixelitor.history.BackupStore;
 import pixelitor.history.History;
 import pixelitor.io.Dirs;
 import pixelitor.layers.LayerButtonLayout;
@@ -82,6 +83,7 @@ public final class AppPreferences {
     private static final String LAST_SAVE_DIR_KEY = "last_save_dir";
 
     private static final String UNDO_LEVELS_KEY = "undo_levels";
+    private static final String UNDO_MEMORY_KEY = "undo_memory";
     private static final String THUMB_SIZE_KEY = "thumb_size";
     private static final String LAST_TOOL_KEY = "last_tool";
     private static final String THEME_KEY = "theme";
@@ -295,6 +297,21 @@ public final class AppPreferences {
         mainNode.putInt(UNDO_LEVELS_KEY, History.getUndoLevels());
     }
 
+    /**
+     * Returns the memory budget of the undo backups in megabytes
+     */
+    public static int loadUndoMemory() {
+        int retVal = mainNode.getInt(UNDO_MEMORY_KEY, -1);
+        if (retVal == -1) {
+            return Utils.getMaxHeapInMegabytes() / 4;
+        }
+        return retVal;
+    }
+
+    private static void saveUndoMemory() {
+        mainNode.putInt(UNDO_MEMORY_KEY, BackupStore.getBudgetMB());
+    }
+
     public static int loadThumbSize() {
         return mainNode.getInt(THUMB_SIZE_KEY, LayerButtonLayout.SMALL_THUMB_SIZE);
     }
@@ -353,6 +370,7 @@ public final class AppPreferences {
         saveFgBgColors();
         WorkSpace.saveVisibility();
         saveUndoLevels();
+        saveUndoMemory();
         saveThumbSize();
         TipsOfTheDay.saveNextTipNr();
         saveNewImageSize();
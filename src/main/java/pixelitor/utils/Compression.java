@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Static utility methods for compressing byte arrays in memory
+ */
+public class Compression {
+    private Compression() {
+        // do not instantiate
+    }
+
+    /**
+     * Compresses the given data with the given {@link Deflater} level
+     */
+    public static byte[] deflate(byte[] data, int level) {
+        var deflater = new Deflater(level);
+        deflater.setInput(data);
+        deflater.finish();
+
+        var bos = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int numBytes = deflater.deflate(buffer);
+            bos.write(buffer, 0, numBytes);
+        }
+        deflater.end();
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decompresses data that was compressed into exactly the given number of bytes
+     */
+    public static byte[] inflate(byte[] compressed, int length) throws DataFormatException {
+        var inflater = new Inflater();
+        inflater.setInput(compressed);
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        while (offset < length && !inflater.finished()) {
+            int numBytes = inflater.inflate(result, offset, length - offset);
+            if (numBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            offset += numBytes;
+        }
+        inflater.end();
+
+        if (offset != length) {
+            throw new DataFormatException("expected " + length + " bytes, found " + offset);
+        }
+        return result;
+    }
+}
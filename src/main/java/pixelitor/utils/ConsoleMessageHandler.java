@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.layers.Layer;
+
+/**
+ * The MessageHandler used when Pixelitor runs from the
+ * command line, without a GUI. It prints the messages
+ * to the standard output and the errors to the standard error.
+ */
+public class ConsoleMessageHandler implements MessageHandler {
+    @Override
+    public void showInStatusBar(String msg) {
+        System.out.println(stripHTML(msg));
+    }
+
+    @Override
+    public ProgressHandler startProgress(String msg, int max) {
+        return ProgressHandler.EMPTY;
+    }
+
+    @Override
+    public void showInfo(String title, String msg) {
+        System.out.println(title + ": " + stripHTML(msg));
+    }
+
+    @Override
+    public void showError(String title, String msg) {
+        System.err.println(title + ": " + stripHTML(msg));
+    }
+
+    @Override
+    public void showNotImageLayerError(Layer layer) {
+        showError("Not an image layer", layer.getName() + " is not an image layer.");
+    }
+
+    @Override
+    public void showNotDrawableError(Layer layer) {
+        showError("Not a drawable layer", layer.getName() + " is not a drawable layer.");
+    }
+
+    @Override
+    public void showException(Throwable e) {
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showException(Throwable e, Thread srcThread) {
+        System.err.println("Exception in thread " + srcThread.getName());
+        e.printStackTrace();
+    }
+
+    @Override
+    public void showExceptionOnEDT(Throwable e) {
+        showException(e);
+    }
+
+    private static String stripHTML(String msg) {
+        return msg.replaceAll("<[^>]*>", "");
+    }
+}
@@ -29,8 +29,7 @@ import static pixelitor.filters.gui.ReseedActions.reseedByCalling;
  * here, and the actions reseed it.
  */
 public class ReseedSupport {
-    private static long seed = System.nanoTime();
-    private static final Random rand = new Random();
+    private static volatile long seed = System.nanoTime();
 
     private ReseedSupport() {
     }
@@ -41,10 +40,11 @@ public class ReseedSupport {
      * as before (when the filter execution is not started from
      * the "reseed" button).
      * This must be called at the beginning of the filter.
+     * A new generator is returned for each call, so that
+     * several filter instances can run in parallel.
      */
     public static Random reInitialize() {
-        rand.setSeed(seed);
-        return rand;
+        return new Random(seed);
     }
 
     /**
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import static com.jhlabs.image.ConvolveFilter.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("Convolution tests")
+class ConvolutionTest {
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void chooseMethod() {
+        assertThat(Convolution.chooseMethod(createKernel(5, 5, false)))
+            .isEqualTo(Convolution.Method.DIRECT);
+        assertThat(Convolution.chooseMethod(createKernel(15, 9, true)))
+            .isEqualTo(Convolution.Method.SEPARABLE);
+        assertThat(Convolution.chooseMethod(createKernel(15, 9, false)))
+            .isEqualTo(Convolution.Method.FFT);
+    }
+
+    @Test
+    void separableMatchesBruteForce() {
+        Kernel kernel = createKernel(17, 11, true);
+        checkAgainstBruteForce(kernel, CLAMP_EDGES);
+        checkAgainstBruteForce(kernel, WRAP_EDGES);
+        checkAgainstBruteForce(kernel, ZERO_EDGES);
+    }
+
+    @Test
+    void fftMatchesBruteForce() {
+        Kernel kernel = createKernel(21, 13, false);
+        checkAgainstBruteForce(kernel, CLAMP_EDGES);
+        checkAgainstBruteForce(kernel, WRAP_EDGES);
+        checkAgainstBruteForce(kernel, ZERO_EDGES);
+    }
+
+    @Test
+    void fftWithKernelLargerThanImage() {
+        checkAgainstBruteForce(createKernel(101, 91, false), CLAMP_EDGES);
+    }
+
+    @Test
+    void directMatchesBruteForce() {
+        Kernel kernel = createKernel(5, 3, false);
+        checkAgainstBruteForce(kernel, CLAMP_EDGES);
+        checkAgainstBruteForce(kernel, WRAP_EDGES);
+        checkAgainstBruteForce(kernel, ZERO_EDGES);
+    }
+
+    @Test
+    void filterEdgesDoNotDependOnKernelSize() {
+        // the same kernel, padded with zeros to a size
+        // that isn't calculated with the direct method
+        Kernel small = createKernel(5, 5, false);
+        float[] smallMatrix = small.getKernelData(null);
+        float[] paddedMatrix = new float[9 * 9];
+        for (int y = 0; y < 5; y++) {
+            System.arraycopy(smallMatrix, y * 5, paddedMatrix, (y + 2) * 9 + 2, 5);
+        }
+        Kernel padded = new Kernel(9, 9, paddedMatrix);
+        assertThat(Convolution.chooseMethod(padded)).isNotEqualTo(Convolution.Method.DIRECT);
+
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        var filter = new ConvolveFilter("test");
+        filter.setProgressTracker(NULL_TRACKER);
+        for (int edgeAction : new int[]{CLAMP_EDGES, WRAP_EDGES, ZERO_EDGES}) {
+            int[] smallResult = new int[pixels.length];
+            int[] paddedResult = new int[pixels.length];
+            filter.convolve(small, pixels, smallResult, WIDTH, HEIGHT, true, edgeAction);
+            filter.convolve(padded, pixels, paddedResult, WIDTH, HEIGHT, true, edgeAction);
+
+            // the float rounding can differ between the methods
+            for (int i = 0; i < pixels.length; i++) {
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int diff = ((smallResult[i] >> shift) & 0xFF) - ((paddedResult[i] >> shift) & 0xFF);
+                    assertThat(Math.abs(diff)).isLessThanOrEqualTo(1);
+                }
+            }
+        }
+    }
+
+    private Kernel createKernel(int cols, int rows, boolean separable) {
+        float[] matrix = new float[cols * rows];
+        if (separable) {
+            float[] colVector = randomVector(rows);
+            float[] rowVector = randomVector(cols);
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < cols; x++) {
+                    matrix[y * cols + x] = colVector[y] * rowVector[x];
+                }
+            }
+        } else {
+            float[] values = randomVector(cols * rows);
+            System.arraycopy(values, 0, matrix, 0, matrix.length);
+        }
+        return new Kernel(cols, rows, matrix);
+    }
+
+    // random values, also negative ones, with a sum around 1
+    private float[] randomVector(int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (2 * random.nextFloat() - 0.5f) / length;
+        }
+        return vector;
+    }
+
+    private void checkAgainstBruteForce(Kernel kernel, int edgeAction) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        float[][] result = Convolution.convolveChannels(kernel, pixels, WIDTH, HEIGHT, edgeAction, NULL_TRACKER);
+
+        for (int channel = 0; channel < 4; channel++) {
+            float[] expected = bruteForce(kernel, pixels, edgeAction, 24 - 8 * channel);
+            for (int i = 0; i < expected.length; i++) {
+                assertThat(result[channel][i]).isCloseTo(expected[i], within(0.01f));
+            }
+        }
+    }
+
+    private static float[] bruteForce(Kernel kernel, int[] pixels, int edgeAction, int shift) {
+        int cols = kernel.getWidth();
+        int rows = kernel.getHeight();
+        float[] matrix = kernel.getKernelData(null);
+
+        float[] result = new float[pixels.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                float sum = 0;
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        int ix = x + col - kernel.getXOrigin();
+                        int iy = y + row - kernel.getYOrigin();
+                        if (ix < 0 || ix >= WIDTH || iy < 0 || iy >= HEIGHT) {
+                            if (edgeAction == ZERO_EDGES) {
+                                continue;
+                            } else if (edgeAction == CLAMP_EDGES) {
+                                ix = Math.max(0, Math.min(WIDTH - 1, ix));
+                                iy = Math.max(0, Math.min(HEIGHT - 1, iy));
+                            } else {
+                                ix = Math.floorMod(ix, WIDTH);
+                                iy = Math.floorMod(iy, HEIGHT);
+                            }
+                        }
+                        sum += matrix[row * cols + col] * ((pixels[iy * WIDTH + ix] >> shift) & 0xFF);
+                    }
+                }
+                result[y * WIDTH + x] = sum;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("MotionBlurFilter tests")
+class MotionBlurFilterTest {
+    private static final int WIDTH = 231;
+    private static final int HEIGHT = 173;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void convolutionMatchesPerPixelCalculation() {
+        BufferedImage src = createImage();
+        // near the axes the samples are almost on integer coordinates,
+        // where a float transform of the pixel coordinates could round
+        // them differently from the convolution offsets
+        float[] angles = {0, 0.7f, 1.57f, 2.5f, 3.14f, -1.2f};
+        for (float angle : angles) {
+            for (boolean wrapEdges : new boolean[]{false, true}) {
+                int[] convolved = blur(src, angle, 60, wrapEdges, true);
+                int[] perPixel = blur(src, angle, 60, wrapEdges, false);
+
+                assertThat(convolved)
+                    .as("angle = %s, wrapEdges = %s", angle, wrapEdges)
+                    .isEqualTo(perPixel);
+            }
+        }
+    }
+
+    private static int[] blur(BufferedImage src, float angle, float distance,
+                              boolean wrapEdges, boolean convolution) {
+        var filter = new MotionBlurFilter("test");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setAngle(angle);
+        filter.setDistance(distance);
+        filter.setWrapEdges(wrapEdges);
+        filter.setConvolutionEnabled(convolution);
+
+        BufferedImage dst = filter.filter(src, null);
+        return dst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+    }
+
+    private BufferedImage createImage() {
+        var img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.Kernel;
+import java.util.Random;
+
+import static com.jhlabs.image.ConvolveFilter.CLAMP_EDGES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("RecursiveGaussian tests")
+class RecursiveGaussianTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    @Test
+    void staysCloseToTheKernel() {
+        int[] src = createTestPixels();
+        for (float radius : new float[]{20, 45, 120}) {
+            checkRadius(src, radius);
+        }
+    }
+
+    private static void checkRadius(int[] src, float radius) {
+        int[] expected = src.clone();
+        int[] tmp = new int[src.length];
+        Kernel kernel = GaussianFilter.makeKernel(radius);
+        GaussianFilter.convolveAndTranspose(kernel, expected, tmp, WIDTH, HEIGHT,
+            true, false, false, CLAMP_EDGES, NULL_TRACKER);
+        GaussianFilter.convolveAndTranspose(kernel, tmp, expected, HEIGHT, WIDTH,
+            true, false, false, CLAMP_EDGES, NULL_TRACKER);
+
+        int[] actual = src.clone();
+        RecursiveGaussian.blurAndTranspose(radius, actual, tmp, WIDTH, HEIGHT,
+            true, false, false, NULL_TRACKER);
+        RecursiveGaussian.blurAndTranspose(radius, tmp, actual, HEIGHT, WIDTH,
+            true, false, false, NULL_TRACKER);
+
+        int maxDiff = 0;
+        long sumDiff = 0;
+        for (int i = 0; i < src.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = Math.abs(((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF));
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+        }
+        assertThat(maxDiff).as("radius = " + radius).isLessThanOrEqualTo(6);
+        assertThat(sumDiff / (4.0 * src.length)).as("radius = " + radius).isLessThan(1.0);
+    }
+
+    /**
+     * A gradient with a sharp-edged rectangle and random noise
+     */
+    private static int[] createTestPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int rgb;
+                if (random.nextInt(20) == 0) {
+                    rgb = random.nextInt();
+                } else if (x > 80 && x < 200 && y > 50 && y < 150) {
+                    rgb = 0xFF_FF_FF_FF;
+                } else {
+                    rgb = 0xFF_00_00_00 | (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT);
+                }
+                pixels[y * WIDTH + x] = rgb;
+            }
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.math;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@DisplayName("FFT tests")
+class FFTTest {
+    private final Random random = new Random(42);
+
+    @Test
+    void realTransformMatchesComplexTransform() {
+        checkRealTransform(8, 8);
+        checkRealTransform(64, 16);
+        checkRealTransform(4, 32);
+        checkRealTransform(8, 1);
+        checkRealTransform(1, 8);
+    }
+
+    private void checkRealTransform(int cols, int rows) {
+        float[] input = new float[cols * rows];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextFloat();
+        }
+        int logN = Integer.numberOfTrailingZeros(Math.max(cols, rows));
+
+        float[] expectedReal = input.clone();
+        float[] expectedImag = new float[input.length];
+        new FFT(logN).transform2D(expectedReal, expectedImag, cols, rows, true);
+
+        float[] real = new float[input.length];
+        float[] imag = new float[input.length];
+        new FFT(logN).transformReal2D(input, real, imag, cols, rows);
+
+        for (int i = 0; i < input.length; i++) {
+            assertThat(real[i]).isCloseTo(expectedReal[i], within(1.0e-4f));
+            assertThat(imag[i]).isCloseTo(expectedImag[i], within(1.0e-4f));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pd;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("AnimatedGifEncoder tests")
+class AnimatedGifEncoderTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int NUM_FRAMES = 6;
+
+    // the maximum difference of a color channel after the quantization
+    private static final int TOLERANCE = 12;
+
+    @Test
+    void parallelMatchesSequential(@TempDir Path dir) throws IOException {
+        List<BufferedImage> frames = createFrames();
+
+        for (boolean frameDiff : new boolean[]{false, true}) {
+            File sequential = encode(frames, dir.resolve("seq.gif"), false, frameDiff, false);
+            File parallel = encode(frames, dir.resolve("par.gif"), true, frameDiff, false);
+
+            assertThat(Files.readAllBytes(parallel.toPath()))
+                .as("frameDiff = %s", frameDiff)
+                .isEqualTo(Files.readAllBytes(sequential.toPath()));
+        }
+    }
+
+    @Test
+    void parallelRoundTrip(@TempDir Path dir) throws IOException {
+        List<BufferedImage> frames = createFrames();
+        File file = encode(frames, dir.resolve("full.gif"), true, false, false);
+
+        checkDecodedFrames(file, frames);
+    }
+
+    @Test
+    void parallelRoundTripWithFrameDifferencing(@TempDir Path dir) throws IOException {
+        List<BufferedImage> frames = createFrames();
+        // local palettes, as in the default export setup
+        File file = encode(frames, dir.resolve("diff.gif"), true, true, false);
+
+        checkDecodedFrames(file, frames);
+    }
+
+    @Test
+    void parallelRoundTripWithFrameDifferencingAndGlobalPalette(@TempDir Path dir) throws IOException {
+        List<BufferedImage> frames = createFrames();
+        File file = encode(frames, dir.resolve("diffGlobal.gif"), true, true, true);
+
+        checkDecodedFrames(file, frames);
+    }
+
+    /**
+     * Creates frames with a few flat colors and a moving square.
+     * The third frame is identical to the second one.
+     */
+    private static List<BufferedImage> createFrames() {
+        List<BufferedImage> frames = new ArrayList<>();
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            int squarePos = i == 2 ? 1 : i;
+
+            var frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = frame.createGraphics();
+            g.setColor(new Color(30, 60, 200));
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.setColor(new Color(250, 240, 40));
+            g.fillRect(0, HEIGHT / 2, WIDTH / 2, HEIGHT / 2);
+            g.setColor(new Color(220, 20, 30));
+            g.fillRect(4 + 7 * squarePos, 6 + 3 * squarePos, 12, 10);
+            g.dispose();
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static File encode(List<BufferedImage> frames, Path path, boolean parallel,
+                               boolean frameDiff, boolean globalPalette) {
+        File file = path.toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            var encoder = new AnimatedGifEncoder();
+            assertThat(encoder.start(file)).isTrue();
+            encoder.setDelay(100);
+            encoder.setRepeat(0);
+            if (parallel) {
+                encoder.setParallel(executor, 3);
+            }
+            encoder.setFrameDifferencing(frameDiff);
+            if (globalPalette) {
+                encoder.setGlobalPalette(frames);
+            }
+            for (BufferedImage frame : frames) {
+                assertThat(encoder.addFrame(frame)).isTrue();
+            }
+            encoder.finish();
+        } finally {
+            executor.shutdownNow();
+        }
+        return file;
+    }
+
+    /**
+     * Decodes the given file with ImageIO, draws the (possibly partial)
+     * frames over each other, and compares the results with the original frames
+     */
+    private static void checkDecodedFrames(File file,
+                                           List<BufferedImage> expected) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            reader.setInput(in);
+            assertThat(reader.getNumImages(true)).isEqualTo(expected.size());
+
+            var canvas = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            for (int i = 0; i < expected.size(); i++) {
+                BufferedImage decoded = reader.read(i);
+                Node descriptor = findChild(reader.getImageMetadata(i)
+                    .getAsTree("javax_imageio_gif_image_1.0"), "ImageDescriptor");
+                int x = intAttr(descriptor, "imageLeftPosition");
+                int y = intAttr(descriptor, "imageTopPosition");
+
+                Graphics2D g = canvas.createGraphics();
+                g.drawImage(decoded, x, y, null);
+                g.dispose();
+
+                checkSimilar(canvas, expected.get(i), i);
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static void checkSimilar(BufferedImage actual, BufferedImage expected, int frameIndex) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = actual.getRGB(x, y);
+                int e = expected.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int diff = Math.abs(((a >> shift) & 0xFF) - ((e >> shift) & 0xFF));
+                    assertThat(diff)
+                        .as("frame %d at (%d, %d)", frameIndex, x, y)
+                        .isLessThanOrEqualTo(TOLERANCE);
+                }
+            }
+        }
+    }
+
+    private static Node findChild(Node parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (name.equals(child.getNodeName())) {
+                return child;
+            }
+        }
+        throw new IllegalStateException(name + " not found");
+    }
+
+    private static int intAttr(Node node, String name) {
+        return Integer.parseInt(node.getAttributes().getNamedItem(name).getNodeValue());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompositeCache tests")
+class CompositeCacheTest {
+    private Composition comp;
+    private ImageLayer layer;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp(600, 300);
+        layer = TestHelper.createEmptyImageLayer(comp, "layer 1");
+        comp.addLayerInInitMode(layer);
+    }
+
+    @Test
+    void regionChangeUpdatesOnlyTheDirtyTiles() {
+        BufferedImage before = comp.getCompositeImage();
+
+        var g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(10, 10, 20, 20);
+        // paint also outside the changed area, this must not show up
+        g.fillRect(500, 200, 20, 20);
+        g.dispose();
+
+        comp.imageChanged(new Rectangle(10, 10, 20, 20));
+        BufferedImage after = comp.getCompositeImage();
+
+        // updated in place
+        assertThat(after).isSameAs(before);
+        assertThat(after.getRGB(15, 15)).isEqualTo(Color.RED.getRGB());
+        assertThat(after.getRGB(505, 205)).isZero();
+    }
+
+    @Test
+    void fullChangeRecalculatesEverything() {
+        BufferedImage before = comp.getCompositeImage();
+
+        var g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(500, 200, 20, 20);
+        g.dispose();
+
+        comp.imageChanged();
+        BufferedImage after = comp.getCompositeImage();
+
+        assertThat(after).isNotSameAs(before);
+        assertThat(after.getRGB(505, 205)).isEqualTo(Color.RED.getRGB());
+    }
+
+    @Test
+    void onlyTheVisibleTilesAreComposited() {
+        var g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 600, 300);
+        g.dispose();
+        comp.imageChanged();
+
+        BufferedImage partial = comp.getCompositeImage(1.0, new Rectangle(0, 0, 10, 10));
+        assertThat(partial.getRGB(5, 5)).isEqualTo(Color.RED.getRGB());
+        // the tile at the bottom right is not needed yet
+        assertThat(partial.getRGB(550, 280)).isZero();
+
+        BufferedImage full = comp.getCompositeImage();
+        assertThat(full).isSameAs(partial);
+        assertThat(full.getRGB(550, 280)).isEqualTo(Color.RED.getRGB());
+    }
+}
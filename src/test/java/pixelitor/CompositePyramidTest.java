@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompositePyramid tests")
+class CompositePyramidTest {
+    private Composition comp;
+    private ImageLayer layer;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp(64, 32);
+        layer = TestHelper.createEmptyImageLayer(comp, "layer 1");
+        comp.addLayerInInitMode(layer);
+    }
+
+    @Test
+    void levelSelection() {
+        assertThat(comp.getCompositeImage(1.0)).isSameAs(comp.getCompositeImage());
+        assertThat(comp.getCompositeImage(0.6)).isSameAs(comp.getCompositeImage());
+
+        BufferedImage half = comp.getCompositeImage(0.5);
+        assertThat(half.getWidth()).isEqualTo(32);
+        assertThat(half.getHeight()).isEqualTo(16);
+
+        BufferedImage eighth = comp.getCompositeImage(0.1);
+        assertThat(eighth.getWidth()).isEqualTo(8);
+        assertThat(eighth.getHeight()).isEqualTo(4);
+    }
+
+    @Test
+    void averaging() {
+        // every second column is white
+        BufferedImage img = layer.getImage();
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x += 2) {
+                img.setRGB(x, y, Color.WHITE.getRGB());
+            }
+        }
+        comp.imageChanged();
+
+        int pixel = comp.getCompositeImage(0.5).getRGB(3, 3);
+        assertThat(new Color(pixel, true).getAlpha()).isBetween(127, 128);
+    }
+
+    @Test
+    void regionUpdate() {
+        BufferedImage before = comp.getCompositeImage(0.25);
+        assertThat(before.getRGB(0, 0)).isZero();
+
+        var g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 4, 4);
+        g.dispose();
+        comp.imageChanged(new Rectangle(0, 0, 4, 4));
+
+        BufferedImage after = comp.getCompositeImage(0.25);
+        assertThat(after).isSameAs(before);
+        assertThat(after.getRGB(0, 0)).isEqualTo(Color.RED.getRGB());
+        assertThat(after.getRGB(5, 5)).isZero();
+    }
+}
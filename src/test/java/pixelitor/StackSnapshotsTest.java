@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.layers.MaskViewMode.NORMAL;
+
+@DisplayName("StackSnapshots tests")
+class StackSnapshotsTest {
+    private Composition comp;
+    private ImageLayer bottom;
+    private ImageLayer top;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp();
+
+        // two layers below and two layers above the active one
+        bottom = addLayer(Color.RED, 0);
+        addLayer(null, 0);
+        ImageLayer active = addLayer(null, 0);
+        addLayer(null, 0);
+        top = addLayer(Color.BLUE, 5);
+        NORMAL.activate(active);
+
+        // the second calculation creates the snapshots
+        comp.imageChanged();
+        comp.getCompositeImage();
+        comp.imageChanged();
+        comp.getCompositeImage();
+    }
+
+    private ImageLayer addLayer(Color color, int startX) {
+        BufferedImage img = TestHelper.createImage();
+        if (color != null) {
+            var g = img.createGraphics();
+            g.setColor(color);
+            g.fillRect(startX, 0, img.getWidth() - startX, img.getHeight());
+            g.dispose();
+        }
+        var layer = TestHelper.createImageLayer(comp, img, "layer");
+        comp.addLayerInInitMode(layer);
+        return layer;
+    }
+
+    private int compositeRGB(int x) {
+        comp.imageChanged();
+        return comp.getCompositeImage().getRGB(x, 0);
+    }
+
+    @Test
+    void snapshotsGiveTheSameResult() {
+        assertThat(compositeRGB(0)).isEqualTo(Color.RED.getRGB());
+        assertThat(compositeRGB(10)).isEqualTo(Color.BLUE.getRGB());
+    }
+
+    @Test
+    void visibilityChangeBelow() {
+        bottom.setVisible(false, false);
+        assertThat(compositeRGB(0)).isZero();
+    }
+
+    @Test
+    void visibilityChangeAbove() {
+        top.setVisible(false, false);
+        assertThat(compositeRGB(10)).isEqualTo(Color.RED.getRGB());
+    }
+
+    @Test
+    void layerOrderChange() {
+        // move the blue layer to the bottom
+        comp.changeLayerOrder(4, 0);
+        assertThat(compositeRGB(10)).isEqualTo(Color.RED.getRGB());
+    }
+
+    @Test
+    void explicitInvalidation() {
+        var g = bottom.getImage().createGraphics();
+        g.setColor(Color.GREEN);
+        g.fillRect(0, 0, 5, 5);
+        g.dispose();
+
+        comp.invalidateStackSnapshots();
+        assertThat(compositeRGB(0)).isEqualTo(Color.GREEN.getRGB());
+    }
+}
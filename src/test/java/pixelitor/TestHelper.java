@@ -47,6 +47,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import java.util.Random;
 
 import static java.awt.event.MouseEvent.*;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
@@ -150,6 +151,38 @@ public class TestHelper {
         return createImage().createGraphics();
     }
 
+    /**
+     * Creates an image with random (but reproducible) pixels
+     */
+    public static BufferedImage createRandomImage(int width, int height, int type) {
+        var img = new BufferedImage(width, height, type);
+        var rand = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, rand.nextInt());
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies the given image, keeping its type
+     */
+    public static BufferedImage copyOf(BufferedImage img) {
+        var copy = new BufferedImage(img.getWidth(), img.getHeight(), img.getType());
+        copy.setData(img.getData());
+        return copy;
+    }
+
+    public static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual.getType()).isEqualTo(expected.getType());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y)).isEqualTo(expected.getRGB(x, y));
+            }
+        }
+    }
+
     public static Layer createLayerOfClass(Class<?> layerClass, Composition comp) {
         Layer layer;
         if (layerClass.equals(ImageLayer.class)) {
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("ThreadPool tests")
+class ThreadPoolTest {
+    @Test
+    void parallelForVisitsEveryLineOnce() {
+        for (int numLines : new int[]{1, 2, 7, 100, 8001}) {
+            var visits = new AtomicIntegerArray(numLines);
+            var pt = new CountingTracker();
+
+            ThreadPool.parallelFor(numLines, visits::incrementAndGet, pt);
+
+            for (int y = 0; y < numLines; y++) {
+                assertThat(visits.get(y)).isEqualTo(1);
+            }
+            assertThat(pt.units).isEqualTo(numLines);
+        }
+    }
+
+    @Test
+    void stripsCoverTheRangeWithoutOverlap() {
+        int numLines = 1234;
+        // the assertions must run on the test thread, because
+        // failures inside the strips are only printed by the pool
+        Queue<int[]> strips = new ConcurrentLinkedQueue<>();
+
+        ThreadPool.parallelForStrips(numLines,
+            (startY, endY) -> strips.add(new int[]{startY, endY}),
+            ProgressTracker.NULL_TRACKER);
+
+        int[] visits = new int[numLines];
+        for (int[] strip : strips) {
+            assertThat(strip[0]).isLessThan(strip[1]);
+            for (int y = strip[0]; y < strip[1]; y++) {
+                visits[y]++;
+            }
+        }
+        assertThat(visits).containsOnly(1);
+    }
+
+    @Test
+    void stripsAreAtLeastMinLinesTall() {
+        int numLines = 1000;
+        int minLines = 71;
+        Queue<Integer> stripHeights = new ConcurrentLinkedQueue<>();
+
+        ThreadPool.parallelForStrips(numLines, minLines,
+            (startY, endY) -> stripHeights.add(endY - startY),
+            ProgressTracker.NULL_TRACKER);
+
+        assertThat(stripHeights).allSatisfy(height ->
+            assertThat(height).isGreaterThanOrEqualTo(minLines));
+        assertThat(stripHeights.stream().mapToInt(Integer::intValue).sum())
+            .isEqualTo(numLines);
+    }
+
+    @Test
+    void stripFailureIsRethrownAfterTheRunningStrips() {
+        var runningStrips = new AtomicInteger();
+
+        assertThatThrownBy(() -> ThreadPool.parallelForStrips(1000, (startY, endY) -> {
+            runningStrips.incrementAndGet();
+            try {
+                if (startY == 0) {
+                    throw new IllegalArgumentException("test");
+                }
+                Utils.sleep(10, MILLISECONDS);
+            } finally {
+                runningStrips.decrementAndGet();
+            }
+        }, ProgressTracker.NULL_TRACKER))
+            .isInstanceOf(CompletionException.class)
+            .hasCauseInstanceOf(IllegalArgumentException.class);
+
+        assertThat(runningStrips.get()).isZero();
+    }
+
+    @Test
+    void waitForRethrowsTheFailure() {
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(ThreadPool.submit(() -> {
+            throw new IllegalArgumentException("test");
+        }));
+        futures.add(ThreadPool.submit(() -> Utils.sleep(10, MILLISECONDS)));
+
+        assertThatThrownBy(() -> ThreadPool.waitFor(futures, ProgressTracker.NULL_TRACKER))
+            .isInstanceOf(CompletionException.class)
+            .hasCauseInstanceOf(IllegalArgumentException.class);
+        assertThat(futures).allMatch(Future::isDone);
+    }
+
+    @Test
+    void nestedCallsDoNotDeadlock() {
+        int outer = 50;
+        int inner = 50;
+        var visits = new AtomicIntegerArray(outer * inner);
+
+        ThreadPool.parallelFor(outer, y ->
+                ThreadPool.parallelFor(inner, x -> visits.incrementAndGet(y * inner + x),
+                        ProgressTracker.NULL_TRACKER), ProgressTracker.NULL_TRACKER);
+
+        for (int i = 0; i < visits.length(); i++) {
+            assertThat(visits.get(i)).isEqualTo(1);
+        }
+    }
+
+    // the tracker is only called from the waiting thread
+    private static class CountingTracker implements ProgressTracker {
+        private int units;
+
+        @Override
+        public void unitDone() {
+            units++;
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            this.units += units;
+        }
+
+        @Override
+        public void finished() {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.TestHelper;
+import pixelitor.automate.BatchProcessor.OverwriteAnswer;
+import pixelitor.compactions.Resize;
+import pixelitor.io.FileFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BatchProcessor tests")
+class BatchProcessorTest {
+    private static final List<String> INPUT_NAMES = List.of(
+        "jpeg_test_input.jpg", "png_test_input.png", "bmp_test_input.bmp");
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void resizeAndConvert(@TempDir Path inDir, @TempDir Path outDir) throws IOException {
+        List<File> inputs = copyInputs(inDir);
+        var resize = new Resize(20, 20, true);
+        var processor = new BatchProcessor(resize::processWithoutView,
+            outDir.toFile(), FileFormat.PNG).parallelFiles(2);
+
+        var result = processor.process(inputs);
+
+        assertThat(result.getFailures()).isEmpty();
+        assertThat(result.getNumProcessed()).isEqualTo(inputs.size());
+        for (String name : INPUT_NAMES) {
+            String outName = name.substring(0, name.lastIndexOf('.')) + ".png";
+            BufferedImage img = ImageIO.read(outDir.resolve(outName).toFile());
+            assertThat(img.getWidth()).isLessThanOrEqualTo(20);
+            assertThat(img.getHeight()).isLessThanOrEqualTo(20);
+            assertThat(Math.max(img.getWidth(), img.getHeight())).isEqualTo(20);
+        }
+    }
+
+    @Test
+    void existingOutputsAreSkipped(@TempDir Path inDir, @TempDir Path outDir) throws IOException {
+        List<File> inputs = copyInputs(inDir);
+        new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.PNG)
+            .process(inputs);
+
+        var result = new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.PNG)
+            .overwriteHandler(file -> OverwriteAnswer.NO)
+            .process(inputs);
+
+        assertThat(result.getNumProcessed()).isZero();
+        assertThat(result.getNumSkipped()).isEqualTo(inputs.size());
+    }
+
+    @Test
+    void upToDateOutputsAreSkipped(@TempDir Path inDir, @TempDir Path outDir) throws IOException {
+        List<File> inputs = copyInputs(inDir);
+        new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.PNG)
+            .process(inputs);
+
+        // make one input newer than its output
+        File changed = inputs.get(0);
+        assertThat(changed.setLastModified(System.currentTimeMillis() + 10_000)).isTrue();
+
+        var result = new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.PNG)
+            .skipUpToDate(true)
+            .overwriteHandler(file -> OverwriteAnswer.YES_TO_ALL)
+            .process(inputs);
+
+        assertThat(result.getNumProcessed()).isEqualTo(1);
+        assertThat(result.getNumSkipped()).isEqualTo(inputs.size() - 1);
+    }
+
+    @Test
+    void failuresDoNotStopTheBatch(@TempDir Path inDir, @TempDir Path outDir) throws IOException {
+        List<File> inputs = copyInputs(inDir);
+        Path corrupt = inDir.resolve("corrupt.png");
+        Files.write(corrupt, new byte[]{1, 2, 3});
+        inputs.add(0, corrupt.toFile());
+
+        var result = new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.JPG)
+            .memoryBudgetMB(1) // the files must be processed one by one
+            .process(inputs);
+
+        assertThat(result.getFailures()).containsOnlyKeys(corrupt.toFile());
+        assertThat(result.getNumProcessed()).isEqualTo(INPUT_NAMES.size());
+    }
+
+    @Test
+    void outputNameCollisionsAreReported(@TempDir Path inDir, @TempDir Path outDir) throws IOException {
+        Path png = inDir.resolve("same.png");
+        Path jpg = inDir.resolve("same.jpg");
+        Files.copy(Path.of("src/test/resources", "png_test_input.png"), png);
+        Files.copy(Path.of("src/test/resources", "jpeg_test_input.jpg"), jpg);
+
+        var result = new BatchProcessor(comp -> comp, outDir.toFile(), FileFormat.PNG)
+            .process(List.of(png.toFile(), jpg.toFile()));
+
+        assertThat(result.getNumProcessed()).isEqualTo(1);
+        assertThat(result.getFailures()).containsOnlyKeys(jpg.toFile());
+    }
+
+    private static List<File> copyInputs(Path dir) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String name : INPUT_NAMES) {
+            Path target = dir.resolve(name);
+            Files.copy(Path.of("src/test/resources", name), target);
+            files.add(target.toFile());
+        }
+        return files;
+    }
+}
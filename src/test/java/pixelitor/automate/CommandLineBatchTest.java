@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.Pixelitor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CommandLineBatch tests")
+class CommandLineBatchTest {
+    private static final String INPUT_NAME = "png_test_input.png";
+
+    @Test
+    void filterRunsHeadless(@TempDir Path inDir, @TempDir Path outDir)
+        throws IOException, InterruptedException {
+        Path input = inDir.resolve(INPUT_NAME);
+        Files.copy(Path.of("src/test/resources", INPUT_NAME), input);
+
+        // a separate JVM, because the headless mode can't be
+        // switched on after the AWT was initialized in this one
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(List.of(java,
+            "-Djava.awt.headless=true",
+            "-cp", System.getProperty("java.class.path"),
+            Pixelitor.class.getName(),
+            CommandLineBatch.BATCH_ARG,
+            "--filter", "Invert",
+            "--out", outDir.toString(),
+            input.toString()))
+            .redirectErrorStream(true)
+            .start();
+        // the output must be consumed, otherwise the child process can block
+        String output = new String(process.getInputStream().readAllBytes());
+
+        assertThat(process.waitFor(2, TimeUnit.MINUTES)).isTrue();
+        assertThat(process.exitValue()).as(output).isZero();
+
+        BufferedImage in = ImageIO.read(input.toFile());
+        File outFile = outDir.resolve(INPUT_NAME).toFile();
+        assertThat(outFile).exists();
+        BufferedImage out = ImageIO.read(outFile);
+        assertThat(out.getWidth()).isEqualTo(in.getWidth());
+        assertThat(out.getHeight()).isEqualTo(in.getHeight());
+        int x = in.getWidth() / 2;
+        int y = in.getHeight() / 2;
+        assertThat(out.getRGB(x, y) & 0xFF_FF_FF)
+            .isEqualTo(~in.getRGB(x, y) & 0xFF_FF_FF);
+    }
+}
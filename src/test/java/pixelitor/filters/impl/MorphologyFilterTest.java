@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.filters.impl.MorphologyFilter.*;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("MorphologyFilter tests")
+class MorphologyFilterTest {
+    private static final int WIDTH = 31;
+    private static final int HEIGHT = 19;
+
+    private final Random random = new Random(42);
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void squareMatchesBruteForce() {
+        checkAgainstBruteForce(KERNEL_SQUARE, 1);
+        checkAgainstBruteForce(KERNEL_SQUARE, 6);
+    }
+
+    @Test
+    void linesMatchBruteForce() {
+        checkAgainstBruteForce(KERNEL_HOR_LINE, 4);
+        checkAgainstBruteForce(KERNEL_VER_LINE, 7);
+    }
+
+    @Test
+    void diamondMatchesBruteForce() {
+        for (int radius = 1; radius <= 6; radius++) {
+            checkAgainstBruteForce(KERNEL_DIAMOND, radius);
+        }
+    }
+
+    @Test
+    void diskMatchesBruteForce() {
+        checkAgainstBruteForce(KERNEL_DISK, 3);
+        checkAgainstBruteForce(KERNEL_DISK, 8);
+        checkAgainstBruteForce(KERNEL_DISK, 25);
+    }
+
+    @Test
+    void openIsErodeThenDilate() {
+        int[] pixels = createPixels();
+        int[] eroded = bruteForce(pixels, KERNEL_DISK, 5, true);
+        int[] expected = bruteForce(eroded, KERNEL_DISK, 5, false);
+
+        assertThat(filter(pixels, OP_OPEN, KERNEL_DISK, 5)).isEqualTo(expected);
+    }
+
+    @Test
+    void gradientOfUniformImageIsBlack() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF_12_34_56);
+
+        int[] result = filter(pixels, OP_GRADIENT, KERNEL_SQUARE, 3);
+
+        assertThat(result).containsOnly(0xFF_00_00_00);
+    }
+
+    private void checkAgainstBruteForce(int kernel, int radius) {
+        int[] pixels = createPixels();
+        assertThat(filter(pixels, OP_ERODE, kernel, radius))
+            .isEqualTo(bruteForce(pixels, kernel, radius, true));
+        assertThat(filter(pixels, OP_DILATE, kernel, radius))
+            .isEqualTo(bruteForce(pixels, kernel, radius, false));
+    }
+
+    private static int[] filter(int[] pixels, int op, int kernel, int radius) {
+        var filter = new MorphologyFilter("test");
+        filter.setProgressTracker(NULL_TRACKER);
+        filter.setOp(op);
+        filter.setKernel(kernel);
+        filter.setRadius(radius);
+        return filter.filterPixels(WIDTH, HEIGHT, pixels.clone(), null);
+    }
+
+    private int[] createPixels() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static boolean isInKernel(int kernel, int radius, int dx, int dy) {
+        int absX = Math.abs(dx);
+        int absY = Math.abs(dy);
+        return switch (kernel) {
+            case KERNEL_SQUARE -> true;
+            case KERNEL_HOR_LINE -> dy == 0;
+            case KERNEL_VER_LINE -> dx == 0;
+            case KERNEL_DIAMOND -> absX + absY <= radius;
+            case KERNEL_DISK -> absX + absY <= 2 * radius
+                - 2 * calcDiskDiagonalRadius(radius);
+            default -> throw new IllegalStateException("kernel = " + kernel);
+        };
+    }
+
+    // the pixels outside the image are ignored
+    private static int[] bruteForce(int[] pixels, int kernel, int radius, boolean min) {
+        int[] result = new int[pixels.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int value = min ? 0xFF : 0;
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        for (int dx = -radius; dx <= radius; dx++) {
+                            int nx = x + dx;
+                            int ny = y + dy;
+                            if (nx < 0 || ny < 0 || nx >= WIDTH || ny >= HEIGHT
+                                || !isInKernel(kernel, radius, dx, dy)) {
+                                continue;
+                            }
+                            int channel = (pixels[ny * WIDTH + nx] >> shift) & 0xFF;
+                            value = min ? Math.min(value, channel) : Math.max(value, channel);
+                        }
+                    }
+                    result[y * WIDTH + x] |= value << shift;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("RankFilter tests")
+class RankFilterTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    private final Random random = new Random(42);
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void medianMatchesBruteForce() {
+        checkAgainstBruteForce(3, 50, false);
+        checkAgainstBruteForce(8, 50, true);
+    }
+
+    @Test
+    void minAndMaxMatchBruteForce() {
+        checkAgainstBruteForce(2, 0, true);
+        checkAgainstBruteForce(5, 100, false);
+    }
+
+    @Test
+    void otherPercentilesMatchBruteForce() {
+        checkAgainstBruteForce(4, 25, false);
+        checkAgainstBruteForce(1, 90, true);
+    }
+
+    @Test
+    void radiusLargerThanTheImage() {
+        checkAgainstBruteForce(40, 50, false);
+    }
+
+    @Test
+    void zeroRadiusCopies() {
+        int[] pixels = createPixels(false);
+
+        var filter = new RankFilter("test");
+        filter.setRadius(0);
+        int[] result = filter.rankPixels(WIDTH, HEIGHT, pixels, NULL_TRACKER);
+
+        assertThat(result).isEqualTo(pixels);
+    }
+
+    private void checkAgainstBruteForce(int radius, double percentile, boolean opaque) {
+        int[] pixels = createPixels(opaque);
+
+        var filter = new RankFilter("test");
+        filter.setRadius(radius);
+        filter.setPercentile(percentile);
+        int[] result = filter.rankPixels(WIDTH, HEIGHT, pixels, NULL_TRACKER);
+
+        int[] expected = bruteForce(pixels, radius, percentile);
+        assertThat(result).isEqualTo(expected);
+    }
+
+    private int[] createPixels(boolean opaque) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+            if (opaque) {
+                pixels[i] |= 0xFF_00_00_00;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] bruteForce(int[] pixels, int radius, double percentile) {
+        int windowSize = 2 * radius + 1;
+        int[] window = new int[windowSize * windowSize];
+        int rank = (int) Math.round(percentile / 100.0 * (window.length - 1));
+
+        int[] result = new int[pixels.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int i = 0;
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        int wy = Math.max(0, Math.min(HEIGHT - 1, y + dy));
+                        for (int dx = -radius; dx <= radius; dx++) {
+                            int wx = Math.max(0, Math.min(WIDTH - 1, x + dx));
+                            window[i++] = (pixels[wy * WIDTH + wx] >> shift) & 0xFF;
+                        }
+                    }
+                    Arrays.sort(window);
+                    result[y * WIDTH + x] |= window[rank] << shift;
+                }
+            }
+        }
+        return result;
+    }
+}
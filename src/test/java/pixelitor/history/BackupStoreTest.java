@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+
+import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.assertSamePixels;
+import static pixelitor.TestHelper.copyOf;
+import static pixelitor.TestHelper.createRandomImage;
+
+@DisplayName("BackupStore tests")
+class BackupStoreTest {
+    private int origBudgetMB;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        origBudgetMB = BackupStore.getBudgetMB();
+    }
+
+    @AfterEach
+    void afterEachTest() {
+        BackupStore.setBudgetMB(origBudgetMB);
+    }
+
+    @Test
+    void imageWithinBudgetStaysInHeap() {
+        BackupStore.setBudgetMB(100);
+        BufferedImage img = createRandomImage(20, 20, TYPE_INT_ARGB);
+
+        var backup = BackupStore.add(img);
+        BackupStore.trim();
+
+        assertThat(backup.isCompressed()).isFalse();
+        assertThat(backup.isSpilled()).isFalse();
+        assertThat(backup.getRaster()).isSameAs(img.getRaster());
+
+        backup.release();
+    }
+
+    @Test
+    void imageOverBudgetIsSpilled() {
+        BufferedImage img = createRandomImage(20, 20, TYPE_INT_ARGB);
+        BufferedImage copy = copyOf(img);
+        BackupStore.setBudgetMB(0);
+
+        var backup = BackupStore.add(img);
+        BackupStore.trim();
+
+        assertThat(backup.isSpilled()).isTrue();
+        assertSamePixels(backup.getImage(), copy);
+
+        long spilledBefore = BackupStore.getSpilledBytes();
+        backup.release();
+        assertThat(BackupStore.getSpilledBytes()).isLessThan(spilledBefore);
+    }
+
+    @Test
+    void grayRasterSurvivesCompression() {
+        BufferedImage img = createRandomImage(20, 20, TYPE_BYTE_GRAY);
+        var rect = new Rectangle(3, 5, 7, 9);
+        Raster raster = img.getData(rect);
+        BackupStore.setBudgetMB(0);
+
+        var backup = BackupStore.add(raster);
+        BackupStore.trim();
+
+        assertThat(backup.isSpilled()).isTrue();
+        Raster restored = backup.getRaster();
+        assertThat(restored.getBounds()).isEqualTo(rect);
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            for (int x = rect.x; x < rect.x + rect.width; x++) {
+                assertThat(restored.getSample(x, y, 0))
+                    .isEqualTo(raster.getSample(x, y, 0));
+            }
+        }
+
+        backup.release();
+    }
+}
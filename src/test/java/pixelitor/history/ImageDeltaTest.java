@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.TestHelper.assertSamePixels;
+import static pixelitor.TestHelper.copyOf;
+import static pixelitor.TestHelper.createRandomImage;
+import static pixelitor.history.ImageDelta.TILE_SIZE;
+
+@DisplayName("ImageDelta tests")
+class ImageDeltaTest {
+    private static final int WIDTH = 5 * TILE_SIZE;
+    private static final int HEIGHT = 3 * TILE_SIZE + 10;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void storesOnlyChangedTiles() {
+        BufferedImage before = createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage after = copyOf(before);
+        var g = after.createGraphics();
+        g.setColor(Color.RED);
+        // touches two tiles in the first row
+        g.fillRect(TILE_SIZE - 5, 10, 10, 10);
+        g.dispose();
+
+        var delta = ImageDelta.create(before, after);
+
+        assertThat(delta).isNotNull();
+        assertThat(delta.getNumChangedTiles()).isEqualTo(2);
+        assertThat(delta.getNumTiles()).isEqualTo(20);
+
+        BufferedImage recreated = delta.recreate(after);
+        assertSamePixels(recreated, before);
+
+        delta.release();
+    }
+
+    @Test
+    void restoresChangedTilesOnDifferentImage() {
+        BufferedImage before = createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage after = copyOf(before);
+        after.setRGB(0, 0, ~before.getRGB(0, 0));
+
+        var delta = ImageDelta.create(before, after);
+        assertThat(delta).isNotNull();
+
+        // changed outside the history, in a tile that the delta doesn't store
+        BufferedImage other = copyOf(after);
+        int changedRGB = ~after.getRGB(WIDTH - 1, HEIGHT - 1);
+        other.setRGB(WIDTH - 1, HEIGHT - 1, changedRGB);
+
+        BufferedImage recreated = delta.recreate(other);
+        assertThat(recreated.getRGB(0, 0)).isEqualTo(before.getRGB(0, 0));
+        assertThat(recreated.getRGB(WIDTH - 1, HEIGHT - 1)).isEqualTo(changedRGB);
+
+        delta.release();
+    }
+
+    @Test
+    void refusesToRecreateFromResizedImage() {
+        BufferedImage before = createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        BufferedImage after = copyOf(before);
+        after.setRGB(0, 0, ~before.getRGB(0, 0));
+
+        var delta = ImageDelta.create(before, after);
+        assertThat(delta).isNotNull();
+
+        var resized = new BufferedImage(WIDTH + 1, HEIGHT, TYPE_INT_ARGB);
+        assertThat(delta.recreate(resized)).isNull();
+
+        delta.release();
+    }
+
+    @Test
+    void noDeltaForUnchangedImage() {
+        BufferedImage img = createRandomImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+
+        assertThat(ImageDelta.create(img, copyOf(img))).isNull();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.TestHelper;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.io.LargeImage.TILE_SIZE;
+
+@DisplayName("LargeImage tests")
+class LargeImageTest {
+    private static final int WIDTH = 3 * TILE_SIZE + 100;
+    private static final int HEIGHT = 2 * TILE_SIZE + 50;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void calcSubsampling() {
+        assertThat(LargeImage.calcSubsampling(1000, 1000, 1_000_000)).isEqualTo(1);
+        assertThat(LargeImage.calcSubsampling(2000, 2000, 1_000_000)).isEqualTo(2);
+        assertThat(LargeImage.calcSubsampling(30_000, 30_000, 4_000_000)).isEqualTo(15);
+
+        // 1001x1001 pixels with a subsampling of 2 would be too much
+        assertThat(LargeImage.calcSubsampling(2001, 2001, 1_000_000)).isEqualTo(3);
+    }
+
+    @Test
+    void regionsMatchTheFullImage(@TempDir Path dir) throws IOException {
+        BufferedImage fullImage = createTestImage();
+        File file = writePNG(fullImage, dir);
+        var largeImage = LargeImage.open(file, Long.MAX_VALUE);
+
+        // crosses tile boundaries
+        var region = new Rectangle(TILE_SIZE - 10, TILE_SIZE - 20, TILE_SIZE, 40);
+        assertRegionMatches(largeImage.readRegion(region), fullImage, region);
+        assertThat(largeImage.getNumCachedTiles()).isEqualTo(4);
+
+        // the cached tile (1, 1) is reused, only the 5 missing ones are decoded
+        var region2 = new Rectangle(TILE_SIZE + 5, TILE_SIZE + 5, 2 * TILE_SIZE, TILE_SIZE);
+        assertRegionMatches(largeImage.readRegion(region2), fullImage, region2);
+        assertThat(largeImage.getNumCachedTiles()).isEqualTo(9);
+
+        // the region is clipped to the image
+        var region3 = new Rectangle(WIDTH - 20, HEIGHT - 30, 100, 100);
+        BufferedImage clipped = largeImage.readRegion(region3);
+        assertThat(clipped.getWidth()).isEqualTo(20);
+        assertThat(clipped.getHeight()).isEqualTo(30);
+        assertRegionMatches(clipped, fullImage, region3.intersection(largeImage.getBounds()));
+    }
+
+    @Test
+    void leastRecentlyUsedTilesAreEvicted(@TempDir Path dir) throws IOException {
+        BufferedImage fullImage = createTestImage();
+        File file = writePNG(fullImage, dir);
+        long twoTiles = 2L * 4 * TILE_SIZE * TILE_SIZE;
+        var largeImage = LargeImage.open(file, twoTiles);
+
+        var region = new Rectangle(0, 0, 3 * TILE_SIZE, TILE_SIZE);
+        assertRegionMatches(largeImage.readRegion(region), fullImage, region);
+        assertThat(largeImage.getNumCachedTiles()).isEqualTo(2);
+
+        var region2 = new Rectangle(0, TILE_SIZE, 10, 10);
+        assertRegionMatches(largeImage.readRegion(region2), fullImage, region2);
+        assertThat(largeImage.getNumCachedTiles()).isEqualTo(2);
+    }
+
+    private static BufferedImage createTestImage() {
+        var img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, (x % 256) << 16 | (y % 256) << 8 | ((x + y) / 8 % 256));
+            }
+        }
+        return img;
+    }
+
+    private static File writePNG(BufferedImage img, Path dir) throws IOException {
+        File file = dir.resolve("large.png").toFile();
+        ImageIO.write(img, "PNG", file);
+        return file;
+    }
+
+    private static void assertRegionMatches(BufferedImage regionImage,
+                                            BufferedImage fullImage,
+                                            Rectangle region) {
+        assertThat(regionImage.getWidth()).isEqualTo(region.width);
+        assertThat(regionImage.getHeight()).isEqualTo(region.height);
+        for (int y = 0; y < region.height; y++) {
+            for (int x = 0; x < region.width; x++) {
+                int expected = fullImage.getRGB(region.x + x, region.y + y);
+                assertThat(regionImage.getRGB(x, y)).isEqualTo(expected);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.filters.Filter;
+import pixelitor.filters.Invert;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.layers.MaskViewMode.NORMAL;
+
+@DisplayName("AdjustmentLayer tests")
+class AdjustmentLayerTest {
+    private Composition comp;
+    private ImageLayer imageLayer;
+    private ImageLayer topLayer;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp();
+
+        BufferedImage img = TestHelper.createImage();
+        var g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.dispose();
+        imageLayer = TestHelper.createImageLayer(comp, img, "image");
+        comp.addLayerInInitMode(imageLayer);
+
+        var adjustmentLayer = TestHelper.createAdjustmentLayer(comp, "invert", new Invert());
+        comp.addLayerInInitMode(adjustmentLayer);
+
+        topLayer = TestHelper.createEmptyImageLayer(comp, "top");
+        comp.addLayerInInitMode(topLayer);
+    }
+
+    private int compositeRGB(int x, int y) {
+        return comp.getCompositeImage().getRGB(x, y);
+    }
+
+    @Test
+    void resultIsReusedForChangesAbove() {
+        NORMAL.activate(topLayer);
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.CYAN.getRGB());
+
+        long runCountBefore = Filter.getRunCount();
+        comp.imageChanged();
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.CYAN.getRGB());
+        assertThat(Filter.getRunCount()).isEqualTo(runCountBefore);
+    }
+
+    @Test
+    void layersAboveDoNotChangeTheCachedResult() {
+        NORMAL.activate(topLayer);
+        var g = topLayer.getImage().createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, 2, 2);
+        g.dispose();
+        comp.imageChanged();
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.BLUE.getRGB());
+
+        g = topLayer.getImage().createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, 2, 2);
+        g.dispose();
+        long runCountBefore = Filter.getRunCount();
+        comp.imageChanged();
+
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.CYAN.getRGB());
+        assertThat(Filter.getRunCount()).isEqualTo(runCountBefore);
+    }
+
+    @Test
+    void changedRegionBellow() {
+        NORMAL.activate(imageLayer);
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.CYAN.getRGB());
+
+        var g = imageLayer.getImage().createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, 2, 2);
+        g.dispose();
+        comp.imageChanged(new Rectangle(0, 0, 2, 2));
+
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.YELLOW.getRGB());
+        assertThat(compositeRGB(5, 5)).isEqualTo(Color.CYAN.getRGB());
+    }
+
+    @Test
+    void visibilityChangeBellow() {
+        NORMAL.activate(topLayer);
+        assertThat(compositeRGB(0, 0)).isEqualTo(Color.CYAN.getRGB());
+
+        imageLayer.setVisible(false, false);
+        // nothing is visible bellow the adjustment layer
+        assertThat(compositeRGB(0, 0)).isZero();
+    }
+}
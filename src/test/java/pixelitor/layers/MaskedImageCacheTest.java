@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.layers.LayerMaskAddType.HIDE_ALL;
+import static pixelitor.layers.MaskViewMode.NORMAL;
+
+@DisplayName("MaskedImageCache tests")
+class MaskedImageCacheTest {
+    private Composition comp;
+    private ImageLayer layer;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        comp = TestHelper.createEmptyComp();
+
+        BufferedImage img = TestHelper.createImage();
+        var g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, img.getWidth(), img.getHeight());
+        g.dispose();
+
+        layer = TestHelper.createImageLayer(comp, img, "layer");
+        comp.addLayerInInitMode(layer);
+        NORMAL.activate(layer);
+        layer.addMask(HIDE_ALL);
+    }
+
+    private int compositeRGB(int x, int y) {
+        return comp.getCompositeImage().getRGB(x, y);
+    }
+
+    @Test
+    void maskChangedInPlace() {
+        assertThat(compositeRGB(1, 1)).isZero();
+
+        // reveal a region by painting into the mask
+        var g = layer.getMask().getImage().createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 2, 2);
+        g.dispose();
+        comp.imageChanged(new Rectangle(0, 0, 2, 2));
+
+        assertThat(compositeRGB(1, 1)).isEqualTo(Color.RED.getRGB());
+        assertThat(compositeRGB(5, 5)).isZero();
+    }
+
+    @Test
+    void maskReplaced() {
+        assertThat(compositeRGB(1, 1)).isZero();
+
+        layer.deleteMask(false);
+        layer.addMask(LayerMaskAddType.REVEAL_ALL);
+
+        assertThat(compositeRGB(1, 1)).isEqualTo(Color.RED.getRGB());
+    }
+}